@@ -0,0 +1,68 @@
+package newbank.bench;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import newbank.server.Command;
+
+/*
+ * Compares the time taken and, with -prof gc, the bytes allocated per request by the old way of reading a request,
+ * which split the line into a command and an ArrayList of parameters once for the confirmation message and again to
+ * run it, with Command.parse, which reads the line once into a typed command used for both.
+ *
+ * Run with: java -jar benchmarks/target/benchmarks.jar CommandParserBenchmark -prof gc
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CommandParserBenchmark {
+
+	@Param({
+			"PAY 125.50 GB001000011000001 GB001000021000002",
+			"MOVE 10 Main Savings",
+			"PRINTSTATEMENT GB001000011000001 2",
+			"NEWACCOUNT SAVINGS Holiday",
+			"SHOWMYACCOUNTS",
+			"INFO",
+			"LOAN CURRENT benchBob 1.00",
+			"REPAY",
+			"PAYBATCH 100"
+	})
+	String request;
+
+	// The request handling before Command: once for the confirmation message and once to run the request
+	@Benchmark
+	public void splitTwice(Blackhole blackhole) {
+		for (int pass = 0; pass < 2; pass++) {
+			String command = request.split(" ")[0];
+			String[] params = request.split(" ");
+			ArrayList<String> otherParams = new ArrayList<>();
+			if (params.length > 1) {
+				otherParams.addAll(Arrays.asList(Arrays.copyOfRange(params, 1, params.length)));
+			}
+			blackhole.consume(command);
+			blackhole.consume(otherParams);
+		}
+	}
+
+	@Benchmark
+	public Command parseOnce() {
+		return Command.parse(request);
+	}
+}
@@ -0,0 +1,75 @@
+package newbank.bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import newbank.server.CustomerID;
+import newbank.server.SecureDataStore;
+
+/*
+ * Measures how many log ins per second the server can check when many clients log in at the same time, e.g. after a
+ * restart when every client reconnects. Each benchmark thread is a client logging in repeatedly through
+ * SecureDataStore. For comparison the same log ins are also run one at a time behind a single lock, as they were when
+ * checkLogInDetails was synchronized. Change the number of clients with -t.
+ *
+ * Run with: java -jar benchmarks/target/benchmarks.jar LoginBenchmark -t 256
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(64)
+public class LoginBenchmark {
+
+	private static final int CUSTOMERS = 64;
+	private static final String PASSWORD = "BenchPassword1!";
+	private static final Object globalLock = new Object();
+
+	// The customers the clients log in as
+	@State(Scope.Benchmark)
+	public static class Customers {
+		@Setup
+		public void add() {
+			for (int i = 0; i < CUSTOMERS; i++) {
+				SecureDataStore.addNewCustomer("bench" + i, PASSWORD, "1 Bench Road", "07000000000", "bench@test.com");
+			}
+		}
+	}
+
+	// One client, logging in as one of the customers
+	@State(Scope.Thread)
+	public static class Client {
+		private static final AtomicInteger clients = new AtomicInteger();
+		String username;
+
+		@Setup
+		public void choose(Customers customers) {
+			username = "bench" + clients.getAndIncrement() % CUSTOMERS;
+		}
+	}
+
+	@Benchmark
+	public CustomerID authenticationPool(Client client) {
+		return SecureDataStore.checkLogInDetails(client.username, PASSWORD);
+	}
+
+	@Benchmark
+	public CustomerID oneAtATimeBehindALock(Client client) {
+		synchronized (globalLock) {
+			return SecureDataStore.checkLogInDetails(client.username, PASSWORD);
+		}
+	}
+}
@@ -0,0 +1,270 @@
+package newbank.bench;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import newbank.server.Account;
+import newbank.server.Command;
+import newbank.server.CurrentAccount;
+import newbank.server.Customer;
+import newbank.server.CustomerID;
+import newbank.server.NewBank;
+import newbank.server.SavingsAccount;
+import newbank.server.SecureDataStore;
+import newbank.server.Transaction;
+
+/*
+ * Benchmarks the server's hot paths, to check whether a change makes them slower: running each command through
+ * NewBank.processRequest, MOVE and SHOWMYACCOUNTS for a customer with hundreds of accounts, also while another thread
+ * keeps moving money between them, a MOVE already parsed (the account locks, the transfer and the journal commit),
+ * looking up accounts by IBAN, printing a statement page of accounts with short and long histories, and checking a
+ * log in.
+ *
+ * Each fork starts the bank in a new temporary data directory, or in -Dnewbank.data=<directory>, with the journal in
+ * SYNC mode as the server runs by default, so the requests that change the bank include an fsync each. BATCHED mode is
+ * no faster for one thread, a lone commit waits for the next batch. Anything the server prints is discarded.
+ *
+ * Run with: java -jar benchmarks/target/benchmarks.jar ServerBenchmark -prof gc
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServerBenchmark {
+
+	private static final String PASSWORD = "BenchPassword1!";
+	private static final int BATCH_SIZE = 100;
+	private static final int CORPORATE_ACCOUNTS = 500;
+	// accounts opened besides the customers' own, so IBANs are looked up among many
+	private static final int LOOKUP_ACCOUNTS = 10000;
+
+	// The bank and the customers the benchmarks send requests for
+	@State(Scope.Benchmark)
+	public static class Bank {
+		NewBank bank;
+		CustomerID aliceId;
+		CustomerID bobId;
+		CustomerID accountsId;
+		CustomerID corporateId;
+		Account aliceMain;
+		String pay;
+		String payBack;
+		String printStatement;
+		String corporateMove;
+		String corporateMoveBack;
+		Command[] moves;
+		String[] ibans;
+
+		@Setup
+		public void start() throws Exception {
+			System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+			if (System.getProperty("newbank.data") == null) {
+				System.setProperty("newbank.data", Files.createTempDirectory("newbank-bench").toString());
+			}
+			System.setProperty("newbank.snapshot.intervalMinutes", "0");
+			bank = NewBank.getBank();
+
+			Customer alice = newCustomer("benchAlice");
+			aliceMain = alice.getAccountByName("Main");
+			aliceId = new CustomerID("benchAlice");
+			Customer bob = newCustomer("benchBob");
+			Account bobMain = bob.getAccountByName("Main");
+			bobId = new CustomerID("benchBob");
+			pay = "PAY 0.01 " + aliceMain.getIBAN() + " " + bobMain.getIBAN();
+			payBack = "PAY 0.01 " + bobMain.getIBAN() + " " + aliceMain.getIBAN();
+			printStatement = "PRINTSTATEMENT " + aliceMain.getIBAN();
+			newCustomer("benchAccounts");
+			accountsId = new CustomerID("benchAccounts");
+
+			// a corporate customer with hundreds of accounts, moving money between the last two it opened
+			Customer corporate = newCustomer("benchCorporate");
+			for (int account = 0; account < CORPORATE_ACCOUNTS; account++) {
+				corporate.addAccount(new CurrentAccount("Sub" + account, 100_00, corporate));
+			}
+			corporateId = new CustomerID("benchCorporate");
+			corporateMove = "MOVE 0.01 Sub" + (CORPORATE_ACCOUNTS - 2) + " Sub" + (CORPORATE_ACCOUNTS - 1);
+			corporateMoveBack = "MOVE 0.01 Sub" + (CORPORATE_ACCOUNTS - 1) + " Sub" + (CORPORATE_ACCOUNTS - 2);
+
+			moves = new Command[] { Command.parse("MOVE 0.01 Main Savings"), Command.parse("MOVE 0.01 Savings Main") };
+			Customer lookup = newCustomer("benchLookup");
+			for (int account = 0; account < LOOKUP_ACCOUNTS; account++) {
+				lookup.addAccount(new CurrentAccount("Lookup" + account, 0, lookup));
+			}
+			ibans = new String[] { aliceMain.getIBAN(), bobMain.getIBAN(), "GB001234561234567" };
+		}
+
+		@TearDown
+		public void stop() {
+			bank.shutdown();
+		}
+	}
+
+	// Counts the operations of one thread, so requests can alternate and money goes back and forth
+	@State(Scope.Thread)
+	public static class Counter {
+		long i;
+
+		boolean even() {
+			return (i++ & 1) == 0;
+		}
+	}
+
+	// An account whose Main account has historySize transactions within the last 12 months
+	@State(Scope.Benchmark)
+	public static class History {
+		@Param({ "20", "1000", "100000" })
+		int historySize;
+		Account account;
+		int lastPage;
+
+		@Setup
+		public void fill(Bank bank) {
+			Customer customer = newCustomer("benchHistory" + historySize);
+			account = customer.getAccountByName("Main");
+			Account savings = customer.getAccountByName("Savings");
+			for (int i = 0; i < historySize; i++) {
+				account.addTransaction(new Transaction(savings, account, 1));
+			}
+			lastPage = account.getStatementPages();
+		}
+	}
+
+	@Benchmark
+	public String processRequestInfo(Bank state) {
+		return state.bank.processRequest(state.aliceId, "INFO");
+	}
+
+	@Benchmark
+	public String processRequestShowMyAccounts(Bank state) {
+		return state.bank.processRequest(state.aliceId, "SHOWMYACCOUNTS");
+	}
+
+	@Benchmark
+	public String processRequestMove(Bank state, Counter counter) {
+		return state.bank.processRequest(state.aliceId,
+				counter.even() ? "MOVE 0.01 Main Savings" : "MOVE 0.01 Savings Main");
+	}
+
+	@Benchmark
+	public String processRequestPay(Bank state, Counter counter) {
+		return counter.even()
+				? state.bank.processRequest(state.aliceId, state.pay) : state.bank.processRequest(state.bobId, state.payBack);
+	}
+
+	@Benchmark
+	public String processRequestPrintStatement(Bank state) {
+		return state.bank.processRequest(state.aliceId, state.printStatement);
+	}
+
+	@Benchmark
+	public String processRequestNewAccount(Bank state) {
+		return state.bank.processRequest(state.accountsId, "NEWACCOUNT CURRENT Bench");
+	}
+
+	// a customer can only have one loan at a time, so each operation takes out a loan and repays it
+	@Benchmark
+	public String processRequestLoanAndRepay(Bank state) {
+		return state.bank.processRequest(state.aliceId, "LOAN CURRENT benchBob 1.00")
+				+ state.bank.processRequest(state.bobId, "REPAY");
+	}
+
+	@Benchmark
+	public String processRequestPayBatch(Bank state, Counter counter) {
+		boolean even = counter.even();
+		Command batch = Command.parse("PAYBATCH " + BATCH_SIZE);
+		for (int line = 0; line < BATCH_SIZE; line++) {
+			batch.addLine(even ? state.pay.substring(4) : state.payBack.substring(4));
+		}
+		return state.bank.processRequest(even ? state.aliceId : state.bobId, batch);
+	}
+
+	@Benchmark
+	public String processRequestMoveCorporate(Bank state, Counter counter) {
+		return state.bank.processRequest(state.corporateId,
+				counter.even() ? state.corporateMove : state.corporateMoveBack);
+	}
+
+	@Benchmark
+	public String processRequestShowMyAccountsCorporate(Bank state) {
+		return state.bank.processRequest(state.corporateId, "SHOWMYACCOUNTS");
+	}
+
+	@Benchmark
+	public String processRequestShowMyAccountsAfterMoveCorporate(Bank state, Counter counter) {
+		return state.bank.processRequest(state.corporateId, counter.even() ? state.corporateMove : state.corporateMoveBack)
+				+ state.bank.processRequest(state.corporateId, "SHOWMYACCOUNTS");
+	}
+
+	// SHOWMYACCOUNTS for the corporate customer while another session keeps moving money between its accounts
+	@Benchmark
+	@Group("showMyAccountsDuringMovesCorporate")
+	@GroupThreads(1)
+	public String showMyAccountsDuringMoves(Bank state) {
+		return state.bank.processRequest(state.corporateId, "SHOWMYACCOUNTS");
+	}
+
+	@Benchmark
+	@Group("showMyAccountsDuringMovesCorporate")
+	@GroupThreads(1)
+	public String movesDuringShowMyAccounts(Bank state, Counter counter) {
+		return state.bank.processRequest(state.corporateId,
+				counter.even() ? state.corporateMove : state.corporateMoveBack);
+	}
+
+	@Benchmark
+	public String moveParsedOnce(Bank state, Counter counter) {
+		return state.bank.processRequest(state.aliceId, state.moves[(int) (counter.i++ & 1)]);
+	}
+
+	@Benchmark
+	public Account getAccountFromIBAN(Bank state, Counter counter) {
+		return Account.getAccountFromIBAN(state.ibans[(int) (counter.i++ % state.ibans.length)]);
+	}
+
+	@Benchmark
+	public String statementFirstPage(History history) {
+		return history.account.getStatement(1);
+	}
+
+	@Benchmark
+	public String statementLastPage(History history) {
+		return history.account.getStatement(history.lastPage);
+	}
+
+	@Benchmark
+	public CustomerID checkLogInDetails(Bank state) {
+		return SecureDataStore.checkLogInDetails("benchAlice", PASSWORD);
+	}
+
+	@Benchmark
+	public CustomerID checkLogInDetailsWrongPassword(Bank state) {
+		return SecureDataStore.checkLogInDetails("benchAlice", "Wrong1!");
+	}
+
+	// Adds a customer with a current account Main and a savings account Savings with plenty of money
+	private static Customer newCustomer(String username) {
+		SecureDataStore.addNewCustomer(username, PASSWORD, "1 Bench Road", "07000000000", "bench@test.com");
+		Customer customer = SecureDataStore.getCustomer(username);
+		customer.addAccount(new CurrentAccount("Main", 1_000_000_00, customer));
+		customer.addAccount(new SavingsAccount("Savings", 1_000_000_00, customer));
+		return customer;
+	}
+}
@@ -6,6 +6,7 @@ import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.util.Arrays;
 
 public class ExampleClient extends Thread{
 	private Socket server;
@@ -52,7 +53,12 @@ public class ExampleClient extends Thread{
 		}
 	}
 	
-	public static void main(String[] args) throws UnknownHostException, IOException, InterruptedException {
+	// "ExampleClient LOAD [option=value ...]" runs the load driver instead, see LoadDriver
+	public static void main(String[] args) throws Exception {
+		if (args.length > 0 && args[0].equals("LOAD")) {
+			LoadDriver.main(Arrays.copyOfRange(args, 1, args.length));
+			return;
+		}
 		new ExampleClient("localhost",14002).start();
 	}
 }
@@ -0,0 +1,379 @@
+package newbank.client;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+
+import newbank.metrics.LatencyHistogram;
+
+/*
+ * Load driver mode of ExampleClient, to test the capacity of a local server. It opens a number of sessions, each on
+ * its own connection and thread, logs each in and then sends a weighted mix of PAY, MOVE, SHOWMYACCOUNTS and
+ * PRINTSTATEMENT requests. Each request is tagged and PAY and MOVE are confirmed in advance with CONFIRM, so every
+ * request takes a single round trip and its response is known to end at the tag's END line. At the end it prints the throughput, the number
+ * of failed requests and latency percentiles for each command and overall.
+ *
+ * With rate=<requests per second> the sessions together send requests at a fixed rate, each on its own schedule. The
+ * latency of a request is measured from the time it was due to be sent, not from when it was sent, so a slow response
+ * that holds up the requests behind it shows in their latency too (no coordinated omission). The time from sending to
+ * the response is reported separately as the service time. Without a rate each session sends its next request as soon
+ * as it has the response (a closed loop), which finds the highest throughput, and the latencies are only the service
+ * times.
+ *
+ * Run with: java newbank.client.ExampleClient LOAD [option=value ...], the options and their defaults are:
+ *   host=localhost port=14002 sessions=16 rate=0 seconds=30 warmup=5
+ *   users=John,Christina,Bhagy password=Password123! mix=PAY:40,MOVE:20,SHOWMYACCOUNTS:30,PRINTSTATEMENT:10
+ * Sessions log in as the users in turn. PAY pays 0.01 to an account of another user and MOVE moves 0.01 back and forth
+ * between the first two accounts of the session's user, users with only one account send another command instead.
+ */
+public class LoadDriver {
+
+	private enum Kind { PAY, MOVE, SHOWMYACCOUNTS, PRINTSTATEMENT }
+
+	private final Map<String, String> options = new LinkedHashMap<>();
+	private final Kind[] mix;
+	private final int[] cumulativeWeights;
+	// every IBAN of every user logged in, by user, filled in while the sessions log in
+	private final Map<String, List<String>> ibansByUser = Collections.synchronizedMap(new LinkedHashMap<>());
+
+	private LoadDriver(String[] args) {
+		options.put("host", "localhost");
+		options.put("port", "14002");
+		options.put("sessions", "16");
+		options.put("rate", "0");
+		options.put("seconds", "30");
+		options.put("warmup", "5");
+		options.put("users", "John,Christina,Bhagy");
+		options.put("password", "Password123!");
+		options.put("mix", "PAY:40,MOVE:20,SHOWMYACCOUNTS:30,PRINTSTATEMENT:10");
+		for (String arg : args) {
+			int equals = arg.indexOf('=');
+			if (equals < 0 || !options.containsKey(arg.substring(0, equals))) {
+				throw new IllegalArgumentException("Unknown option " + arg + ", the options are " + options);
+			}
+			options.put(arg.substring(0, equals), arg.substring(equals + 1));
+		}
+		String[] parts = options.get("mix").split(",");
+		mix = new Kind[parts.length];
+		cumulativeWeights = new int[parts.length];
+		int total = 0;
+		for (int i = 0; i < parts.length; i++) {
+			String[] kindAndWeight = parts[i].split(":");
+			mix[i] = Kind.valueOf(kindAndWeight[0]);
+			total += Integer.parseInt(kindAndWeight[1]);
+			cumulativeWeights[i] = total;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		new LoadDriver(args).run();
+	}
+
+	private void run() throws Exception {
+		int sessionCount = Integer.parseInt(options.get("sessions"));
+		double rate = Double.parseDouble(options.get("rate"));
+		long warmupNanos = Long.parseLong(options.get("warmup")) * 1000000000L;
+		long runNanos = Long.parseLong(options.get("seconds")) * 1000000000L;
+		String[] users = options.get("users").split(",");
+		System.out.println("Load: " + options);
+
+		List<Session> sessions = new ArrayList<>();
+		for (int i = 0; i < sessionCount; i++) {
+			sessions.add(new Session(users[i % users.length]));
+		}
+		// every session has logged in and the IBANs of every user are known before the load starts
+		CyclicBarrier loggedIn = new CyclicBarrier(sessionCount + 1);
+		for (Session session : sessions) {
+			session.thread = new Thread(() -> session.run(loggedIn), "load-" + session.user);
+			session.thread.start();
+		}
+		try {
+			loggedIn.await();
+			long start = System.nanoTime();
+			long measureFrom = start + warmupNanos;
+			long end = measureFrom + runNanos;
+			// each session sends a request every sessionCount / rate seconds, spread evenly over the interval
+			long interval = rate > 0 ? (long) (sessionCount * 1e9 / rate) : 0;
+			for (int i = 0; i < sessionCount; i++) {
+				sessions.get(i).schedule(start + interval * i / sessionCount, interval, measureFrom, end);
+			}
+			loggedIn.await();
+		} catch (BrokenBarrierException e) {
+			System.out.println("Not every session could log in, no load was sent");
+		}
+		for (Session session : sessions) {
+			session.thread.join();
+		}
+		report(sessions, runNanos, rate > 0);
+	}
+
+	// Prints the results of all sessions together
+	private void report(List<Session> sessions, long runNanos, boolean fixedRate) {
+		Map<Kind, LatencyHistogram> latencies = new LinkedHashMap<>();
+		Map<Kind, long[]> failures = new LinkedHashMap<>();
+		LatencyHistogram all = new LatencyHistogram();
+		LatencyHistogram service = new LatencyHistogram();
+		int broken = 0;
+		// requests due near the end may be answered late when the server is overloaded, the rate counts until then
+		long measuredNanos = runNanos;
+		for (Kind kind : Kind.values()) {
+			latencies.put(kind, new LatencyHistogram());
+			failures.put(kind, new long[1]);
+		}
+		for (Session session : sessions) {
+			for (Kind kind : Kind.values()) {
+				latencies.get(kind).add(session.latencies[kind.ordinal()]);
+				failures.get(kind)[0] += session.failures[kind.ordinal()];
+				all.add(session.latencies[kind.ordinal()]);
+			}
+			service.add(session.serviceTimes);
+			measuredNanos = Math.max(measuredNanos, session.lastDone - session.measureFrom);
+			if (session.error != null) {
+				broken++;
+				System.out.println(session.user + " session stopped: " + session.error);
+			}
+		}
+		System.out.printf("%d requests in %.1f s, %.0f requests/s, %d sessions stopped by errors%n", all.getCount(),
+				measuredNanos / 1e9, all.getCount() * 1e9 / measuredNanos, broken);
+		System.out.println("Latency" + (fixedRate ? ", from when each request was due to be sent:" : ":"));
+		for (Kind kind : Kind.values()) {
+			if (latencies.get(kind).getCount() > 0) {
+				System.out.printf("%-15s %s, %d failed%n", kind, latencies.get(kind).toString(1000, "ms"),
+						failures.get(kind)[0]);
+			}
+		}
+		System.out.printf("%-15s %s%n", "ALL", all.toString(1000, "ms"));
+		if (fixedRate) {
+			System.out.printf("%-15s %s%n", "SERVICE TIME", service.toString(1000, "ms"));
+		}
+	}
+
+	// One connection to the server, logged in as one user, with its own thread and histograms
+	private final class Session {
+		private final String user;
+		private final LatencyHistogram[] latencies = new LatencyHistogram[Kind.values().length];
+		private final long[] failures = new long[Kind.values().length];
+		private final LatencyHistogram serviceTimes = new LatencyHistogram();
+		private Thread thread;
+		private BufferedReader in;
+		private PrintWriter out;
+		// the IBANs and names of the user's accounts, read at log in
+		private final List<String> ibans = new ArrayList<>();
+		private final List<String> names = new ArrayList<>();
+		private long firstDue;
+		private long interval;
+		private long measureFrom;
+		private long end;
+		private long moves;
+		// number of requests sent, each request is tagged with its number
+		private long requests;
+		// when the response to the last measured request arrived
+		private long lastDone;
+		private Exception error;
+
+		Session(String user) {
+			this.user = user;
+			for (int i = 0; i < latencies.length; i++) {
+				latencies[i] = new LatencyHistogram();
+			}
+		}
+
+		// Sets when the session sends its requests, called before the load starts
+		void schedule(long firstDue, long interval, long measureFrom, long end) {
+			this.firstDue = firstDue;
+			this.interval = interval;
+			this.measureFrom = measureFrom;
+			this.end = end;
+		}
+
+		void run(CyclicBarrier loggedIn) {
+			try (Socket socket = new Socket(options.get("host"), Integer.parseInt(options.get("port")))) {
+				// every request is written with one flush, Nagle's algorithm would only hold it back
+				socket.setTcpNoDelay(true);
+				in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+				out = new PrintWriter(socket.getOutputStream(), false);
+				logIn();
+				loggedIn.await();
+				loggedIn.await();
+				sendRequests();
+			} catch (Exception e) {
+				error = e;
+				// the other sessions must not wait for this one
+				loggedIn.reset();
+			}
+		}
+
+		private void logIn() throws IOException {
+			readUntil("Enter Username");
+			send(user);
+			readUntil("Enter Password");
+			send(options.get("password"));
+			String line = in.readLine();
+			while (line == null || !line.startsWith("Session token:")) {
+				if (line == null || line.equals("Log In Failed")) {
+					throw new IOException(user + " could not log in");
+				}
+				line = in.readLine();
+			}
+			for (String account : request("SHOWMYACCOUNTS")) {
+				// e.g. Main(CURRENT, GB001000011000001): 1000.00
+				int open = account.indexOf('(');
+				int comma = account.indexOf(", ", open);
+				int close = account.indexOf("):", comma);
+				if (open > 0 && comma > open && close > comma) {
+					names.add(account.substring(0, open));
+					ibans.add(account.substring(comma + 2, close));
+				}
+			}
+			ibansByUser.putIfAbsent(user, ibans);
+		}
+
+		private void sendRequests() throws IOException {
+			long due = firstDue;
+			while (true) {
+				if (interval > 0) {
+					long now = System.nanoTime();
+					// a session that fell behind sends at once, its latency still counts from when it was due
+					while (now < due) {
+						LockSupport.parkNanos(due - now);
+						now = System.nanoTime();
+					}
+				} else {
+					due = System.nanoTime();
+				}
+				if (due >= end) {
+					return;
+				}
+				Kind kind = nextKind();
+				if (kind == null) {
+					throw new IOException("None of the commands in the mix can be sent by " + user);
+				}
+				long sent = System.nanoTime();
+				boolean failed = send(kind);
+				long done = System.nanoTime();
+				if (due >= measureFrom) {
+					latencies[kind.ordinal()].record((done - due) / 1000);
+					serviceTimes.record((done - sent) / 1000);
+					lastDone = done;
+					if (failed) {
+						failures[kind.ordinal()]++;
+					}
+				}
+				due += interval;
+			}
+		}
+
+		// Picks the next command by weight among the commands this session's user can send, null if there are none
+		private Kind nextKind() {
+			int total = 0;
+			int[] weights = new int[mix.length];
+			for (int i = 0; i < mix.length; i++) {
+				int weight = cumulativeWeights[i] - (i == 0 ? 0 : cumulativeWeights[i - 1]);
+				total += canSend(mix[i]) ? weight : 0;
+				weights[i] = total;
+			}
+			if (total == 0) {
+				return null;
+			}
+			int pick = ThreadLocalRandom.current().nextInt(total);
+			int i = 0;
+			while (pick >= weights[i]) {
+				i++;
+			}
+			return mix[i];
+		}
+
+		private boolean canSend(Kind kind) {
+			switch (kind) {
+				case PAY:
+					return !ibans.isEmpty() && ibansByUser.size() > 1;
+				case MOVE:
+					return names.size() > 1;
+				case PRINTSTATEMENT:
+					return !ibans.isEmpty();
+				default:
+					return true;
+			}
+		}
+
+		// Sends one request and reads its whole response, returns true if it failed
+		private boolean send(Kind kind) throws IOException {
+			switch (kind) {
+				case PAY:
+					return failed(request("PAY 0.01 " + ibans.get(0) + " " + otherUsersIban() + " CONFIRM"));
+				case MOVE:
+					// back and forth so the balances stay the same
+					boolean back = (moves++ & 1) == 1;
+					return failed(request("MOVE 0.01 " + names.get(back ? 1 : 0) + " " + names.get(back ? 0 : 1)
+							+ " CONFIRM"));
+				case SHOWMYACCOUNTS:
+					return failed(request("SHOWMYACCOUNTS"));
+				default:
+					return failed(request("PRINTSTATEMENT " + ibans.get(0)));
+			}
+		}
+
+		private String otherUsersIban() {
+			List<String> others;
+			synchronized (ibansByUser) {
+				List<String> users = new ArrayList<>(ibansByUser.keySet());
+				users.remove(user);
+				others = ibansByUser.get(users.get(ThreadLocalRandom.current().nextInt(users.size())));
+			}
+			return others.get(ThreadLocalRandom.current().nextInt(others.size()));
+		}
+
+		// Sends a tagged request and returns the lines of its response without the tag, up to the tag's END line
+		private List<String> request(String request) throws IOException {
+			String tag = "#" + ++requests + " ";
+			send(tag + request);
+			List<String> lines = new ArrayList<>();
+			String line = in.readLine();
+			while (line != null && !line.equals(tag + "END")) {
+				if (line.startsWith(tag)) {
+					lines.add(line.substring(tag.length()));
+				}
+				line = in.readLine();
+			}
+			if (line == null) {
+				throw new IOException("Connection closed by the server");
+			}
+			return lines;
+		}
+
+		private boolean failed(List<String> lines) {
+			for (String line : lines) {
+				if (line.contains("FAIL") || line.startsWith("Invalid")) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private void readUntil(String expected) throws IOException {
+			String line = in.readLine();
+			while (line != null && !line.equals(expected)) {
+				line = in.readLine();
+			}
+			if (line == null) {
+				throw new IOException("Connection closed by the server");
+			}
+		}
+
+		private void send(String line) {
+			out.println(line);
+			out.flush();
+		}
+	}
+}
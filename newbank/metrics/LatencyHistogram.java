@@ -0,0 +1,146 @@
+package newbank.metrics;
+
+import java.util.Arrays;
+
+/*
+ * A histogram of latencies in the style of HdrHistogram: values are counted in buckets whose width grows with the
+ * value, so every value from 0 to Long.MAX_VALUE is kept to within 1% (a bucket never spans more than 1/128 of its
+ * lowest value) in a fixed array of counts, and recording a value is a few shifts and an array increment.
+ *
+ * Values below 256 have a bucket each. Above that, each power of two is split into 128 equal buckets. Percentiles are
+ * reported as the highest value of the bucket they fall in, so they are never lower than the true value.
+ *
+ * A histogram is not safe to record into from several threads. Each thread records into its own histogram and the
+ * histograms are added together when they are read.
+ */
+public final class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 8;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int HALF = SUB_BUCKETS / 2;
+	// enough buckets for Long.MAX_VALUE, the highest bit of a long value is bit 62
+	private static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * HALF;
+
+	private final long[] counts = new long[BUCKETS];
+	private long count;
+	private long sum;
+	private long min = Long.MAX_VALUE;
+	private long max;
+
+	// Mutator: Count one value, negative values are counted as 0
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		counts[index(value)]++;
+		count++;
+		sum += value;
+		if (value < min) {
+			min = value;
+		}
+		if (value > max) {
+			max = value;
+		}
+	}
+
+	/*
+	 * Mutator: Count a value measured by a client that waits for each response before sending its next request. While
+	 * it waited for a slow response, requests it would have sent every expectedInterval were not sent, so the values
+	 * they would have seen (value - expectedInterval, value - 2 * expectedInterval, ...) are counted too. This corrects
+	 * the coordinated omission of a closed loop client the way HdrHistogram's recordValueWithExpectedInterval does.
+	 */
+	public void record(long value, long expectedInterval) {
+		record(value);
+		if (expectedInterval <= 0) {
+			return;
+		}
+		for (long missed = value - expectedInterval; missed >= expectedInterval; missed -= expectedInterval) {
+			record(missed);
+		}
+	}
+
+	// Mutator: Add the counts of another histogram to this one
+	public void add(LatencyHistogram other) {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] += other.counts[i];
+		}
+		count += other.count;
+		sum += other.sum;
+		min = Math.min(min, other.min);
+		max = Math.max(max, other.max);
+	}
+
+	// Mutator: Forget every value counted so far
+	public void reset() {
+		Arrays.fill(counts, 0);
+		count = 0;
+		sum = 0;
+		min = Long.MAX_VALUE;
+		max = 0;
+	}
+
+	// Accessor: Get the number of values counted
+	public long getCount() {
+		return count;
+	}
+
+	// Accessor: Get the lowest value counted, 0 if there are none
+	public long getMin() {
+		return count == 0 ? 0 : min;
+	}
+
+	// Accessor: Get the highest value counted
+	public long getMax() {
+		return max;
+	}
+
+	// Accessor: Get the mean of the values counted
+	public double getMean() {
+		return count == 0 ? 0 : (double) sum / count;
+	}
+
+	/*
+	 * Accessor: Get the value that the given percentage of the values counted are at or below, e.g. 99.9 for the
+	 * 99.9th percentile, to within the precision of the buckets
+	 */
+	public long getValueAtPercentile(double percentile) {
+		if (count == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min(highestValue(i), max);
+			}
+		}
+		return max;
+	}
+
+	// Accessor: Get the usual percentiles in one line, the values divided by unit, e.g. 1000 for microseconds as ms
+	public String toString(double unit, String unitName) {
+		return String.format("count=%d mean=%.2f p50=%.2f p90=%.2f p99=%.2f p99.9=%.2f p99.99=%.2f max=%.2f %s",
+				count, getMean() / unit, getValueAtPercentile(50) / unit, getValueAtPercentile(90) / unit,
+				getValueAtPercentile(99) / unit, getValueAtPercentile(99.9) / unit,
+				getValueAtPercentile(99.99) / unit, max / unit, unitName);
+	}
+
+	private static int index(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		// shift so the value keeps its 8 highest bits, which lie between HALF and SUB_BUCKETS
+		int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return SUB_BUCKETS + (shift - 1) * HALF + (int) (value >>> shift) - HALF;
+	}
+
+	private static long highestValue(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int shift = (index - SUB_BUCKETS) / HALF + 1;
+		long subBucket = (index - SUB_BUCKETS) % HALF + HALF;
+		return ((subBucket + 1) << shift) - 1;
+	}
+}
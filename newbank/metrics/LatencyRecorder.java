@@ -0,0 +1,86 @@
+package newbank.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Records the latencies of one kind of operation, e.g. one command, from many threads. Recording must be cheap enough
+ * to leave on all the time, so the values are spread over a few stripes, each a LatencyHistogram with its own lock,
+ * chosen by thread. A thread nearly always finds its stripe's lock free, and the stripes are only added together when
+ * the recorder is read. There are at most as many stripes as cores, so a server starting a thread per connection does
+ * not grow a histogram per thread.
+ *
+ * Latencies are recorded in nanoseconds.
+ */
+public final class LatencyRecorder implements LatencyRecorderMBean {
+
+	private static final int MAX_STRIPES = 16;
+
+	private final LatencyHistogram[] stripes;
+	private final int mask;
+	private final LongAdder errors = new LongAdder();
+
+	public LatencyRecorder() {
+		int count = Integer.highestOneBit(Math.min(Runtime.getRuntime().availableProcessors(), MAX_STRIPES));
+		stripes = new LatencyHistogram[count];
+		for (int i = 0; i < count; i++) {
+			stripes[i] = new LatencyHistogram();
+		}
+		mask = count - 1;
+	}
+
+	// Mutator: Record the time one operation took, and whether it failed
+	public void record(long nanos, boolean failed) {
+		LatencyHistogram stripe = stripes[(int) Thread.currentThread().getId() & mask];
+		synchronized (stripe) {
+			stripe.record(nanos);
+		}
+		if (failed) {
+			errors.increment();
+		}
+	}
+
+	// Accessor: Get a copy of everything recorded so far, added together from every stripe
+	public LatencyHistogram snapshot() {
+		LatencyHistogram total = new LatencyHistogram();
+		for (LatencyHistogram stripe : stripes) {
+			synchronized (stripe) {
+				total.add(stripe);
+			}
+		}
+		return total;
+	}
+
+	public long getCount() {
+		long count = 0;
+		for (LatencyHistogram stripe : stripes) {
+			synchronized (stripe) {
+				count += stripe.getCount();
+			}
+		}
+		return count;
+	}
+
+	public long getErrors() {
+		return errors.sum();
+	}
+
+	public double getMeanMicros() {
+		return snapshot().getMean() / 1000;
+	}
+
+	public double getP50Micros() {
+		return snapshot().getValueAtPercentile(50) / 1000.0;
+	}
+
+	public double getP99Micros() {
+		return snapshot().getValueAtPercentile(99) / 1000.0;
+	}
+
+	public double getP999Micros() {
+		return snapshot().getValueAtPercentile(99.9) / 1000.0;
+	}
+
+	public double getMaxMicros() {
+		return snapshot().getMax() / 1000.0;
+	}
+}
@@ -0,0 +1,19 @@
+package newbank.metrics;
+
+// The JMX view of a LatencyRecorder, times in microseconds
+public interface LatencyRecorderMBean {
+
+	long getCount();
+
+	long getErrors();
+
+	double getMeanMicros();
+
+	double getP50Micros();
+
+	double getP99Micros();
+
+	double getP999Micros();
+
+	double getMaxMicros();
+}
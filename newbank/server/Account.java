@@ -1,45 +1,100 @@
 package newbank.server;
 
 import java.time.LocalDate;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 public abstract class Account {
 	private String accountName;
-	private double balance;
+	private volatile long balance;	// in pence
 	private Customer accountOwner;
-	private static int accountNumberTracker = 1000000;
+	private static final AtomicInteger accountNumberTracker = new AtomicInteger(1000000);
 	private String accountIBAN;
-	private static HashMap<String, Account> accounts = new HashMap<>();
-	private ArrayList<Transaction> allTransactions;
+	// the IBAN parsed into the key of the account in the index
+	private long ibanKey;
+	private static final AccountIndex accounts = new AccountIndex();
+	private final StatementLog allTransactions = new StatementLog();
+	// guards balance and allTransactions; taken through AccountLocks so that accounts are always locked in IBAN order
+	private final ReentrantLock lock = new ReentrantLock();
+	// LSN of the last journal record that changed this account, guarded by lock
+	private long journalLsn;
 
 	// Constructor
-    public Account(String accountName, double openingBalance, Customer customer) {
+    public Account(String accountName, long openingBalance, Customer customer) {
 		this.accountName = accountName;
 		this.accountOwner = customer;
 
+		// the account is locked until it is fully initialised, other sessions and snapshots may look it up straight away.
+		// It is registered before it is journaled, so a snapshot either contains it or starts before its journal records
+		this.lock.lock();
+		try {
+			createIBAN();
+			accounts.put(this);
+			// the account is journaled before its opening deposit so that replaying the journal can credit it
+			LedgerJournal.accountOpened(this);
+			this.balance = 0;
+			this.deposit(openingBalance);
+		} finally {
+			this.lock.unlock();
+		}
+		//System.out.println("all accounts: " + Account.accounts);
+	}
+
+	// Constructor used when the bank is restored from its journal, the account keeps the IBAN it was given originally
+	Account(String accountIBAN, String accountName, Customer customer) {
+		this.accountName = accountName;
+		this.accountOwner = customer;
+		this.accountIBAN = accountIBAN;
+		this.ibanKey = AccountIndex.key(accountIBAN);
 		this.balance = 0;
-		this.deposit(openingBalance);
-		
-		createIBAN();
-		accounts.put(this.accountIBAN, this);
 
-		this.allTransactions = new ArrayList<Transaction>();
-		//System.out.println("all accounts: " + Account.accounts);
+		if (this.ibanKey == AccountIndex.NO_KEY) {
+			throw new IllegalArgumentException("Invalid IBAN " + accountIBAN);
+		}
+		// new accounts must not reuse the account number
+		restoreAccountNumberTracker(AccountIndex.accountNumber(this.ibanKey));
+		accounts.put(this);
+	}
+
+	// Static method: Recreate an account of the given type with its original IBAN when the bank is restored
+	static Account restore(String accountType, String accountIBAN, String accountName, Customer customer) {
+		switch (accountType) {
+			case "CURRENT":
+				return new CurrentAccount(accountIBAN, accountName, customer);
+			case "SAVINGS":
+				return new SavingsAccount(accountIBAN, accountName, customer);
+			case "LOAN":
+				return new LoanAccount(accountIBAN, accountName, customer);
+			default:
+				throw new IllegalArgumentException("Unknown account type " + accountType);
+		}
 	}
 
 	// Print initial account summary
 	public String toString() {
-		return (getAccountName() + "(" + getAccountType() 
-		+ ", " + getIBAN()
-		+ "): " + getBalance() + "\n");
+		return appendTo(new StringBuilder(64)).toString();
+	}
+
+	// Appends the account summary line, e.g. Main(CURRENT, GB001000011000001): 1000.00
+	StringBuilder appendTo(StringBuilder out) {
+		out.append(getAccountName()).append('(').append(getAccountType()).append(", ").append(getIBAN()).append("): ");
+		return Money.appendTo(out, getBalance()).append('\n');
 	}
 
-	// Mutator: Create unique IBAN identifier for account
+	// Mutator: Create unique IBAN identifier for account, fails once every account number of an IBAN is in use
 	private void createIBAN(){
-		accountNumberTracker += 1;
-		int accountNumber = accountNumberTracker;
-		this.accountIBAN = "GB" + "00" + this.accountOwner.getSortCode() + accountNumber;
+		int accountNumber;
+		do {
+			accountNumber = accountNumberTracker.get();
+			if (accountNumber >= AccountIndex.MAX_ACCOUNT_NUMBER) {
+				throw new IllegalStateException(
+						"All " + AccountIndex.ACCOUNT_NUMBER_DIGITS + " digit account numbers are in use");
+			}
+		} while (!accountNumberTracker.compareAndSet(accountNumber, accountNumber + 1));
+		this.accountIBAN = AccountIndex.iban(this.accountOwner.getSortCode(), accountNumber + 1);
+		this.ibanKey = AccountIndex.key(this.accountOwner.getSortCode(), accountNumber + 1);
 	}
 
 	// Accessor: Get IBAN account identifier
@@ -47,8 +102,13 @@ public abstract class Account {
 		return this.accountIBAN;
 	}
 
-	// Accessor: Get balance
-	public double getBalance() {
+	// Accessor: Get the IBAN as a number, the sort code in the high 32 bits and the account number in the low bits
+	long getIbanKey() {
+		return this.ibanKey;
+	}
+
+	// Accessor: Get balance in pence
+	public long getBalance() {
 		return this.balance;
 	}
 
@@ -62,48 +122,101 @@ public abstract class Account {
 		return this.accountOwner;
 	}
 
-	// Mutator: Deposit funds
-	public void deposit(double amount) {
+	// Accessor: Get the lock guarding this account's balance and transactions
+	ReentrantLock getLock() {
+		return this.lock;
+	}
+
+	// Accessor: Get the LSN of the last journal record that changed this account
+	long getJournalLsn() {
+		return this.journalLsn;
+	}
+
+	// Mutator: Remember the LSN of the journal record that last changed this account
+	void setJournalLsn(long journalLsn) {
+		this.journalLsn = journalLsn;
+	}
+
+	// Mutator: Change the balance without a DEPOSIT record, for changes the caller journals in a record of its own
+	void adjustBalance(long amount) {
 		this.balance += amount;
+		this.accountOwner.accountChanged();
 	}
 
-	// Mutator: Withdraw funds
-	public void withdraw(double amount) {
+	// Mutator: Set the balance when the account is restored from a snapshot
+	void restoreBalance(long balance) {
+		this.balance = balance;
+		this.accountOwner.accountChanged();
+	}
+
+	// Accessor: Get a copy of the account's transactions, oldest first, the caller holds the account lock
+	List<Transaction> copyTransactions() {
+		return this.allTransactions.copy();
+	}
+
+	// Accessor: Get a copy of the account's transactions dated on or after the given day, the caller holds the account lock
+	List<Transaction> copyTransactionsSince(LocalDate day) {
+		return this.allTransactions.copySince(day);
+	}
+
+	// Static method: Get every account in the bank, including loan accounts which are not listed under their owner
+	static Collection<Account> getAllAccounts() {
+		return accounts.values();
+	}
+
+	// Static method: Get the highest account number handed out so far
+	static int getAccountNumberTracker() {
+		return accountNumberTracker.get();
+	}
+
+	// Static method: Whether another account can be opened, false once every account number of an IBAN is in use
+	static boolean canOpenAccount() {
+		return accountNumberTracker.get() < AccountIndex.MAX_ACCOUNT_NUMBER;
+	}
+
+	// Static method: Make sure account numbers up to the given one are never handed out again
+	static void restoreAccountNumberTracker(int accountNumber) {
+		accountNumberTracker.accumulateAndGet(accountNumber, Math::max);
+	}
+
+	// Mutator: Deposit funds, amount in pence
+	public void deposit(long amount) {
+		this.balance += amount;
+		this.accountOwner.accountChanged();
+		LedgerJournal.deposit(this, amount);
+	}
+
+	// Mutator: Withdraw funds, amount in pence
+	public void withdraw(long amount) {
 		this.balance -= amount;
+		this.accountOwner.accountChanged();
+		LedgerJournal.withdraw(this, amount);
 	}
 
-	// Mutator: Add transaction object to array record (for statement)
+	// Mutator: Add transaction object to the account's statement log, the caller holds the account lock
 	public void addTransaction(Transaction newTransaction){
-		this.allTransactions.add(0, newTransaction);
-	}
-
-	// Accessor: Get all transactions in array (for printing statement)
-	public String getAllTransactions(){
-		String statement = "";
-		LocalDate cutOffDate = LocalDate.now().minusMonths(12);
-
-		int i = 0;
-		while(i < this.allTransactions.size()){
-			if(this.allTransactions.get(i).getDate().isAfter(cutOffDate)){
-				Transaction transaction = this.allTransactions.get(i);
-				String newLine = transaction.toString(' ');;
-				// If money leaving this account, add minus
-				if(transaction.fromAccount.getIBAN().equals(this.getIBAN())){
-					newLine = transaction.toString('-');
-				// If money entering this account, add plus
-				} else if(transaction.toAccount.getIBAN().equals(this.getIBAN())){
-					newLine = transaction.toString('+');
-				}
-				statement = statement + newLine;
-			} else {
-				break;
-			}
-			i++;
-		}
-		return statement;
+		this.allTransactions.append(newTransaction);
+	}
+
+	// Accessor: Get the number of pages of the 12 month statement, the caller holds the account lock or reads the
+	// owner's accounts with Customer.readAccounts
+	public int getStatementPages(){
+		return this.allTransactions.pages(LocalDate.now().minusMonths(12));
+	}
+
+	// Accessor: Get one page of the 12 month statement, newest transactions first, the caller holds the account lock or
+	// reads the owner's accounts with Customer.readAccounts
+	public String getStatement(int page){
+		return this.allTransactions.print(this, LocalDate.now().minusMonths(12), page);
 	}
 	
-	public boolean sufficientFunds(double amount) {
+	// Accessor: Copy one page of the 12 month statement into the array, newest first, the caller holds the account lock
+	// or reads the owner's accounts with Customer.readAccounts
+	int copyStatementPage(int page, Transaction[] into) {
+		return this.allTransactions.copyPage(LocalDate.now().minusMonths(12), page, into);
+	}
+
+	public boolean sufficientFunds(long amount) {
 		return (this.getBalance() >= amount);
 	}
 
@@ -112,8 +225,13 @@ public abstract class Account {
 
 	// Static method: Get account from IBAN
 	public static Account getAccountFromIBAN(String inputIBAN){
-		Account accountObj = Account.accounts.get(inputIBAN);
+		Account accountObj = Account.accounts.get(AccountIndex.key(inputIBAN));
 		return accountObj;
 	}
 
+	// Static method: Get account from the key of its IBAN, see getIbanKey
+	static Account getAccountFromKey(long ibanKey) {
+		return Account.accounts.get(ibanKey);
+	}
+
 }
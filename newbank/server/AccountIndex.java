@@ -0,0 +1,208 @@
+package newbank.server;
+
+import java.util.AbstractCollection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/*
+ * Every account in the bank by IBAN. An IBAN is parsed once into a long key, the sort code in the high 32 bits and the
+ * account number in the low bits, and the accounts are kept in an open-addressing table of long keys, so a
+ * lookup hashes one long and probes neighbouring slots of a long array instead of hashing a string and following
+ * map nodes.
+ *
+ * Lookups take no lock. Accounts are only ever added, by one writer at a time: the key of a slot is written before its
+ * account, and a reader that sees the account therefore sees its key. A table that gets too full is copied into one
+ * twice the size, which replaces it in one write, so a reader works on either the old or the new table.
+ */
+final class AccountIndex {
+
+	// Returned by key for text that is not an IBAN of this bank
+	static final long NO_KEY = -1;
+	// An IBAN ends with the account number written with exactly this many digits, so the sort code before it can be
+	// of any length
+	static final int ACCOUNT_NUMBER_DIGITS = 7;
+	// Largest account number that fits in ACCOUNT_NUMBER_DIGITS digits
+	static final int MAX_ACCOUNT_NUMBER = 9999999;
+	// "GB00", then the sort code, a positive int written without leading zeros, then the account number
+	private static final int PREFIX_LENGTH = 4;
+
+	private volatile Table table = new Table(1024);
+	private volatile int size;
+
+	// Parses an IBAN into its key, NO_KEY if it is not of the form GB00<sort code><7 digit account number>
+	static long key(String iban) {
+		int numberStart = iban.length() - ACCOUNT_NUMBER_DIGITS;
+		if (numberStart <= PREFIX_LENGTH || numberStart > PREFIX_LENGTH + 10 || !iban.startsWith("GB00")
+				|| iban.charAt(PREFIX_LENGTH) == '0') {
+			return NO_KEY;
+		}
+		long sortCode = 0;
+		for (int i = PREFIX_LENGTH; i < numberStart; i++) {
+			char c = iban.charAt(i);
+			if (c < '0' || c > '9') {
+				return NO_KEY;
+			}
+			sortCode = sortCode * 10 + c - '0';
+		}
+		int accountNumber = 0;
+		for (int i = numberStart; i < iban.length(); i++) {
+			char c = iban.charAt(i);
+			if (c < '0' || c > '9') {
+				return NO_KEY;
+			}
+			accountNumber = accountNumber * 10 + c - '0';
+		}
+		return sortCode > Integer.MAX_VALUE ? NO_KEY : key((int) sortCode, accountNumber);
+	}
+
+	// The key of the account with the given sort code and account number
+	static long key(int sortCode, int accountNumber) {
+		return (long) sortCode << 32 | accountNumber;
+	}
+
+	// The sort code of a key
+	static int sortCode(long key) {
+		return (int) (key >>> 32);
+	}
+
+	// The account number of a key
+	static int accountNumber(long key) {
+		return (int) key;
+	}
+
+	// Writes an IBAN: GB00, the sort code, then the account number zero-padded to ACCOUNT_NUMBER_DIGITS digits
+	static String iban(int sortCode, int accountNumber) {
+		if (accountNumber < 0 || accountNumber > MAX_ACCOUNT_NUMBER) {
+			throw new IllegalArgumentException("Account number " + accountNumber + " does not fit in an IBAN");
+		}
+		StringBuilder iban = new StringBuilder(PREFIX_LENGTH + 10 + ACCOUNT_NUMBER_DIGITS).append("GB00").append(sortCode);
+		String number = Integer.toString(accountNumber);
+		for (int i = number.length(); i < ACCOUNT_NUMBER_DIGITS; i++) {
+			iban.append('0');
+		}
+		return iban.append(number).toString();
+	}
+
+	// Gets the account with the given key, null if there is none
+	Account get(long key) {
+		if (key == NO_KEY) {
+			return null;
+		}
+		Table current = table;
+		int mask = current.keys.length - 1;
+		for (int slot = slot(key, mask); ; slot = (slot + 1) & mask) {
+			Account account = current.accounts.get(slot);
+			if (account == null) {
+				return null;
+			}
+			if (current.keys[slot] == key) {
+				return account;
+			}
+		}
+	}
+
+	// Adds an account under its key, an account already added under the same key is kept and the new one refused
+	synchronized void put(Account account) {
+		long key = account.getIbanKey();
+		if (key == NO_KEY) {
+			throw new IllegalArgumentException("Account " + account.getIBAN() + " has no valid IBAN");
+		}
+		Table current = table;
+		int mask = current.keys.length - 1;
+		int slot = slot(key, mask);
+		while (current.accounts.get(slot) != null) {
+			if (current.keys[slot] == key) {
+				throw new IllegalStateException("IBAN " + account.getIBAN() + " is already used by another account");
+			}
+			slot = (slot + 1) & mask;
+		}
+		current.keys[slot] = key;
+		current.accounts.set(slot, account);
+		// kept at most 70% full, the probes of a lookup then mostly stay in one cache line of keys
+		if (++size * 10L > current.keys.length * 7L) {
+			table = current.grow();
+		}
+	}
+
+	// Number of accounts in the index
+	int size() {
+		return size;
+	}
+
+	// All accounts, a view that sees accounts added while it is iterated or may miss them
+	AbstractCollection<Account> values() {
+		return new AbstractCollection<>() {
+			@Override
+			public Iterator<Account> iterator() {
+				return table.iterator();
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+	// Spreads the sequential account numbers over the table, the high bits of the product are the best mixed
+	private static int slot(long key, int mask) {
+		return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+	}
+
+	private static final class Table {
+		private final long[] keys;
+		private final AtomicReferenceArray<Account> accounts;
+
+		Table(int capacity) {
+			keys = new long[capacity];
+			accounts = new AtomicReferenceArray<>(capacity);
+		}
+
+		// Copies the accounts into a new table twice the size, before it is published
+		Table grow() {
+			Table larger = new Table(keys.length * 2);
+			int mask = larger.keys.length - 1;
+			for (int i = 0; i < keys.length; i++) {
+				Account account = accounts.get(i);
+				if (account != null) {
+					int slot = slot(keys[i], mask);
+					while (larger.accounts.get(slot) != null) {
+						slot = (slot + 1) & mask;
+					}
+					larger.keys[slot] = keys[i];
+					larger.accounts.set(slot, account);
+				}
+			}
+			return larger;
+		}
+
+		Iterator<Account> iterator() {
+			return new Iterator<>() {
+				private int slot = advance(0);
+
+				private int advance(int from) {
+					while (from < keys.length && accounts.get(from) == null) {
+						from++;
+					}
+					return from;
+				}
+
+				@Override
+				public boolean hasNext() {
+					return slot < keys.length;
+				}
+
+				@Override
+				public Account next() {
+					if (slot >= keys.length) {
+						throw new NoSuchElementException();
+					}
+					Account account = accounts.get(slot);
+					slot = advance(slot + 1);
+					return account;
+				}
+			};
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package newbank.server;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/*
+ * Takes the locks of the accounts touched by a command. Accounts are always locked in IBAN order, so two commands
+ * touching the same accounts can never wait on each other in a cycle, and commands on unrelated accounts never wait at all.
+ * Reads of a customer's accounts take no locks, they check the changes counted here instead (see Customer.readAccounts).
+ */
+final class AccountLocks {
+	// by sort code, then account number, compared as the IBANs' keys rather than as strings
+	private static final Comparator<Account> IBAN_ORDER = Comparator.comparingLong(Account::getIbanKey);
+
+	private AccountLocks() {
+	}
+
+	/*
+	 * Locks the given accounts in IBAN order, null accounts are skipped. Returns the accounts in the order they were
+	 * locked, which is the array passed in, reordered, unless it held nulls. Most commands lock one or two accounts,
+	 * which are put in order with one comparison.
+	 */
+	static Account[] lockAll(Account... accounts) {
+		int count = 0;
+		for (Account account : accounts) {
+			if (account != null) {
+				count++;
+			}
+		}
+		Account[] ordered = accounts;
+		if (count < accounts.length) {
+			ordered = new Account[count];
+			count = 0;
+			for (Account account : accounts) {
+				if (account != null) {
+					ordered[count++] = account;
+				}
+			}
+		}
+		if (ordered.length == 2) {
+			if (ordered[0].getIbanKey() > ordered[1].getIbanKey()) {
+				Account first = ordered[1];
+				ordered[1] = ordered[0];
+				ordered[0] = first;
+			}
+		} else if (ordered.length > 2) {
+			Arrays.sort(ordered, IBAN_ORDER);
+		}
+		for (Account account : ordered) {
+			// the wait is only timed when another command holds the lock
+			if (!account.getLock().tryLock()) {
+				long started = System.nanoTime();
+				account.getLock().lock();
+				ServerMetrics.lockWaited(System.nanoTime() - started);
+			}
+			ServerMetrics.lockAcquired();
+			// the owner's accounts are being changed until they are unlocked, see Customer.readAccounts
+			account.getOwner().changeStarted();
+		}
+		return ordered;
+	}
+
+	// Releases the locks taken by lockAll in the reverse order
+	static void unlockAll(Account[] ordered) {
+		for (int i = ordered.length - 1; i >= 0; i--) {
+			ordered[i].getOwner().changeFinished();
+			ordered[i].getLock().unlock();
+		}
+	}
+}
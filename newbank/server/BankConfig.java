@@ -0,0 +1,147 @@
+package newbank.server;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.Set;
+
+/*
+ * Start-up settings of the NewBank server. Every setting is read from a system property so it can be chosen on the
+ * command line, e.g. java -Dnewbank.server.mode=nio newbank.server.NewBankServer
+ */
+public final class BankConfig {
+
+	private BankConfig() {
+	}
+
+	// Port the server listens on for customer connections
+	public static int port() {
+		return Integer.getInteger("newbank.port", 14002);
+	}
+
+	// "threaded" starts a thread per connection, "nio" serves all connections from one selector thread
+	public static String serverMode() {
+		return System.getProperty("newbank.server.mode", "threaded");
+	}
+
+	// Number of threads that run requests for the non-blocking server
+	public static int workerThreads() {
+		return Integer.getInteger("newbank.workers", Runtime.getRuntime().availableProcessors() * 2);
+	}
+
+	// Number of shards whose writer threads run the requests of their customers, 0 runs them on the sessions' threads
+	public static int shards() {
+		return Integer.getInteger("newbank.shards", 0);
+	}
+
+	// Number of requests that can wait for a shard's writer, a power of two
+	public static int shardRingSize() {
+		return Integer.getInteger("newbank.shard.ringSize", 1024);
+	}
+
+	// Milliseconds a payment to another shard waits to be settled there before it is cancelled and refunded
+	public static long transferTimeoutMillis() {
+		return Long.getLong("newbank.transfer.timeoutMillis", 5000);
+	}
+
+	// Port a primary listens on for read replicas to follow its journal, 0 accepts no replicas
+	public static int replicationPort() {
+		return Integer.getInteger("newbank.replication.port", 0);
+	}
+
+	// host:port of the primary a read replica follows, null for a primary
+	public static String replicaOf() {
+		return System.getProperty("newbank.replica.of");
+	}
+
+	// Milliseconds between the heartbeats a primary sends an idle replica, which bound how stale the replica seems
+	public static long replicationHeartbeatMillis() {
+		return Long.getLong("newbank.replication.heartbeatMillis", 100);
+	}
+
+	// Milliseconds a read replica may fall behind its primary before it turns requests away
+	public static long replicaMaxStalenessMillis() {
+		return Long.getLong("newbank.replica.maxStalenessMillis", 5000);
+	}
+
+	// Number of threads that check passwords when customers log in
+	public static int authThreads() {
+		return Integer.getInteger("newbank.auth.threads", Runtime.getRuntime().availableProcessors());
+	}
+
+	// Number of log ins that can wait for an authentication thread before more are turned away
+	public static int authQueueLength() {
+		return Integer.getInteger("newbank.auth.queue", 4096);
+	}
+
+	// Minutes a session token issued at log in can be used to RESUME a session
+	public static long sessionTokenMinutes() {
+		return Long.getLong("newbank.session.tokenMinutes", 30);
+	}
+
+	// Number of session tokens kept, the least recently used token is dropped when there are more
+	public static int maxSessionTokens() {
+		return Integer.getInteger("newbank.session.maxTokens", 100000);
+	}
+
+	// Directory the ledger journal and the snapshots are kept in
+	public static Path dataDirectory() {
+		return Paths.get(System.getProperty("newbank.data", "newbank-data"));
+	}
+
+	// SYNC fsyncs the journal before each response, BATCHED fsyncs it every journalBatchMillis
+	public static LedgerJournal.Durability journalDurability() {
+		return LedgerJournal.Durability.valueOf(System.getProperty("newbank.journal.durability", "SYNC"));
+	}
+
+	// How often the journal is fsynced in BATCHED mode
+	public static long journalBatchMillis() {
+		return Long.getLong("newbank.journal.batchMillis", 5);
+	}
+
+	// Minutes between snapshots of the bank, 0 turns periodic snapshots off
+	public static long snapshotIntervalMinutes() {
+		return Long.getLong("newbank.snapshot.intervalMinutes", 60);
+	}
+
+	// Number of threads shared by the bank's periodic jobs: interest runs, snapshots and the batched journal flush
+	public static int schedulerThreads() {
+		return Integer.getInteger("newbank.scheduler.threads", 3);
+	}
+
+	// MONTHLY pays all savings interest on the first run of a month, DAILY spreads the payments over the month
+	public static InterestEngine.Schedule interestSchedule() {
+		return InterestEngine.Schedule.valueOf(System.getProperty("newbank.interest.schedule", "MONTHLY"));
+	}
+
+	// Hours between checks for savings interest that is due
+	public static long interestCheckHours() {
+		return Long.getLong("newbank.interest.checkHours", 1);
+	}
+
+	// Directory PAYBATCH FILE reads payment files from, files outside it cannot be named
+	public static Path batchDirectory() {
+		return Paths.get(System.getProperty("newbank.batch.dir", "newbank-batches"));
+	}
+
+	// Largest number of payments accepted in one PAYBATCH
+	public static int maxBatchPayments() {
+		return Integer.getInteger("newbank.batch.maxPayments", 10000);
+	}
+
+	// MIDNIGHT resets the daily pay limit at midnight UK time, ROLLING applies it to any 24 hours
+	public static DailyLimit.Mode limitWindow() {
+		return DailyLimit.Mode.valueOf(System.getProperty("newbank.limit.window", "MIDNIGHT"));
+	}
+
+	// Customers allowed to read the server's metrics with the STATS command, comma separated
+	public static Set<String> adminUsers() {
+		Set<String> users = new HashSet<>();
+		for (String user : System.getProperty("newbank.admin.users", "").split(",")) {
+			if (!user.isBlank()) {
+				users.add(user.trim());
+			}
+		}
+		return users;
+	}
+}
@@ -0,0 +1,136 @@
+package newbank.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * The one scheduler for the bank's periodic background jobs, e.g. interest runs, snapshots and the batched journal
+ * flush. The jobs share a small fixed pool of daemon threads. For every job the scheduler records how often it ran,
+ * how long it took and how late it started compared with when it was due, so a job that takes too long or a pool that
+ * is too small shows up as lag.
+ */
+final class BankScheduler {
+
+	private final ScheduledThreadPoolExecutor executor;
+	private final List<Job> jobs = new CopyOnWriteArrayList<>();
+
+	BankScheduler(int threads) {
+		AtomicInteger count = new AtomicInteger();
+		ThreadFactory factory = runnable -> {
+			Thread thread = new Thread(runnable, "bank-scheduler-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+		executor = new ScheduledThreadPoolExecutor(threads, factory);
+		executor.setRemoveOnCancelPolicy(true);
+		executor.setContinueExistingPeriodicTasksAfterShutdownPolicy(false);
+		executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+	}
+
+	// Runs the job again each time the delay has passed since the previous run finished
+	Job scheduleWithFixedDelay(String name, Runnable task, long initialDelay, long delay, TimeUnit unit) {
+		Job job = new Job(name, task, unit.toNanos(initialDelay), unit.toNanos(delay));
+		jobs.add(job);
+		executor.scheduleWithFixedDelay(job, initialDelay, delay, unit);
+		return job;
+	}
+
+	// Accessor: Get the jobs scheduled so far with their timing metrics
+	List<Job> getJobs() {
+		return new ArrayList<>(jobs);
+	}
+
+	/*
+	 * Stops scheduling jobs and waits up to the timeout for the runs in progress to finish, e.g. a snapshot being
+	 * written. Returns false if some run was still going and had to be interrupted.
+	 */
+	boolean shutdown(long timeout, TimeUnit unit) {
+		executor.shutdown();
+		try {
+			if (executor.awaitTermination(timeout, unit)) {
+				return true;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		executor.shutdownNow();
+		return false;
+	}
+
+	/*
+	 * One periodic job and its timing metrics. A job never runs on two threads at once, so its metrics are only
+	 * written by the thread running it and are read without locking.
+	 */
+	static final class Job implements Runnable {
+		private final String name;
+		private final Runnable task;
+		private final long delayNanos;
+		private volatile long dueNanos;
+		private volatile long runs;
+		private volatile long failures;
+		private volatile long lastDurationNanos;
+		private volatile long maxDurationNanos;
+		private volatile long totalDurationNanos;
+		private volatile long lastLagNanos;
+		private volatile long maxLagNanos;
+
+		private Job(String name, Runnable task, long initialDelayNanos, long delayNanos) {
+			this.name = name;
+			this.task = task;
+			this.delayNanos = delayNanos;
+			this.dueNanos = System.nanoTime() + initialDelayNanos;
+		}
+
+		// Runs the task once, a failure is counted and reported but does not stop the job from running again
+		public void run() {
+			long started = System.nanoTime();
+			long lag = Math.max(0, started - dueNanos);
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				failures++;
+				System.out.println("Scheduled job " + name + " failed: " + e);
+				e.printStackTrace();
+			} finally {
+				long finished = System.nanoTime();
+				long duration = finished - started;
+				runs++;
+				lastLagNanos = lag;
+				maxLagNanos = Math.max(maxLagNanos, lag);
+				lastDurationNanos = duration;
+				maxDurationNanos = Math.max(maxDurationNanos, duration);
+				totalDurationNanos += duration;
+				// the next run is due the delay after this one finished
+				dueNanos = finished + delayNanos;
+			}
+		}
+
+		String getName() { return name; }
+
+		long getRuns() { return runs; }
+
+		long getFailures() { return failures; }
+
+		long getLastDurationNanos() { return lastDurationNanos; }
+
+		long getMaxDurationNanos() { return maxDurationNanos; }
+
+		long getTotalDurationNanos() { return totalDurationNanos; }
+
+		long getLastLagNanos() { return lastLagNanos; }
+
+		long getMaxLagNanos() { return maxLagNanos; }
+
+		// One line summary of the job's metrics, times in microseconds
+		public String toString() {
+			return name + ": runs=" + runs + " failures=" + failures
+					+ " lastMicros=" + lastDurationNanos / 1000 + " maxMicros=" + maxDurationNanos / 1000
+					+ " lastLagMicros=" + lastLagNanos / 1000 + " maxLagMicros=" + maxLagNanos / 1000;
+		}
+	}
+}
@@ -0,0 +1,332 @@
+package newbank.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/*
+ * Compact binary copy of the whole bank: customers, accounts with their balances and transactions, the sort code and
+ * account number counters and the loan agreements. On start-up the newest snapshot is loaded and only the journal
+ * written after it is replayed, so start-up time depends on the size of the bank rather than the length of its history.
+ *
+ * Snapshots are taken while the bank keeps running. The journal is first rotated at some LSN, then every account is
+ * copied while holding its lock, so each copy includes every record up to that LSN and possibly some later ones. The
+ * account's own LSN is saved with it, and JournalReplayer skips the later records the copy already includes.
+ * Payments to another shard that are still pending are saved after the accounts, their pending record may be in a
+ * journal segment the snapshot makes unnecessary.
+ *
+ * File layout: header, customers, accounts, account lists, loans, pending transfers, then the transactions of every
+ * account. Sections
+ * that can grow while the snapshot is written hold entries each preceded by a 1, and end with a 0.
+ */
+final class BankSnapshot {
+
+	private static final int MAGIC = 0x4E425331; // "NBS1"
+	private static final int VERSION = 4;
+	private static final String PREFIX = "snapshot-";
+	private static final String SUFFIX = ".bin";
+
+	private BankSnapshot() {
+	}
+
+	/*
+	 * Writes a snapshot of the running bank into the journal's directory, then deletes the older snapshots and the
+	 * journal segments the new snapshot makes unnecessary. Returns the LSN the snapshot was taken at.
+	 */
+	static synchronized long take(LedgerJournal journal, Path directory) throws IOException {
+		long started = System.nanoTime();
+		long lsn = journal.rotate();
+		Path file = directory.resolve(String.format("%s%020d%s", PREFIX, lsn, SUFFIX));
+		Path temp = directory.resolve(file.getFileName() + ".tmp");
+		Path history = directory.resolve(file.getFileName() + ".history.tmp");
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16));
+			 DataOutputStream historyOut = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(history), 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(lsn);
+			out.writeInt(Customer.getSortCodeTracker());
+			out.writeInt(Account.getAccountNumberTracker());
+
+			// customers whose password is not stored yet are still being added, their journal records come after lsn
+			Set<Customer> customers = new LinkedHashSet<>();
+			for (Customer customer : SecureDataStore.getAllCustomers()) {
+				String passwordHash = SecureDataStore.getPasswordHash(customer.getUsername());
+				if (passwordHash == null) {
+					continue;
+				}
+				List<String> info = customer.getCustomerInfo();
+				out.writeBoolean(true);
+				out.writeUTF(customer.getUsername());
+				out.writeUTF(passwordHash);
+				out.writeUTF(info.get(0));
+				out.writeUTF(info.get(1));
+				out.writeUTF(info.get(2));
+				out.writeInt(customer.getSortCode());
+				customers.add(customer);
+			}
+			out.writeBoolean(false);
+
+			// accounts are copied customer by customer so that a borrower's loans are copied together with the
+			// current account whose lock guards them
+			Set<Account> written = new HashSet<>();
+			List<Customer> linkedCustomers = new ArrayList<>();
+			List<List<Account>> links = new ArrayList<>();
+			List<Customer> borrowers = new ArrayList<>();
+			List<Boolean> activeLoans = new ArrayList<>();
+			List<List<LoanAgreement>> loans = new ArrayList<>();
+			for (Customer customer : customers) {
+				List<Account> accounts = new ArrayList<>(customer.getAccounts());
+				Account loanGuard = customer.getAccountByType("CURRENT");
+				for (Account account : accounts) {
+					account.getLock().lock();
+					try {
+						writeAccount(out, historyOut, account);
+						if (account == loanGuard && !customer.getLoanAgreements().isEmpty()) {
+							borrowers.add(customer);
+							activeLoans.add(customer.getHasActiveLoan());
+							loans.add(new ArrayList<>(customer.getLoanAgreements()));
+						}
+					} finally {
+						account.getLock().unlock();
+					}
+					written.add(account);
+				}
+				linkedCustomers.add(customer);
+				links.add(accounts);
+			}
+			// loan accounts are not listed under their owner
+			for (Account account : Account.getAllAccounts()) {
+				if (written.contains(account) || !customers.contains(account.getOwner())) {
+					continue;
+				}
+				account.getLock().lock();
+				try {
+					writeAccount(out, historyOut, account);
+				} finally {
+					account.getLock().unlock();
+				}
+			}
+			out.writeBoolean(false);
+
+			for (int i = 0; i < linkedCustomers.size(); i++) {
+				out.writeUTF(linkedCustomers.get(i).getUsername());
+				out.writeInt(links.get(i).size());
+				for (Account account : links.get(i)) {
+					out.writeUTF(account.getIBAN());
+				}
+			}
+			out.writeUTF("");
+
+			for (int i = 0; i < borrowers.size(); i++) {
+				out.writeUTF(borrowers.get(i).getUsername());
+				out.writeBoolean(activeLoans.get(i));
+				out.writeInt(loans.get(i).size());
+				for (LoanAgreement loan : loans.get(i)) {
+					out.writeUTF(loan.getBorrowerAccount().getIBAN());
+					out.writeUTF(loan.getLenderAccount().getIBAN());
+					out.writeUTF(loan.getLoanAccount().getIBAN());
+					out.writeLong(loan.getLoanAmount());
+				}
+			}
+			out.writeUTF("");
+
+			// written after the accounts, so a transfer reserved before the journal was rotated is listed unless it
+			// has been settled or compensated since, and that record comes after the snapshot's LSN
+			for (CrossShardTransfer transfer : CrossShardTransfer.getPending()) {
+				out.writeBoolean(true);
+				out.writeLong(transfer.getId());
+				out.writeUTF(transfer.fromAccount.getIBAN());
+				out.writeUTF(transfer.toAccount.getIBAN());
+				out.writeLong(transfer.amount);
+				out.writeLong(transfer.getDate().toEpochDay());
+			}
+			out.writeBoolean(false);
+
+			historyOut.writeBoolean(false);
+			historyOut.flush();
+			Files.copy(history, out);
+			out.flush();
+		} finally {
+			Files.deleteIfExists(history);
+		}
+
+		try (FileChannel sync = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+			sync.force(true);
+		}
+		Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+
+		for (Path older : snapshots(directory)) {
+			if (!older.equals(file)) {
+				Files.delete(older);
+			}
+		}
+		journal.deleteSegmentsThrough(lsn);
+		System.out.println("Snapshot at LSN " + lsn + " written in " + (System.nanoTime() - started) / 1000000 + " ms");
+		return lsn;
+	}
+
+	// Writes one account, the caller holds its lock. Its transactions go to the history section, oldest first
+	private static void writeAccount(DataOutputStream out, DataOutputStream historyOut, Account account) throws IOException {
+		out.writeBoolean(true);
+		out.writeUTF(account.getAccountType());
+		out.writeUTF(account.getIBAN());
+		out.writeUTF(account.getAccountName());
+		out.writeUTF(account.getOwner().getUsername());
+		out.writeLong(account.getBalance());
+		out.writeLong(account.getJournalLsn());
+		out.writeLong(account instanceof SavingsAccount ? ((SavingsAccount) account).getLastInterestPeriod() : 0);
+
+		List<Transaction> transactions = account.copyTransactions();
+		historyOut.writeBoolean(true);
+		historyOut.writeUTF(account.getIBAN());
+		historyOut.writeInt(transactions.size());
+		for (Transaction transaction : transactions) {
+			// money paid in by the bank, e.g. interest, has no from account
+			historyOut.writeUTF(transaction.fromAccount == null ? "" : transaction.fromAccount.getIBAN());
+			if (transaction.fromAccount == null) {
+				historyOut.writeUTF(transaction.fromAccountName);
+			}
+			historyOut.writeUTF(transaction.toAccount.getIBAN());
+			historyOut.writeLong(transaction.transactionAmount);
+			historyOut.writeLong(transaction.getDate().toEpochDay());
+		}
+	}
+
+	/*
+	 * Loads the newest snapshot in the directory into the empty bank and returns the LSN it was taken at, or 0 if
+	 * there is no snapshot. Runs on start-up before the journal is replayed.
+	 */
+	static long loadLatest(Path directory) throws IOException {
+		Path file = latest(directory);
+		if (file == null) {
+			return 0;
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+			return load(in, file.toString());
+		}
+	}
+
+	// Gets the newest snapshot in the directory, null if there is none
+	static Path latest(Path directory) throws IOException {
+		if (!Files.isDirectory(directory)) {
+			return null;
+		}
+		List<Path> snapshots = snapshots(directory);
+		return snapshots.isEmpty() ? null : snapshots.get(snapshots.size() - 1);
+	}
+
+	// The LSN a snapshot file was taken at, from its name
+	static long lsnOf(Path file) {
+		String name = file.getFileName().toString();
+		return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+	}
+
+	/*
+	 * Loads a snapshot into the empty bank and returns the LSN it was taken at. Reads exactly the bytes of the
+	 * snapshot, so it can also be read from a stream that carries more, e.g. by a ReadReplica.
+	 */
+	static long load(DataInputStream in, String source) throws IOException {
+		if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+			throw new IOException("Not a NewBank snapshot, or written by a different version: " + source);
+		}
+		long lsn = in.readLong();
+		Customer.restoreSortCodeTracker(in.readInt());
+		Account.restoreAccountNumberTracker(in.readInt());
+
+		while (in.readBoolean()) {
+			String username = in.readUTF();
+			String passwordHash = in.readUTF();
+			String address = in.readUTF();
+			String contactNumber = in.readUTF();
+			String email = in.readUTF();
+			SecureDataStore.restoreCustomer(username, passwordHash, address, contactNumber, email, in.readInt());
+		}
+
+		while (in.readBoolean()) {
+			String accountType = in.readUTF();
+			String iban = in.readUTF();
+			String accountName = in.readUTF();
+			Customer owner = SecureDataStore.getCustomer(in.readUTF());
+			Account account = Account.restore(accountType, iban, accountName, owner);
+			account.restoreBalance(in.readLong());
+			account.setJournalLsn(in.readLong());
+			long interestPeriod = in.readLong();
+			if (account instanceof SavingsAccount) {
+				((SavingsAccount) account).setLastInterestPeriod(interestPeriod);
+			}
+		}
+
+		for (String username = in.readUTF(); !username.isEmpty(); username = in.readUTF()) {
+			Customer customer = SecureDataStore.getCustomer(username);
+			for (int i = in.readInt(); i > 0; i--) {
+				customer.addAccount(Account.getAccountFromIBAN(in.readUTF()));
+			}
+		}
+
+		for (String username = in.readUTF(); !username.isEmpty(); username = in.readUTF()) {
+			Customer borrower = SecureDataStore.getCustomer(username);
+			boolean hasActiveLoan = in.readBoolean();
+			for (int i = in.readInt(); i > 0; i--) {
+				CurrentAccount borrowerAccount = (CurrentAccount) Account.getAccountFromIBAN(in.readUTF());
+				Account lenderAccount = Account.getAccountFromIBAN(in.readUTF());
+				LoanAccount loanAccount = (LoanAccount) Account.getAccountFromIBAN(in.readUTF());
+				LoanAgreement loanAgreement = new LoanAgreement(in.readLong(), borrower, lenderAccount.getOwner(),
+						borrowerAccount, lenderAccount);
+				loanAgreement.restoreLoanAccount(loanAccount);
+				borrower.addLoanAgreement(loanAgreement);
+			}
+			borrower.setHasActiveLoan(hasActiveLoan);
+		}
+
+		while (in.readBoolean()) {
+			long id = in.readLong();
+			Account fromAccount = Account.getAccountFromIBAN(in.readUTF());
+			Account toAccount = Account.getAccountFromIBAN(in.readUTF());
+			long amount = in.readLong();
+			CrossShardTransfer.restorePending(id, fromAccount, toAccount, amount, LocalDate.ofEpochDay(in.readLong()));
+		}
+
+		while (in.readBoolean()) {
+			Account account = Account.getAccountFromIBAN(in.readUTF());
+			for (int i = in.readInt(); i > 0; i--) {
+				String fromIBAN = in.readUTF();
+				String creditName = fromIBAN.isEmpty() ? in.readUTF() : null;
+				Account toAccount = Account.getAccountFromIBAN(in.readUTF());
+				long amount = in.readLong();
+				Transaction transaction = fromIBAN.isEmpty() ? new Transaction(toAccount, amount, creditName)
+						: new Transaction(Account.getAccountFromIBAN(fromIBAN), toAccount, amount);
+				transaction.overrideDate(LocalDate.ofEpochDay(in.readLong()));
+				account.addTransaction(transaction);
+			}
+		}
+		return lsn;
+	}
+
+	// Snapshot files in the directory, oldest first
+	private static List<Path> snapshots(Path directory) throws IOException {
+		List<Path> snapshots = new ArrayList<>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+			for (Path file : files) {
+				snapshots.add(file);
+			}
+		}
+		Collections.sort(snapshots);
+		return snapshots;
+	}
+}
@@ -0,0 +1,115 @@
+package newbank.server;
+
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+/*
+ * The compact binary protocol offered next to the text protocol, for programs rather than people (see protocol.txt).
+ * A client chooses it when it connects by sending the four bytes of MAGIC before anything else, the server answers
+ * with the same four bytes after the text prompt it sends every new connection. From then on both sides exchange
+ * frames, all numbers big-endian:
+ *
+ *   request:  [int length][int requestId][byte opcode][fields]
+ *   response: [int length][int requestId][byte status][fields]
+ *
+ * length counts the bytes after it. A response carries the id of its request, so a client can send several requests
+ * without waiting. The requests of one connection are run in the order they were sent. An account is sent as its sort
+ * code and account number, two ints, and amounts as a long in pence.
+ */
+final class BinaryProtocol {
+
+	// First bytes sent by a client choosing the binary protocol, a text client never sends a 0 byte
+	static final byte[] MAGIC = { 0, 'N', 'B', 1 };
+	// Longest request frame accepted, connections sending longer frames are dropped
+	static final int MAX_REQUEST_LENGTH = 1024;
+	// Bytes of the length, request id and opcode or status before the fields of a frame
+	static final int HEADER_LENGTH = 9;
+
+	// Opcodes of the requests
+	static final byte LOGIN = 1;		// [byte length][username][byte length][password], both UTF-8
+	static final byte PAY = 2;			// [long amount][account from][account to]
+	static final byte MOVE = 3;			// [long amount][account from][account to], both of the customer's own
+	static final byte STATEMENT = 4;	// [account][short page] -> [short page][short pages][byte count] and count of
+										// [int epochDay][long amount, negative if paid out][account other side or 0 0]
+	static final byte ACCOUNTS = 5;		// -> [short count] and count of
+										// [account][long balance][byte type][byte length][name UTF-8]
+	static final byte LOGOUT = 6;
+
+	// Status codes of the responses
+	static final byte OK = 0;
+	static final byte FAIL = 1;
+	static final byte NOT_LOGGED_IN = 2;
+	static final byte LOGIN_FAILED = 3;
+	static final byte INVALID_ACCOUNT = 4;
+	static final byte NOT_OWNER = 5;
+	static final byte INSUFFICIENT_FUNDS = 6;
+	static final byte OVER_LIMIT = 7;
+	static final byte SAME_CUSTOMER = 8;
+	static final byte INVALID_PAGE = 9;
+	static final byte BAD_REQUEST = 10;
+	static final byte READ_ONLY = 11;	// PAY or MOVE sent to a read replica
+
+	// Account types in the ACCOUNTS response
+	static final byte CURRENT = 0;
+	static final byte SAVINGS = 1;
+	static final byte LOAN = 2;
+
+	private BinaryProtocol() {
+	}
+
+	// Reads an account sent as sort code and account number and returns it, null if there is no such account
+	static Account getAccount(ByteBuffer buffer) {
+		int sortCode = buffer.getInt();
+		int accountNumber = buffer.getInt();
+		return sortCode > 0 ? Account.getAccountFromKey(AccountIndex.key(sortCode, accountNumber)) : null;
+	}
+
+	// Writes an account's IBAN as sort code and account number, taken from its key rather than parsed again
+	static void putIban(ByteBuffer buffer, Account account) {
+		long key = account.getIbanKey();
+		buffer.putInt(AccountIndex.sortCode(key)).putInt(AccountIndex.accountNumber(key));
+	}
+
+	/*
+	 * Splits the bytes received on a non-blocking connection into request frames. The magic bytes that chose the
+	 * protocol come first and are checked, then each complete frame is passed on as a buffer holding the request id,
+	 * opcode and fields.
+	 */
+	static final class FrameReader {
+		private final ByteBuffer frame = ByteBuffer.allocate(Integer.BYTES + MAX_REQUEST_LENGTH);
+		private int magicRead;
+
+		// Reads all bytes remaining in the buffer, returns false if the client broke the protocol
+		boolean read(ByteBuffer received, Consumer<ByteBuffer> requests) {
+			while (received.hasRemaining()) {
+				if (magicRead < MAGIC.length) {
+					if (received.get() != MAGIC[magicRead++]) {
+						return false;
+					}
+					continue;
+				}
+				frame.put(received.get());
+				if (frame.position() < Integer.BYTES) {
+					continue;
+				}
+				int length = frame.getInt(0);
+				if (length < HEADER_LENGTH - Integer.BYTES || length > MAX_REQUEST_LENGTH) {
+					return false;
+				}
+				// copy as much of the frame as has arrived in one go
+				int missing = Integer.BYTES + length - frame.position();
+				int copy = Math.min(missing, received.remaining());
+				frame.put(frame.position(), received, received.position(), copy);
+				frame.position(frame.position() + copy);
+				received.position(received.position() + copy);
+				if (copy == missing) {
+					byte[] request = new byte[length];
+					frame.get(Integer.BYTES, request);
+					requests.accept(ByteBuffer.wrap(request));
+					frame.clear();
+				}
+			}
+			return true;
+		}
+	}
+}
@@ -0,0 +1,220 @@
+package newbank.server;
+
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/*
+ * One connection speaking the binary protocol (see BinaryProtocol). Each request frame is run straight away, there
+ * are no confirmation prompts: sending a PAY or MOVE frame is the confirmation. Like processRequest, a response is only
+ * returned once the changes of its request are on disk. The response is built in a buffer the session reuses, so a
+ * request allocates next to nothing beyond what the bank itself does.
+ */
+final class BinarySession {
+
+	private final NewBank bank;
+	private CustomerID customer;
+	private ByteBuffer response = ByteBuffer.allocate(1024);
+	private final Transaction[] page = new Transaction[StatementLog.PAGE_SIZE];
+
+	BinarySession(NewBank bank) {
+		this.bank = bank;
+	}
+
+	/*
+	 * Runs one request, given from its request id to the end of the frame, and returns the response frame with its
+	 * length. The returned buffer is reused by the next request, so it must be written or copied before then.
+	 */
+	ByteBuffer handle(ByteBuffer request) {
+		long started = System.nanoTime();
+		int requestId = request.getInt();
+		byte opcode = request.get();
+		response.clear();
+		response.position(BinaryProtocol.HEADER_LENGTH);
+		String metric = null;
+		byte status;
+		try {
+			if (opcode == BinaryProtocol.LOGIN) {
+				status = logIn(request);
+			} else if (customer == null) {
+				status = BinaryProtocol.NOT_LOGGED_IN;
+			} else if (bank.getReplica() != null && (opcode == BinaryProtocol.PAY || opcode == BinaryProtocol.MOVE)) {
+				status = BinaryProtocol.READ_ONLY;
+			} else if (bank.getReplica() != null && bank.getReplica().isTooStale() && opcode != BinaryProtocol.LOGOUT) {
+				status = BinaryProtocol.FAIL;
+			} else if (opcode == BinaryProtocol.PAY) {
+				metric = "PAY";
+				// a payment sends its legs to the shards itself
+				status = pay(request.getLong(), BinaryProtocol.getAccount(request), BinaryProtocol.getAccount(request));
+			} else if (opcode == BinaryProtocol.MOVE) {
+				metric = "MOVE";
+				status = bank.onShard(customer, () -> move(request.getLong(), BinaryProtocol.getAccount(request),
+						BinaryProtocol.getAccount(request)));
+			} else if (opcode == BinaryProtocol.STATEMENT) {
+				metric = "PRINTSTATEMENT";
+				status = bank.read(() -> statement(BinaryProtocol.getAccount(request), request.getShort()));
+			} else if (opcode == BinaryProtocol.ACCOUNTS) {
+				metric = "SHOWMYACCOUNTS";
+				status = bank.read(this::accounts);
+			} else if (opcode == BinaryProtocol.LOGOUT) {
+				customer = null;
+				status = BinaryProtocol.OK;
+			} else {
+				status = BinaryProtocol.BAD_REQUEST;
+			}
+			// a request run on a shard was committed by its writer, this only waits for a request run here
+			LedgerJournal.commit();
+		} catch (BufferUnderflowException e) {
+			status = BinaryProtocol.BAD_REQUEST;
+		} catch (UncheckedIOException e) {
+			// the journal failed (see LedgerJournal), the change is lost when the bank restarts
+			status = BinaryProtocol.FAIL;
+		}
+		if (status != BinaryProtocol.OK) {
+			// a failed request has no fields
+			response.position(BinaryProtocol.HEADER_LENGTH);
+		}
+		if (metric != null) {
+			ServerMetrics.commandRun(metric, System.nanoTime() - started, status != BinaryProtocol.OK);
+		}
+		response.putInt(0, response.position() - Integer.BYTES).putInt(4, requestId).put(8, status);
+		return response.flip();
+	}
+
+	private byte logIn(ByteBuffer request) {
+		String username = getString(request);
+		String password = getString(request);
+		long started = System.nanoTime();
+		customer = SecureDataStore.checkLogInDetails(username, password);
+		ServerMetrics.loggedIn(System.nanoTime() - started, customer == null);
+		return customer == null ? BinaryProtocol.LOGIN_FAILED : BinaryProtocol.OK;
+	}
+
+	// Amounts are checked against the same bounds as those typed in the text protocol, see Money.parse
+	private byte pay(long amount, Account from, Account to) {
+		if (amount <= 0 || amount > Money.MAX_AMOUNT) {
+			return BinaryProtocol.BAD_REQUEST;
+		}
+		switch (bank.pay(customer, amount, from, to)) {
+			case PAID:
+				return BinaryProtocol.OK;
+			case INVALID_IBAN:
+				return BinaryProtocol.INVALID_ACCOUNT;
+			case NOT_OWNER:
+				return BinaryProtocol.NOT_OWNER;
+			case SAME_CUSTOMER:
+				return BinaryProtocol.SAME_CUSTOMER;
+			case OVER_LIMIT:
+				return BinaryProtocol.OVER_LIMIT;
+			case TIMED_OUT:
+				return BinaryProtocol.FAIL;
+			default:
+				return BinaryProtocol.INSUFFICIENT_FUNDS;
+		}
+	}
+
+	private byte move(long amount, Account from, Account to) {
+		if (amount <= 0 || amount > Money.MAX_AMOUNT) {
+			return BinaryProtocol.BAD_REQUEST;
+		}
+		if (from == null || to == null) {
+			return BinaryProtocol.INVALID_ACCOUNT;
+		}
+		Customer owner = SecureDataStore.getCustomer(customer);
+		if (from.getOwner() != owner || to.getOwner() != owner) {
+			return BinaryProtocol.NOT_OWNER;
+		}
+		return bank.moveMoney(amount, from, to) ? BinaryProtocol.OK : BinaryProtocol.INSUFFICIENT_FUNDS;
+	}
+
+	private byte statement(Account account, int pageNumber) {
+		if (account == null) {
+			return BinaryProtocol.INVALID_ACCOUNT;
+		}
+		if (account.getOwner() != SecureDataStore.getCustomer(customer)) {
+			return BinaryProtocol.NOT_OWNER;
+		}
+		// the page is read without taking the account's lock, -1 pages if the page number is out of range
+		long pagesAndCount = account.getOwner().readAccounts(() -> {
+			int pages = account.getStatementPages();
+			if (pageNumber < 1 || pageNumber > pages) {
+				return -1L;
+			}
+			return (long) pages << 32 | account.copyStatementPage(pageNumber, page);
+		});
+		if (pagesAndCount < 0) {
+			return BinaryProtocol.INVALID_PAGE;
+		}
+		int pages = (int) (pagesAndCount >>> 32);
+		int count = (int) pagesAndCount;
+		ensureRoom(5 + count * 20);
+		response.putShort((short) pageNumber).putShort((short) pages).put((byte) count);
+		for (int i = 0; i < count; i++) {
+			Transaction transaction = page[i];
+			page[i] = null;
+			boolean paidOut = transaction.fromAccount == account;
+			Account other = paidOut ? transaction.toAccount : transaction.fromAccount;
+			response.putInt((int) transaction.getDate().toEpochDay());
+			response.putLong(paidOut ? -transaction.transactionAmount : transaction.transactionAmount);
+			if (other == null) {
+				// a credit from the bank itself, e.g. interest
+				response.putInt(0).putInt(0);
+			} else {
+				BinaryProtocol.putIban(response, other);
+			}
+		}
+		return BinaryProtocol.OK;
+	}
+
+	private byte accounts() {
+		Customer owner = SecureDataStore.getCustomer(customer);
+		int start = response.position();
+		// the balances are read together without locking the accounts, a read that is retried starts again
+		return owner.readAccounts(() -> {
+			response.position(start);
+			response.putShort((short) 0);
+			int count = 0;
+			for (Account account : owner.getAccounts()) {
+				byte[] name = account.getAccountName().getBytes(StandardCharsets.UTF_8);
+				int nameLength = Math.min(name.length, 255);
+				ensureRoom(18 + nameLength);
+				BinaryProtocol.putIban(response, account);
+				response.putLong(account.getBalance()).put(accountType(account));
+				response.put((byte) nameLength).put(name, 0, nameLength);
+				count++;
+			}
+			response.putShort(start, (short) count);
+			return BinaryProtocol.OK;
+		});
+	}
+
+	private static byte accountType(Account account) {
+		if (account instanceof SavingsAccount) {
+			return BinaryProtocol.SAVINGS;
+		}
+		return account instanceof LoanAccount ? BinaryProtocol.LOAN : BinaryProtocol.CURRENT;
+	}
+
+	// Reads a string sent as [byte length][UTF-8 bytes]
+	private static String getString(ByteBuffer request) {
+		int length = request.get() & 0xFF;
+		if (length > request.remaining()) {
+			throw new BufferUnderflowException();
+		}
+		String value = new String(request.array(), request.arrayOffset() + request.position(), length,
+				StandardCharsets.UTF_8);
+		request.position(request.position() + length);
+		return value;
+	}
+
+	// Grows the response buffer if the given number of bytes does not fit
+	private void ensureRoom(int bytes) {
+		if (response.remaining() < bytes) {
+			ByteBuffer larger = ByteBuffer.allocate(Math.max(response.capacity() * 2, response.position() + bytes));
+			response.flip();
+			larger.put(response);
+			response = larger;
+		}
+	}
+}
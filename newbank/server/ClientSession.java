@@ -0,0 +1,269 @@
+package newbank.server;
+
+/*
+ * The text protocol of one customer connection (see protocol.txt) as a state machine. Each line received from the
+ * client is fed to handleLine and the responses are written to the session's Output, so the same session logic is
+ * used by the thread-per-connection server and by the non-blocking server.
+ *
+ * To save round trips a request can be confirmed in advance with a trailing CONFIRM word, and tagged with a leading
+ * #<tag> word. Every line of the response to a tagged request starts with the same #<tag> and the response ends with
+ * the line #<tag> END, so a client can send several tagged requests without waiting and match the responses by tag.
+ * Requests are still run one at a time in the order they were sent.
+ */
+public class ClientSession {
+
+	// Where a session writes its responses, one call per line printed to the client, then a flush per response
+	public interface Output {
+		void println(String text);
+
+		default void flush() {
+		}
+	}
+
+	// Static responses, encoded once when the server starts (see StaticResponses)
+	static final String ENTER_USERNAME = "Enter Username";
+	static final String ENTER_PASSWORD = "Enter Password";
+	static final String LOG_IN_FAILED = "Log In Failed";
+	static final String INTRODUCTION =
+			"\nThe NewBank application is controlled by something called a Command Line Interface (CLI).\nTo navigate the application and complete actions you must enter a command into the terminal."+
+			"\nThe commands generally consist of a command name followed by the parameters needed to complete the request."+
+			"\nType INFO in the terminal to be informed of how to use the commands with their parameters and see a list of them with short descriptions.\n";
+	static final String CONFIRM_PROMPT = "Please confirm the transaction by entering 'Y' or 'N'";
+	static final String CANCELLED = "Transaction cancelled";
+
+	// The step of the protocol the session is waiting on
+	private enum State { USERNAME, PASSWORD, COMMAND, LINES, CONFIRM }
+
+	private final NewBank bank;
+	private final Output out;
+	private State state;
+	private String userName;
+	private CustomerID customer;
+	private Command pendingCommand;
+	// token issued at log in, revoked when the customer logs out
+	private String sessionToken;
+	// tag of the request being handled, null if it was not tagged
+	private String tag;
+	// the pending command was confirmed with CONFIRM when it was sent
+	private boolean pendingConfirmed;
+
+	public ClientSession(NewBank bank, Output out) {
+		this.bank = bank;
+		this.out = out;
+	}
+
+	// Sends the first prompt to a newly connected client
+	public void start() {
+		askForUsername();
+		out.flush();
+	}
+
+	// Processes one line received from the client
+	public void handleLine(String line) {
+		switch (state) {
+			case USERNAME:
+				// a client that lost its connection can skip the password with the token it was given at log in
+				if (line.startsWith("RESUME ")) {
+					resume(line.substring("RESUME ".length()));
+					break;
+				}
+				userName = line;
+				// ask for password
+				out.println(ENTER_PASSWORD);
+				state = State.PASSWORD;
+				break;
+			case PASSWORD:
+				logIn(line);
+				break;
+			case COMMAND:
+				handleRequest(line);
+				break;
+			case LINES:
+				handleFurtherLine(line);
+				break;
+			case CONFIRM:
+				handleConfirmation(line);
+				break;
+		}
+		// everything printed for the line goes to the client in one write
+		out.flush();
+	}
+
+	// ask for username
+	private void askForUsername() {
+		out.println(ENTER_USERNAME);
+		state = State.USERNAME;
+	}
+
+	// authenticate user and get customer ID token from bank for use in subsequent requests
+	private void logIn(String password) {
+		long started = System.nanoTime();
+		customer = SecureDataStore.checkLogInDetails(userName, password);
+		ServerMetrics.loggedIn(System.nanoTime() - started, customer == null);
+		if (customer == null) {
+			out.println(LOG_IN_FAILED);
+			askForUsername();
+			return;
+		}
+		sessionToken = SessionTokens.issue(userName);
+		// the introduction that follows the greeting is the same for every customer
+		out.println("Log In Successful.\n"+
+		"\nWelcome " + userName + "!");
+		out.println(INTRODUCTION);
+		out.println("Session token: " + sessionToken);
+		state = State.COMMAND;
+	}
+
+	// log in again with a session token instead of the password, after a check that is much cheaper than the password's
+	private void resume(String token) {
+		customer = SessionTokens.resume(token);
+		if (customer == null) {
+			out.println("Resume Failed");
+			askForUsername();
+			return;
+		}
+		userName = customer.getKey();
+		sessionToken = token;
+		out.println("Session Resumed.\n" +
+		"\nWelcome back " + userName + "!\n");
+		state = State.COMMAND;
+	}
+
+	private void handleRequest(String request) {
+		tag = null;
+		if (request.startsWith("#")) {
+			int space = request.indexOf(' ');
+			if (space < 2) {
+				out.println("A tag is written #<tag> followed by a space and the request.\nFAIL\n");
+				return;
+			}
+			tag = request.substring(1, space);
+			request = request.substring(space + 1);
+		}
+		// if the user logs out by issuing the EXIT command, print an exit message and go back to login screen.
+		if (request.equals("EXIT")) {
+			respond("\nThank you for using NewBank, " + customer.getKey() + ". You logged out.\n");
+			System.out.println(customer.getKey() + " Logged out.\n");
+			customer = null; 	// reinitialise customer to null to stay in the login screen.
+			SessionTokens.revoke(sessionToken);	// the token can no longer resume the session
+			sessionToken = null;
+			askForUsername();
+			return;
+		}
+		// The request is parsed once, the same command is confirmed and then run
+		boolean confirmed = false;
+		Command command = null;
+		if (request.endsWith(" CONFIRM")) {
+			command = confirmedInAdvance(request.substring(0, request.length() - " CONFIRM".length()));
+			confirmed = command != null;
+		}
+		if (command == null) {
+			command = Command.parse(request);
+		}
+		// A read replica turns away commands that change the bank before asking for further lines or confirmation
+		if (bank.getReplica() != null && !command.isReadOnly()) {
+			respond(bank.processRequest(customer, command));
+			return;
+		}
+		// Some commands, e.g. PAYBATCH, read further lines before they are complete
+		if (command.linesExpected() > 0) {
+			if (tag != null) {
+				// the further lines could not be told apart from tagged requests sent after this one
+				respond("A tagged " + command.getName() + " cannot be followed by further lines, send it untagged or use "
+						+ "PAYBATCH FILE.\nFAIL\n");
+				return;
+			}
+			out.println(command.linesPrompt());
+			pendingCommand = command;
+			pendingConfirmed = confirmed;
+			state = State.LINES;
+			return;
+		}
+		confirmOrRun(command, confirmed);
+	}
+
+	/*
+	 * Parses a request that ended with CONFIRM, given without it, and returns the command if it takes CONFIRM, i.e. it
+	 * asks for confirmation. For any other command CONFIRM is one of its words, e.g. an account called CONFIRM, and
+	 * null is returned so that the whole request is parsed. A request that is invalid either way is answered with the
+	 * reason it is invalid without CONFIRM.
+	 */
+	private static Command confirmedInAdvance(String request) {
+		Command command = Command.parse(request);
+		if (command instanceof Command.Invalid) {
+			return Command.parse(request + " CONFIRM") instanceof Command.Invalid ? command : null;
+		}
+		return command.confirmationMessage() != null ? command : null;
+	}
+
+	// Adds a further line to the pending command, once it is complete it is confirmed and run
+	private void handleFurtherLine(String line) {
+		pendingCommand.addLine(line);
+		if (pendingCommand.linesExpected() == 0) {
+			Command command = pendingCommand;
+			pendingCommand = null;
+			state = State.COMMAND;
+			confirmOrRun(command, pendingConfirmed);
+		}
+	}
+
+	// Asks the customer to confirm the command if it needs confirmation and was not confirmed in advance, otherwise runs it
+	private void confirmOrRun(Command command, boolean confirmed) {
+		// First get the confirmation message of the command - if there is one ask the user to confirm the request
+		String confirm = confirmed ? null : command.confirmationMessage();
+		if (confirm != null && tag != null) {
+			// the answer to a prompt could not be matched to a tagged request among others in flight
+			respond(confirm + "\nA tagged request must be confirmed in advance, add CONFIRM to the end of it.\nFAIL\n");
+		} else if (confirm != null) {
+			out.println(confirm);
+			pendingCommand = command;
+			askForConfirmation();
+		}
+		// If there is no confirmation message, run the request as normal
+		else {
+			respond(bank.processRequest(customer, command));
+		}
+	}
+
+	// Sends the response to the request, with every line tagged and an END line if the request was tagged
+	private void respond(String response) {
+		if (tag == null) {
+			out.println(response);
+			return;
+		}
+		StringBuilder tagged = new StringBuilder(response.length() + 64);
+		int start = 0;
+		while (start < response.length()) {
+			int end = response.indexOf('\n', start);
+			if (end < 0) {
+				end = response.length();
+			}
+			tagged.append('#').append(tag).append(' ').append(response, start, end).append('\n');
+			start = end + 1;
+		}
+		tagged.append('#').append(tag).append(" END");
+		out.println(tagged.toString());
+	}
+
+	// method to confirm a process request
+	private void askForConfirmation() {
+		out.println(CONFIRM_PROMPT);
+		state = State.CONFIRM;
+	}
+
+	// If the user confirms the transaction, run the request, otherwise cancel the transaction
+	private void handleConfirmation(String input) {
+		if (input.equals("Y")) {
+			state = State.COMMAND;
+			out.println(bank.processRequest(customer, pendingCommand));
+			pendingCommand = null;
+		} else if (input.equals("N")) {
+			state = State.COMMAND;
+			pendingCommand = null;
+			out.println(CANCELLED);
+		} else {
+			System.out.println("Invalid input, please try again");
+			askForConfirmation();
+		}
+	}
+}
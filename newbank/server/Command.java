@@ -0,0 +1,532 @@
+package newbank.server;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * A customer request parsed into a typed command, e.g. Pay(amount, fromIBAN, toIBAN). Each request line is split into
+ * words once, without copying the words that are only parsed, and the command is looked up in a table of command
+ * names. The same command object is used to ask the customer for confirmation and to run the request.
+ */
+public abstract class Command {
+
+	static final String WRONG_PARAMETER_COUNT =
+			"The number of specified parameters in the command is incorrect.\n" +
+			"Type INFO to see a list of all commands with their corresponding parameters including short descriptions.\n" +
+			"FAIL\n";
+	static final String INVALID_AMOUNT = "Invalid amount input\n" + "FAIL\n";
+
+	// Builds a command from the words of a request, words.count() includes the command name
+	private interface Factory {
+		Command create(Words words);
+	}
+
+	// dispatch table: the command names customers type and the factories building their commands
+	private static final String[] names = {
+			"INFO", "MOVE", "SHOWMYACCOUNTS", "NEWACCOUNT", "PAY", "PAYBATCH", "PRINTSTATEMENT", "LOAN", "REPAY", "STATS"
+	};
+	// name of the requests that are not a known command
+	static final String INVALID = "INVALID";
+	private static final Factory[] factories = {
+			words -> new Info(),
+			Command::move,
+			words -> new ShowMyAccounts(),
+			Command::newAccount,
+			Command::pay,
+			Command::payBatch,
+			Command::printStatement,
+			Command::loan,
+			words -> new Repay(),
+			words -> new Stats()
+	};
+
+	private static final ThreadLocal<Words> reusedWords = ThreadLocal.withInitial(Words::new);
+
+	// the command name the request started with, e.g. to record metrics per command
+	private String name = INVALID;
+
+	/*
+	 * Parses one request line. Requests that cannot be run, e.g. an unknown command, a wrong number of parameters or
+	 * an invalid amount, are parsed into a command that just answers with the reason.
+	 */
+	public static Command parse(String request) {
+		Words words = reusedWords.get().split(request);
+		if (words.count() > 0) {
+			for (int i = 0; i < names.length; i++) {
+				if (words.is(0, names[i])) {
+					Command command = factories[i].create(words);
+					command.name = names[i];
+					return command;
+				}
+			}
+		}
+		return new Invalid("Your command " + words.get(0) + " is invalid. \n" +
+				"Type INFO to see a list of all commands with their corresponding parameters including short descriptions.\n" +
+				"FAIL\n");
+	}
+
+	// Accessor: Get the names of every command, and INVALID for requests that are not a command
+	static String[] commandNames() {
+		String[] all = Arrays.copyOf(names, names.length + 1);
+		all[names.length] = INVALID;
+		return all;
+	}
+
+	// Accessor: Get the name of the command the request started with, INVALID if it is not a command
+	public String getName() {
+		return name;
+	}
+
+	// Accessor: Get the message the customer must confirm before the command runs, or null if it runs straight away
+	public String confirmationMessage() {
+		return null;
+	}
+
+	// Accessor: Get whether the command only reads the bank, only such commands are answered by a ReadReplica
+	public boolean isReadOnly() {
+		return false;
+	}
+
+	// Accessor: Get the number of further lines the command needs before it is complete, e.g. the payments of a PAYBATCH
+	public int linesExpected() {
+		return 0;
+	}
+
+	// Accessor: Get the prompt asking the customer for the further lines
+	public String linesPrompt() {
+		return null;
+	}
+
+	// Mutator: Add one of the further lines the command needs
+	public void addLine(String line) {
+		throw new IllegalStateException("Command takes no further lines");
+	}
+
+	// Runs the command for a customer and returns the response, called by NewBank.processRequest
+	abstract String execute(NewBank bank, CustomerID customer);
+
+	private static Command move(Words words) {
+		if (words.count() < 4) {
+			return new Invalid("FAIL: Invalid parameters. Please enter command in the following format (without the chevrons): MOVE <amount> <fromAccount> <toAccount>\n");
+		}
+		try {
+			return new Move(words.amount(1), words.get(2), words.get(3));
+		} catch (NumberFormatException e) {
+			return new Invalid(INVALID_AMOUNT);
+		}
+	}
+
+	private static Command newAccount(Words words) {
+		if (words.count() != 3) {
+			return new Invalid(WRONG_PARAMETER_COUNT);
+		}
+		return new NewAccount(words.get(1), words.get(2));
+	}
+
+	private static Command pay(Words words) {
+		if (words.count() != 4) {
+			return new Invalid(WRONG_PARAMETER_COUNT);
+		}
+		try {
+			return new Pay(words.amount(1), words.get(2), words.get(3));
+		} catch (NumberFormatException e) {
+			return new Invalid(INVALID_AMOUNT);
+		}
+	}
+
+	private static Command payBatch(Words words) {
+		int maxPayments = BankConfig.maxBatchPayments();
+		if (words.count() == 3 && words.is(1, "FILE")) {
+			return readPayBatch(words.get(2), maxPayments);
+		}
+		if (words.count() != 2) {
+			return new Invalid(WRONG_PARAMETER_COUNT);
+		}
+		int size;
+		try {
+			size = words.integer(1);
+		} catch (NumberFormatException e) {
+			return new Invalid("Invalid number of payments.\nFAIL\n");
+		}
+		if (size < 1 || size > maxPayments) {
+			return new Invalid("A payment batch holds between 1 and " + maxPayments + " payments.\nFAIL\n");
+		}
+		return new PayBatch(size);
+	}
+
+	// Reads a payment batch from a file in the batch directory, one payment per line, blank lines are skipped
+	private static Command readPayBatch(String fileName, int maxPayments) {
+		Path directory = BankConfig.batchDirectory().toAbsolutePath().normalize();
+		Path file = directory.resolve(fileName).normalize();
+		if (!directory.equals(file.getParent())) {
+			return new Invalid("Payment files must be in the payment batch directory.\nFAIL\n");
+		}
+		List<String> lines = new ArrayList<>();
+		try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			for (String line = in.readLine(); line != null; line = in.readLine()) {
+				if (line.isBlank()) {
+					continue;
+				}
+				if (lines.size() == maxPayments) {
+					return new Invalid("A payment batch holds between 1 and " + maxPayments + " payments.\nFAIL\n");
+				}
+				lines.add(line);
+			}
+		} catch (IOException e) {
+			return new Invalid("Cannot read payment file " + fileName + ".\nFAIL\n");
+		}
+		if (lines.isEmpty()) {
+			return new Invalid("Payment file " + fileName + " holds no payments.\nFAIL\n");
+		}
+		PayBatch batch = new PayBatch(lines.size());
+		for (String line : lines) {
+			batch.addLine(line);
+		}
+		return batch;
+	}
+
+	private static Command printStatement(Words words) {
+		if (words.count() == 2) {
+			return new PrintStatement(words.get(1), 1);
+		} else if (words.count() == 3) {
+			try {
+				return new PrintStatement(words.get(1), words.integer(2));
+			} catch (NumberFormatException e) {
+				return new Invalid("Invalid page number.\nFAIL\n");
+			}
+		}
+		return new Invalid(WRONG_PARAMETER_COUNT);
+	}
+
+	private static Command loan(Words words) {
+		if (words.count() != 4) {
+			return new Invalid("FAIL");
+		}
+		try {
+			return new Loan(words.get(1), words.get(2), words.amount(3));
+		} catch (NumberFormatException e) {
+			return new Invalid(INVALID_AMOUNT);
+		}
+	}
+
+	// INFO: explain the available commands
+	static final class Info extends Command {
+		public boolean isReadOnly() {
+			return true;
+		}
+
+		String execute(NewBank bank, CustomerID customer) {
+			return bank.infoCommand();
+		}
+	}
+
+	// SHOWMYACCOUNTS: list the customer's accounts with their balances
+	static final class ShowMyAccounts extends Command {
+		public boolean isReadOnly() {
+			return true;
+		}
+
+		String execute(NewBank bank, CustomerID customer) {
+			return bank.showMyAccounts(customer);
+		}
+	}
+
+	// MOVE <amount> <fromAccountName> <toAccountName>: move money between the customer's own accounts
+	static final class Move extends Command {
+		final long amount;
+		final String fromAccountName;
+		final String toAccountName;
+
+		Move(long amount, String fromAccountName, String toAccountName) {
+			this.amount = amount;
+			this.fromAccountName = fromAccountName;
+			this.toAccountName = toAccountName;
+		}
+
+		public String confirmationMessage() {
+			return "You are attempting to send " + Money.format(amount) + " from " + fromAccountName + " to " + toAccountName;
+		}
+
+		String execute(NewBank bank, CustomerID customer) {
+			return bank.moveCommand(customer, amount, fromAccountName, toAccountName);
+		}
+	}
+
+	// NEWACCOUNT <accountType> <accountName>: open a new account with a zero balance
+	static final class NewAccount extends Command {
+		final String accountType;
+		final String accountName;
+
+		NewAccount(String accountType, String accountName) {
+			this.accountType = accountType;
+			this.accountName = accountName;
+		}
+
+		public String confirmationMessage() {
+			return "You are attempting to create a new " + accountType + " account called " + accountName;
+		}
+
+		String execute(NewBank bank, CustomerID customer) {
+			return bank.newAccount(customer, accountName, accountType);
+		}
+	}
+
+	// PAY <amount> <fromAccountIBAN> <toAccountIBAN>: pay another customer
+	static final class Pay extends Command {
+		final long amount;
+		final String fromIBAN;
+		final String toIBAN;
+
+		Pay(long amount, String fromIBAN, String toIBAN) {
+			this.amount = amount;
+			this.fromIBAN = fromIBAN;
+			this.toIBAN = toIBAN;
+		}
+
+		public String confirmationMessage() {
+			return "You are attempting to send " + Money.format(amount) + " from " + fromIBAN + " to " + toIBAN;
+		}
+
+		String execute(NewBank bank, CustomerID customer) {
+			return bank.pay(customer, amount, fromIBAN, toIBAN);
+		}
+	}
+
+	/*
+	 * PAYBATCH <count> followed by count payment lines, or PAYBATCH FILE <fileName>: make many payments with one
+	 * confirmation. Each line is "<amount> <fromAccountIBAN> <toAccountIBAN>", optionally starting with PAY. Lines that
+	 * cannot be parsed are remembered with the reason and reported in the summary, the other lines are still paid.
+	 */
+	static final class PayBatch extends Command {
+		private final long[] amounts;
+		private final String[] fromIBANs;
+		private final String[] toIBANs;
+		private final String[] errors;
+		private int size;
+
+		PayBatch(int capacity) {
+			this.amounts = new long[capacity];
+			this.fromIBANs = new String[capacity];
+			this.toIBANs = new String[capacity];
+			this.errors = new String[capacity];
+		}
+
+		public int linesExpected() {
+			return amounts.length - size;
+		}
+
+		public String linesPrompt() {
+			return "Enter " + linesExpected() + " payments, one per line: <amount> <fromAccountIBAN> <toAccountIBAN>";
+		}
+
+		public void addLine(String line) {
+			int index = size++;
+			Words words = reusedWords.get().split(line);
+			int first = words.count() > 0 && words.is(0, "PAY") ? 1 : 0;
+			if (words.count() - first != 3) {
+				errors[index] = "FAIL: Expected <amount> <fromAccountIBAN> <toAccountIBAN>";
+				return;
+			}
+			try {
+				amounts[index] = words.amount(first);
+			} catch (NumberFormatException e) {
+				errors[index] = "FAIL: Invalid amount";
+				return;
+			}
+			fromIBANs[index] = words.get(first + 1);
+			toIBANs[index] = words.get(first + 2);
+		}
+
+		// Accessor: Get the number of payment lines
+		int size() {
+			return size;
+		}
+
+		long amount(int index) {
+			return amounts[index];
+		}
+
+		String fromIBAN(int index) {
+			return fromIBANs[index];
+		}
+
+		String toIBAN(int index) {
+			return toIBANs[index];
+		}
+
+		// Accessor: Get the reason the line could not be parsed, or null if it was parsed
+		String error(int index) {
+			return errors[index];
+		}
+
+		public String confirmationMessage() {
+			long total = 0;
+			int payments = 0;
+			for (int i = 0; i < size; i++) {
+				if (errors[i] == null) {
+					total += amounts[i];
+					payments++;
+				}
+			}
+			String message = "You are attempting to make " + payments + " payments totalling " + Money.format(total);
+			if (payments < size) {
+				message += ", " + (size - payments) + " line(s) could not be read and will not be paid";
+			}
+			return message;
+		}
+
+		String execute(NewBank bank, CustomerID customer) {
+			return bank.payBatch(customer, this);
+		}
+	}
+
+	// PRINTSTATEMENT <accountIBAN> [page]: print one page of an account's 12 month statement
+	static final class PrintStatement extends Command {
+		final String iban;
+		final int page;
+
+		PrintStatement(String iban, int page) {
+			this.iban = iban;
+			this.page = page;
+		}
+
+		public boolean isReadOnly() {
+			return true;
+		}
+
+		String execute(NewBank bank, CustomerID customer) {
+			return bank.printStatement(customer, iban, page);
+		}
+	}
+
+	// LOAN <lenderAccountType> <borrowerUsername> <amount>: lend money to another customer
+	static final class Loan extends Command {
+		final String lenderAccountType;
+		final String borrowerUsername;
+		final long amount;
+
+		Loan(String lenderAccountType, String borrowerUsername, long amount) {
+			this.lenderAccountType = lenderAccountType;
+			this.borrowerUsername = borrowerUsername;
+			this.amount = amount;
+		}
+
+		public String confirmationMessage() {
+			return "You are attempting to loan " + Money.format(amount) + " from your " + lenderAccountType + " account to " + borrowerUsername;
+		}
+
+		String execute(NewBank bank, CustomerID customer) {
+			return bank.processLoanCommand(customer, lenderAccountType, borrowerUsername, amount);
+		}
+	}
+
+	// REPAY: repay the customer's active loan with interest
+	static final class Repay extends Command {
+		public String confirmationMessage() {
+			return "You are attempting to repay your loan";
+		}
+
+		String execute(NewBank bank, CustomerID customer) {
+			return bank.repayLoanCommand(customer);
+		}
+	}
+
+	// STATS: the server's metrics, only for administrators
+	static final class Stats extends Command {
+		public boolean isReadOnly() {
+			return true;
+		}
+
+		String execute(NewBank bank, CustomerID customer) {
+			return bank.statsCommand(customer);
+		}
+	}
+
+	// A request that cannot be run, answered with the reason
+	static final class Invalid extends Command {
+		final String response;
+
+		Invalid(String response) {
+			this.response = response;
+		}
+
+		public boolean isReadOnly() {
+			return true;
+		}
+
+		String execute(NewBank bank, CustomerID customer) {
+			return response;
+		}
+	}
+
+	/*
+	 * The words of a request line, separated by spaces, held as start and end offsets into the line. Only the words a
+	 * command keeps are copied into strings, amounts and page numbers are parsed straight from the line. Each thread
+	 * reuses one instance.
+	 */
+	private static final class Words {
+		private String line;
+		private int[] starts = new int[8];
+		private int[] ends = new int[8];
+		private int count;
+
+		Words split(String line) {
+			this.line = line;
+			this.count = 0;
+			int length = line.length();
+			int i = 0;
+			while (i < length) {
+				while (i < length && line.charAt(i) == ' ') {
+					i++;
+				}
+				if (i == length) {
+					break;
+				}
+				int start = i;
+				while (i < length && line.charAt(i) != ' ') {
+					i++;
+				}
+				if (count == starts.length) {
+					starts = Arrays.copyOf(starts, count * 2);
+					ends = Arrays.copyOf(ends, count * 2);
+				}
+				starts[count] = start;
+				ends[count] = i;
+				count++;
+			}
+			return this;
+		}
+
+		int count() {
+			return count;
+		}
+
+		// Whether the word at the index is the given text
+		boolean is(int index, String text) {
+			return ends[index] - starts[index] == text.length() && line.regionMatches(starts[index], text, 0, text.length());
+		}
+
+		String get(int index) {
+			return index < count ? line.substring(starts[index], ends[index]) : "";
+		}
+
+		// Parses an amount of money to pay, move or lend, which must be at least a penny
+		long amount(int index) {
+			long amount = Money.parse(line, starts[index], ends[index]);
+			if (amount == 0) {
+				throw new NumberFormatException("Zero amount: " + get(index));
+			}
+			return amount;
+		}
+
+		int integer(int index) {
+			return Integer.parseInt(line, starts[index], ends[index], 10);
+		}
+	}
+}
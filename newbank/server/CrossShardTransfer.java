@@ -0,0 +1,157 @@
+package newbank.server;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * A payment between customers on different shards (see ShardEngine), made in legs so that each shard only ever changes
+ * its own accounts:
+ * - reserve, on the payer's shard: the funds and the daily limit are checked, the payer's account is debited and the
+ *   payment is journaled as pending. The LSN of that record identifies the transfer from then on.
+ * - settle, on the payee's shard: the payee's account is credited and the transfer journaled as settled.
+ * - compensate, on the payer's shard, if the payee's shard has not settled the transfer in time: the payer's account
+ *   is credited back and the transfer journaled as compensated.
+ *
+ * Settling and compensating race for the transfer's state, so exactly one of them happens and the payee is credited
+ * at most once. The customer is only told SUCCESS once the settlement is on disk, and FAIL once the compensation is.
+ * A payer that gave up waiting for the payee's shard and then lost the race to compensate waits for the settlement
+ * that won it to be on disk (see awaitSettled) before telling the customer SUCCESS.
+ * A transfer still pending when the server stopped, e.g. in a crash, is settled when the bank is restored: its debit
+ * was on disk, so the payment had been accepted. Pending transfers are kept in snapshots until they are settled.
+ */
+final class CrossShardTransfer {
+
+	private static final int PENDING = 0;
+	private static final int SETTLED = 1;
+	private static final int COMPENSATED = 2;
+
+	// transfers reserved but not yet settled or compensated, by the LSN of their pending record
+	private static final ConcurrentHashMap<Long, CrossShardTransfer> pending = new ConcurrentHashMap<>();
+
+	final Account fromAccount;
+	final Account toAccount;
+	final long amount;
+	private LocalDate date;
+	private long id;
+	private final AtomicInteger state = new AtomicInteger(PENDING);
+	// counted down once settle has journaled the credit, or failed to
+	private final CountDownLatch settling = new CountDownLatch(1);
+	private volatile long settledLsn;
+
+	CrossShardTransfer(Account fromAccount, Account toAccount, long amount) {
+		this.fromAccount = fromAccount;
+		this.toAccount = toAccount;
+		this.amount = amount;
+	}
+
+	// Constructor used for a transfer that was pending when the bank was stopped or the snapshot taken
+	private CrossShardTransfer(long id, Account fromAccount, Account toAccount, long amount, LocalDate date) {
+		this(fromAccount, toAccount, amount);
+		this.id = id;
+		this.date = date;
+	}
+
+	// Accessor: Get the LSN of the pending record, which identifies the transfer
+	long getId() {
+		return id;
+	}
+
+	// Accessor: Get the day the payment was made
+	LocalDate getDate() {
+		return date;
+	}
+
+	// Run on the payer's shard: debits the payer if the funds and the daily limit allow it and journals the transfer
+	NewBank.PaymentResult reserve() {
+		Account[] locked = AccountLocks.lockAll(fromAccount);
+		try {
+			if (!fromAccount.sufficientFunds(amount)) {
+				return NewBank.PaymentResult.INSUFFICIENT_FUNDS;
+			}
+			if (!fromAccount.getOwner().getDailyLimit().tryReserve(amount)) {
+				return NewBank.PaymentResult.OVER_LIMIT;
+			}
+			Transaction transaction = new Transaction(fromAccount, toAccount, amount);
+			date = transaction.getDate();
+			fromAccount.adjustBalance(-amount);
+			fromAccount.addTransaction(transaction);
+			id = LedgerJournal.transferReserved(transaction);
+			pending.put(id, this);
+			return NewBank.PaymentResult.PAID;
+		} finally {
+			AccountLocks.unlockAll(locked);
+		}
+	}
+
+	// Run on the payee's shard: credits the payee, returns false if the transfer was compensated first
+	boolean settle() {
+		if (!state.compareAndSet(PENDING, SETTLED)) {
+			return false;
+		}
+		Account[] locked = AccountLocks.lockAll(toAccount);
+		try {
+			Transaction transaction = new Transaction(fromAccount, toAccount, amount);
+			transaction.overrideDate(date);
+			toAccount.adjustBalance(amount);
+			toAccount.addTransaction(transaction);
+			settledLsn = LedgerJournal.transferSettled(id, transaction);
+		} finally {
+			AccountLocks.unlockAll(locked);
+			settling.countDown();
+		}
+		pending.remove(id);
+		return true;
+	}
+
+	/*
+	 * Waits until the settlement is on disk, for a payer whose compensate found the transfer settled: the payee's shard
+	 * may not have committed it yet when it timed out.
+	 */
+	void awaitSettled() {
+		try {
+			settling.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return;
+		}
+		LedgerJournal.commit(settledLsn);
+	}
+
+	/*
+	 * Run on the payer's shard: credits the payer back, returns false if the transfer was settled first. The amount
+	 * still counts towards the payer's daily limit, which is only ever kept on the safe side.
+	 */
+	boolean compensate() {
+		if (!state.compareAndSet(PENDING, COMPENSATED)) {
+			return false;
+		}
+		Account[] locked = AccountLocks.lockAll(fromAccount);
+		try {
+			fromAccount.adjustBalance(amount);
+			fromAccount.addTransaction(new Transaction(fromAccount, amount, Transaction.REFUND));
+			LedgerJournal.transferCompensated(id, fromAccount, amount);
+		} finally {
+			AccountLocks.unlockAll(locked);
+		}
+		pending.remove(id);
+		return true;
+	}
+
+	// Static method: Get the transfers reserved but not yet settled or compensated
+	static Collection<CrossShardTransfer> getPending() {
+		return pending.values();
+	}
+
+	// Static method: Remember a pending transfer read from the journal or a snapshot, the payer was already debited
+	static void restorePending(long id, Account fromAccount, Account toAccount, long amount, LocalDate date) {
+		pending.putIfAbsent(id, new CrossShardTransfer(id, fromAccount, toAccount, amount, date));
+	}
+
+	// Static method: Forget a pending transfer whose settlement or compensation was read from the journal
+	static void restoreFinished(long id) {
+		pending.remove(id);
+	}
+}
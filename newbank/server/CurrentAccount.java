@@ -3,11 +3,16 @@ package newbank.server;
 public class CurrentAccount extends Account {
     
     // Constructor
-    public CurrentAccount(String accountName, double openingBalance, Customer customer) {
+    public CurrentAccount(String accountName, long openingBalance, Customer customer) {
         super(accountName, openingBalance, customer);
 
     }
 
+    // Constructor used when the bank is restored from its journal
+    CurrentAccount(String accountIBAN, String accountName, Customer customer) {
+        super(accountIBAN, accountName, customer);
+    }
+
     // Accessor: Get type of account (savings or current)
     @Override
     public String getAccountType() {
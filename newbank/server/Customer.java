@@ -1,18 +1,40 @@
 package newbank.server;
 
+import java.lang.invoke.VarHandle;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
 public class Customer {
-	private ArrayList<Account> accounts;
-	private ArrayList<LoanAgreement> loanAgreements ;  // List to store loan agreements
+	// copy-on-write so SHOWMYACCOUNTS can iterate while another session opens a new account
+	private CopyOnWriteArrayList<Account> accounts;
+	// the first account added with each name and with each type, kept with accounts by addAccount
+	private final ConcurrentHashMap<String, Account> accountsByName = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, Account> accountsByType = new ConcurrentHashMap<>();
+	// counts changes to the accounts and their balances, the rendered accounts are only reused if it has not moved since
+	private final AtomicLong accountsVersion = new AtomicLong();
+	private volatile RenderedAccounts renderedAccounts;
+	// changes to the accounts started and finished under their locks, see readAccounts
+	private final AtomicLong changesStarted = new AtomicLong();
+	private final AtomicLong changesFinished = new AtomicLong();
+	// reads retried before readAccounts locks the accounts instead
+	private static final int OPTIMISTIC_READS = 64;
+	private CopyOnWriteArrayList<LoanAgreement> loanAgreements ;  // List to store loan agreements
 	private String username, address, contactNumber, email;
-	private static int sortCode = 100000;
+	private static final AtomicInteger sortCode = new AtomicInteger(100000);
 	private int customerSortCode;
-	private boolean hasActiveLoan;
+	private volatile boolean hasActiveLoan;
+	// what the customer has paid to other customers against the daily pay limit
+	private final DailyLimit dailyLimit = new DailyLimit();
 
 	// Constructor
 	public Customer(String username, String address, String contactNumber, String email) {
-		this.accounts = new ArrayList<>();
-		this.loanAgreements = new ArrayList<>();
+		this.accounts = new CopyOnWriteArrayList<>();
+		this.loanAgreements = new CopyOnWriteArrayList<>();
 		this.username = username;
 		this.address = address;
 		this.contactNumber = contactNumber;
@@ -21,31 +43,123 @@ public class Customer {
 		hasActiveLoan = false;
 	}
 
-	// Returns a summary of customer's accounts as a string
+	// Constructor used when the bank is restored from its journal, the customer keeps the sort code it was given originally
+	Customer(String username, String address, String contactNumber, String email, int customerSortCode) {
+		this.accounts = new CopyOnWriteArrayList<>();
+		this.loanAgreements = new CopyOnWriteArrayList<>();
+		this.username = username;
+		this.address = address;
+		this.contactNumber = contactNumber;
+		this.email = email;
+		this.customerSortCode = customerSortCode;
+		restoreSortCodeTracker(customerSortCode);	// new customers must not reuse the sort code
+		hasActiveLoan = false;
+	}
+
+	// Returns a summary of customer's accounts as a string, rendered again only after an account has changed
 	public String accountsToString() {
-		String s = "";
-		for(Account a : this.accounts) {
-			s += a.toString();
+		// the version is read first, a change while the accounts are rendered leaves the result stale at once
+		long version = accountsVersion.get();
+		RenderedAccounts rendered = renderedAccounts;
+		if (rendered != null && rendered.version == version) {
+			return rendered.text;
+		}
+		String text = readAccounts(() -> {
+			StringBuilder s = new StringBuilder(64 * this.accounts.size());
+			for(Account a : this.accounts) {
+				a.appendTo(s);
+			}
+			return s.toString();
+		});
+		renderedAccounts = new RenderedAccounts(version, text);
+		return text;
+	}
+
+	// Called whenever one of the customer's accounts is added or its balance changes
+	void accountChanged() {
+		accountsVersion.incrementAndGet();
+	}
+
+	/*
+	 * Reads the customer's accounts, their balances and statements, as they were between two changes, without locking
+	 * them, e.g. never after a MOVE was taken out of one account and before it was paid into the other. Works like a
+	 * seqlock: AccountLocks counts a change of the accounts as started when it locks one and as finished when it
+	 * unlocks it. The read runs when as many changes have finished as started, and its result is kept if no change
+	 * started while it ran, otherwise it is run again. Changes of different accounts still run at the same time and
+	 * never wait for a read. Only a read that keeps meeting changes locks the accounts, so it cannot be starved.
+	 */
+	<T> T readAccounts(Supplier<T> read) {
+		for (int attempt = 0; attempt < OPTIMISTIC_READS; attempt++) {
+			long finished = changesFinished.get();
+			long started = changesStarted.get();
+			if (started == finished) {
+				T result = null;
+				RuntimeException failure = null;
+				try {
+					result = read.get();
+				} catch (RuntimeException e) {
+					// a read meeting a change half made can fail in any way, e.g. on a statement being grown
+					failure = e;
+				}
+				// the reads above complete before the count is read again
+				VarHandle.acquireFence();
+				if (changesStarted.get() == started) {
+					if (failure != null) {
+						throw failure;
+					}
+					return result;
+				}
+			}
+			Thread.onSpinWait();
 		}
-		return s;
+		Account[] locked = AccountLocks.lockAll(this.accounts.toArray(new Account[0]));
+		try {
+			return read.get();
+		} finally {
+			AccountLocks.unlockAll(locked);
+		}
+	}
+
+	// Counts a change of one of the accounts as started, called by AccountLocks once the account is locked
+	void changeStarted() {
+		changesStarted.incrementAndGet();
+	}
+
+	// Counts a change of one of the accounts as finished, called by AccountLocks before the account is unlocked
+	void changeFinished() {
+		changesFinished.incrementAndGet();
 	}
 
 	// Mutator: Update static sort code tracker to generate unique customer sort code
 	public void createSortCode(){
-		sortCode += 1;
-		this.customerSortCode = sortCode;
+		this.customerSortCode = sortCode.incrementAndGet();
 	}
 
 	//Accessor: Get customer's sort code
 	public int getSortCode() {
 		return this.customerSortCode;
 	}
+
+	// Static accessor: Get the highest sort code handed out so far
+	static int getSortCodeTracker() {
+		return sortCode.get();
+	}
+
+	// Static mutator: Make sure sort codes up to the given one are never handed out again
+	static void restoreSortCodeTracker(int customerSortCode) {
+		sortCode.accumulateAndGet(customerSortCode, Math::max);
+	}
 	
 	// Returns customer's username
 	public String getUsername() {
 		return this.username;
 	}
 
+	// Accessor: Get what the customer has paid to other customers against the daily pay limit
+	DailyLimit getDailyLimit() {
+		return this.dailyLimit;
+	}
+
 	// Returns whether customer already has an active loan
 	public boolean getHasActiveLoan() { return hasActiveLoan; }
 
@@ -56,11 +170,18 @@ public class Customer {
 
 	// Adds a new account to the customer's profile
 	public void addAccount(Account account) {
-		this.accounts.add(account);		
+		// one account at a time, so the indexes agree with the list on which account came first
+		synchronized (this.accounts) {
+			this.accounts.add(account);
+			this.accountsByName.putIfAbsent(account.getAccountName(), account);
+			this.accountsByType.putIfAbsent(account.getAccountType(), account);
+		}
+		accountChanged();
+		LedgerJournal.accountAdded(this, account);
 	}
 
 	// Checks if customer can complete transfer based on account balance
-	public boolean sufficientFunds(double amount) {
+	public boolean sufficientFunds(long amount) {
 		boolean sufficient = true;
 		for (Account a : accounts) {
 			if (amount > a.getBalance()) {
@@ -78,32 +199,35 @@ public class Customer {
 
 	// Checks whether the customer has an account with the given name
 	public Account getAccountByName(String fromAccountName) {
-		for (Account a : this.accounts) {
-			if (a.getAccountName().equals(fromAccountName)) {
-				return a;
-			}
-		}
-		return null;
+		return this.accountsByName.get(fromAccountName);
 	}
 
 	// Gets customer's account by account type
 	public Account getAccountByType(String accountType) {
-		for (Account a : this.accounts) {
-			if (a.getAccountType().equals(accountType)) {
-				return a;
-			}
-		}
-		return null;
+		return this.accountsByType.get(accountType);
 	}
 
 	// Accessor to return a list of customer's accounts
-	public ArrayList<Account> getAccounts() { return accounts;}
+	public List<Account> getAccounts() { return accounts;}
 
 	// Add loan agreement to the customer
 	public void addLoanAgreement(LoanAgreement loanAgreement) {
 		this.loanAgreements.add(loanAgreement);
 	}
 
+	// Accessor: Gets every loan agreement the customer has been the borrower in, oldest first
+	public List<LoanAgreement> getLoanAgreements() {
+		return loanAgreements;
+	}
+
+	// Accessor: Gets the loan agreement the customer currently has to repay, or null if there is none
+	public LoanAgreement getActiveLoanAgreement() {
+		if (!hasActiveLoan || loanAgreements.isEmpty()) {
+			return null;
+		}
+		return loanAgreements.get(loanAgreements.size() - 1);
+	}
+
 	// Accessor: Gets customer information
 	public ArrayList<String> getCustomerInfo(){
 		/* Function is not currently used, this feature is incorporated to meet the customer 
@@ -115,6 +239,17 @@ public class Customer {
 		customerInfo.add(this.address);
 		customerInfo.add(this.contactNumber);
 		customerInfo.add(this.email);
-		return getCustomerInfo();
+		return customerInfo;
+	}
+
+	// The accounts summary as rendered at a version of the accounts
+	private static final class RenderedAccounts {
+		private final long version;
+		private final String text;
+
+		RenderedAccounts(long version, String text) {
+			this.version = version;
+			this.text = text;
+		}
 	}
 }
@@ -0,0 +1,152 @@
+package newbank.server;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+ * How much one customer has paid to other customers, checked against the daily pay limit. A payment reserves its
+ * amount with compare-and-set, so it is only made if it fits under the limit together with every payment already made
+ * by any session of the customer, and payments of different customers never touch the same counter.
+ *
+ * In MIDNIGHT mode (the default) the limit resets at midnight UK time: the day and the amount paid on it are packed
+ * into one AtomicLong, a payment on a new day starts the count again. In ROLLING mode the limit applies to any 24
+ * hours: the amounts paid are counted in a ring of 15 minute slices, each slice and its amount packed into one long
+ * that is changed with compare-and-set, so a payment is counted for 23 3/4 to 24 hours. Checking and reserving reads
+ * the 96 slices and allocates nothing, however many payments the customer made. The ring is only allocated for a
+ * customer's first payment. The mode is chosen with -Dnewbank.limit.window.
+ */
+final class DailyLimit {
+
+	enum Mode { MIDNIGHT, ROLLING }
+
+	// Largest amount in pence a customer can pay to other customers in one day
+	static final long LIMIT = 50000_00;
+
+	private static final Mode mode = BankConfig.limitWindow();
+	private static final ZoneId UK_TIME = ZoneId.of("Europe/London");
+	private static final long SLICE_MILLIS = 15 * 60 * 1000L;
+	// slices in 24 hours, the ROLLING window
+	private static final int SLICES = 96;
+	// the amount paid is held in the low bits of a packed counter, the epoch day or slice in the high bits
+	private static final int AMOUNT_BITS = 40;
+	private static final long AMOUNT_MASK = (1L << AMOUNT_BITS) - 1;
+
+	private final AtomicLong paidToday = new AtomicLong();
+	// ROLLING mode: the amount paid in each of the last SLICES slices, at index slice % SLICES, null until the first
+	private final AtomicReference<AtomicLongArray> window = new AtomicReference<>();
+
+	// Accessor: Get today's date in UK time, the day the MIDNIGHT limit counts payments for
+	static LocalDate today() {
+		return LocalDate.now(UK_TIME);
+	}
+
+	// Reserves the amount of a payment made now, returns false and reserves nothing if it would exceed the limit
+	boolean tryReserve(long amount) {
+		return tryReserve(amount, System.currentTimeMillis());
+	}
+
+	boolean tryReserve(long amount, long nowMillis) {
+		if (amount > LIMIT) {
+			return false;
+		}
+		if (mode == Mode.ROLLING) {
+			return tryReserveRolling(window(), nowMillis / SLICE_MILLIS, amount);
+		}
+		long day = LocalDate.ofInstant(Instant.ofEpochMilli(nowMillis), UK_TIME).toEpochDay();
+		while (true) {
+			long packed = paidToday.get();
+			long paid = (packed >>> AMOUNT_BITS) == day ? packed & AMOUNT_MASK : 0;
+			if (paid + amount > LIMIT) {
+				return false;
+			}
+			if (paidToday.compareAndSet(packed, day << AMOUNT_BITS | (paid + amount))) {
+				return true;
+			}
+		}
+	}
+
+	/*
+	 * Counts a payment made today before the bank was restarted, the limit itself is not journaled. Payments restored
+	 * in ROLLING mode count as made at start-up, as their time of day is not known.
+	 */
+	void restore(long amount) {
+		long now = System.currentTimeMillis();
+		if (mode == Mode.ROLLING) {
+			AtomicLongArray slices = window();
+			long slice = now / SLICE_MILLIS;
+			slices.updateAndGet((int) (slice % SLICES), packed -> slice << AMOUNT_BITS
+					| Math.min(paidIn(packed, slice) + amount, AMOUNT_MASK));
+			return;
+		}
+		long day = today().toEpochDay();
+		paidToday.updateAndGet(packed -> {
+			long paid = (packed >>> AMOUNT_BITS) == day ? packed & AMOUNT_MASK : 0;
+			return day << AMOUNT_BITS | Math.min(paid + amount, AMOUNT_MASK);
+		});
+	}
+
+	// Accessor: Get the amount paid so far today, or in the last 24 hours in ROLLING mode
+	long getPaid() {
+		if (mode == Mode.ROLLING) {
+			AtomicLongArray slices = window.get();
+			return slices == null ? 0 : paidInWindow(slices, System.currentTimeMillis() / SLICE_MILLIS);
+		}
+		long packed = paidToday.get();
+		return (packed >>> AMOUNT_BITS) == today().toEpochDay() ? packed & AMOUNT_MASK : 0;
+	}
+
+	// The ring of slices, allocated by the first payment
+	private AtomicLongArray window() {
+		AtomicLongArray slices = window.get();
+		if (slices == null) {
+			window.compareAndSet(null, new AtomicLongArray(SLICES));
+			slices = window.get();
+		}
+		return slices;
+	}
+
+	/*
+	 * Adds the payment to the current slice if it fits under the limit with the payments of the last 24 hours. Only
+	 * the current slice is compared and set, so a payment counted meanwhile in another slice by a session whose clock
+	 * already reads the next slice is found by checking again afterwards, and the payment is taken back.
+	 */
+	private static boolean tryReserveRolling(AtomicLongArray slices, long slice, long amount) {
+		int index = (int) (slice % SLICES);
+		while (true) {
+			long packed = slices.get(index);
+			long paid = paidInWindow(slices, slice);
+			if (paid + amount > LIMIT) {
+				return false;
+			}
+			if (slices.compareAndSet(index, packed, slice << AMOUNT_BITS | (paidIn(packed, slice) + amount))) {
+				break;
+			}
+		}
+		if (paidInWindow(slices, slice) <= LIMIT) {
+			return true;
+		}
+		slices.updateAndGet(index, packed -> slice << AMOUNT_BITS | Math.max(paidIn(packed, slice) - amount, 0));
+		return false;
+	}
+
+	// The amount paid in the 24 hours up to the given slice, and in any later slice another session has started
+	private static long paidInWindow(AtomicLongArray slices, long slice) {
+		long paid = 0;
+		for (int i = 0; i < SLICES; i++) {
+			long packed = slices.get(i);
+			if ((packed >>> AMOUNT_BITS) > slice - SLICES) {
+				paid += packed & AMOUNT_MASK;
+			}
+		}
+		return paid;
+	}
+
+	// The amount of a packed slice counter if it is for the given slice, 0 if it is for an older slice
+	private static long paidIn(long packed, long slice) {
+		return (packed >>> AMOUNT_BITS) == slice ? packed & AMOUNT_MASK : 0;
+	}
+}
@@ -0,0 +1,130 @@
+package newbank.server;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/*
+ * Pays the monthly interest of savings accounts. Every savings account is registered in an index when it is created,
+ * so a run does not have to look through every customer and account. A run splits the index into partitions that are
+ * paid in parallel on a fork-join pool.
+ *
+ * Each account remembers the last month it was paid interest for, and the payment is journaled together with that
+ * month in one INTEREST record. A run only pays the accounts not yet paid for the month, so a run cut short by a crash
+ * is finished by the next run after the restart instead of paying anybody twice. A new account counts as paid for the
+ * month it is opened in.
+ *
+ * MONTHLY pays every account on the first run of a new month. DAILY (-Dnewbank.interest.schedule=DAILY) spreads the
+ * payments over the month instead: each account has a day between the 1st and the 28th, taken from its account
+ * number, and is paid on the first run on or after that day.
+ */
+final class InterestEngine {
+
+	enum Schedule { MONTHLY, DAILY }
+
+	// Number of different days of the month accounts are paid on in DAILY mode, every month has at least 28 days
+	static final int DAYS = 28;
+	// Number of accounts paid by one fork-join task without splitting further
+	private static final int PARTITION_SIZE = 1024;
+	private static final ZoneId UK_TIME = ZoneId.of("Europe/London");
+
+	// every savings account in the bank, in the order they were created
+	private static SavingsAccount[] index = new SavingsAccount[64];
+	private static int indexSize;
+
+	private final Schedule schedule;
+	private final ForkJoinPool pool;
+
+	InterestEngine(Schedule schedule, int parallelism) {
+		this.schedule = schedule;
+		this.pool = new ForkJoinPool(parallelism);
+	}
+
+	// Adds a savings account to the index of accounts interest is paid to
+	static synchronized void register(SavingsAccount account) {
+		if (indexSize == index.length) {
+			index = Arrays.copyOf(index, indexSize * 2);
+		}
+		index[indexSize++] = account;
+	}
+
+	private static synchronized SavingsAccount[] indexCopy() {
+		return Arrays.copyOf(index, indexSize);
+	}
+
+	// Accessor: Get today's date in UK time
+	static LocalDate today() {
+		return LocalDate.now(UK_TIME);
+	}
+
+	// The number identifying the month of the day, interest is paid once per account for each month
+	static long period(LocalDate day) {
+		return day.getYear() * 12L + day.getMonthValue() - 1;
+	}
+
+	/*
+	 * Pays interest to every account that is due it today and not yet paid for this month. Returns the number of
+	 * accounts paid. The payments are on disk when it returns.
+	 */
+	int runDue() {
+		LocalDate today = today();
+		long period = period(today);
+		// accounts whose day of the month is up to lastDay are due
+		int lastDay = schedule == Schedule.DAILY ? Math.min(today.getDayOfMonth(), DAYS) : DAYS;
+		long started = System.nanoTime();
+		SavingsAccount[] accounts = indexCopy();
+		int paid = pool.invoke(new Partition(accounts, 0, accounts.length, period, lastDay));
+		if (paid > 0) {
+			System.out.println("Interest for " + YearMonth.from(today) + " paid to " + paid + " of " + accounts.length
+					+ " savings accounts in " + (System.nanoTime() - started) / 1000000 + " ms");
+		}
+		return paid;
+	}
+
+	// Stops the fork-join pool, called when the bank shuts down
+	void shutdown() {
+		pool.shutdown();
+	}
+
+	// Pays the due accounts of one part of the index, splitting it while it is larger than PARTITION_SIZE
+	private static final class Partition extends RecursiveTask<Integer> {
+		private static final long serialVersionUID = 1L;
+
+		private final SavingsAccount[] accounts;
+		private final int from;
+		private final int to;
+		private final long period;
+		private final int lastDay;
+
+		Partition(SavingsAccount[] accounts, int from, int to, long period, int lastDay) {
+			this.accounts = accounts;
+			this.from = from;
+			this.to = to;
+			this.period = period;
+			this.lastDay = lastDay;
+		}
+
+		protected Integer compute() {
+			if (to - from > PARTITION_SIZE) {
+				int middle = (from + to) >>> 1;
+				Partition left = new Partition(accounts, from, middle, period, lastDay);
+				left.fork();
+				int right = new Partition(accounts, middle, to, period, lastDay).compute();
+				return left.join() + right;
+			}
+			int paid = 0;
+			for (int i = from; i < to; i++) {
+				SavingsAccount account = accounts[i];
+				if (account.getInterestDay() <= lastDay && account.payInterest(period)) {
+					paid++;
+				}
+			}
+			// the payments journaled by this thread are on disk before the run counts them as paid
+			LedgerJournal.commit();
+			return paid;
+		}
+	}
+}
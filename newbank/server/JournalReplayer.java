@@ -0,0 +1,181 @@
+package newbank.server;
+
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+
+/*
+ * Rebuilds the bank's state from the records of a LedgerJournal. Replay runs on start-up before any client is
+ * served and before the journal is installed, so nothing is locked and nothing replayed is journaled again. A
+ * ReadReplica applies the records streamed from its primary the same way, under its own lock and with no journal.
+ *
+ * When the bank was first loaded from a BankSnapshot, the snapshot may already contain some of the records being
+ * replayed, because snapshots are taken while the bank is running. Records that create something are skipped if it
+ * already exists, and records that change an account are skipped if the account's LSN shows it already has them.
+ */
+class JournalReplayer {
+
+	// Applies one journal record, the body is positioned after the record type
+	void apply(long lsn, byte type, ByteBuffer body) {
+		switch (type) {
+			case LedgerJournal.CUSTOMER_ADDED: {
+				String username = LedgerJournal.getString(body);
+				String passwordHash = LedgerJournal.getString(body);
+				String address = LedgerJournal.getString(body);
+				String contactNumber = LedgerJournal.getString(body);
+				String email = LedgerJournal.getString(body);
+				int sortCode = body.getInt();
+				if (SecureDataStore.getCustomer(username) == null) {
+					SecureDataStore.restoreCustomer(username, passwordHash, address, contactNumber, email, sortCode);
+				}
+				break;
+			}
+			case LedgerJournal.ACCOUNT_OPENED: {
+				String accountType = LedgerJournal.getString(body);
+				String iban = LedgerJournal.getString(body);
+				String accountName = LedgerJournal.getString(body);
+				Customer owner = SecureDataStore.getCustomer(LedgerJournal.getString(body));
+				if (Account.getAccountFromIBAN(iban) == null) {
+					Account.restore(accountType, iban, accountName, owner).setJournalLsn(lsn);
+				}
+				break;
+			}
+			case LedgerJournal.ACCOUNT_ADDED: {
+				Customer customer = SecureDataStore.getCustomer(LedgerJournal.getString(body));
+				Account account = account(body);
+				if (!customer.getAccounts().contains(account)) {
+					customer.addAccount(account);
+				}
+				break;
+			}
+			case LedgerJournal.DEPOSIT: {
+				Account account = account(body);
+				long amount = body.getLong();
+				if (isNew(lsn, account)) {
+					account.deposit(amount);
+				}
+				break;
+			}
+			case LedgerJournal.WITHDRAW: {
+				Account account = account(body);
+				long amount = body.getLong();
+				if (isNew(lsn, account)) {
+					account.withdraw(amount);
+				}
+				break;
+			}
+			case LedgerJournal.TRANSACTION: {
+				Account fromAccount = account(body);
+				Account toAccount = account(body);
+				Transaction transaction = new Transaction(fromAccount, toAccount, body.getLong());
+				transaction.overrideDate(LedgerJournal.getDate(body));
+				// the two accounts may have been copied into the snapshot at different times. A move within one
+				// account is listed twice in its statement, like it was when it was posted
+				boolean fromIsNew = isNew(lsn, fromAccount);
+				boolean toIsNew = fromAccount == toAccount ? fromIsNew : isNew(lsn, toAccount);
+				if (fromIsNew) {
+					fromAccount.addTransaction(transaction);
+				}
+				if (toIsNew) {
+					toAccount.addTransaction(transaction);
+				}
+				break;
+			}
+			case LedgerJournal.LOAN_OPENED: {
+				CurrentAccount borrowerAccount = (CurrentAccount) account(body);
+				Account lenderAccount = account(body);
+				LoanAccount loanAccount = (LoanAccount) account(body);
+				long amount = body.getLong();
+				if (isNew(lsn, borrowerAccount)) {
+					Customer borrower = borrowerAccount.getOwner();
+					LoanAgreement loanAgreement = new LoanAgreement(amount, borrower, lenderAccount.getOwner(),
+							borrowerAccount, lenderAccount);
+					loanAgreement.restoreLoanAccount(loanAccount);
+					borrower.addLoanAgreement(loanAgreement);
+					borrower.setHasActiveLoan(true);
+				}
+				break;
+			}
+			case LedgerJournal.LOAN_REPAID: {
+				Account borrowerAccount = account(body);
+				if (isNew(lsn, borrowerAccount)) {
+					borrowerAccount.getOwner().setHasActiveLoan(false);
+				}
+				break;
+			}
+			case LedgerJournal.INTEREST: {
+				SavingsAccount account = (SavingsAccount) account(body);
+				long period = body.getLong();
+				long amount = body.getLong();
+				LocalDate date = LedgerJournal.getDate(body);
+				if (isNew(lsn, account)) {
+					account.restoreInterest(period, amount, date);
+				}
+				break;
+			}
+			case LedgerJournal.TRANSFER_RESERVED: {
+				Account fromAccount = account(body);
+				Account toAccount = account(body);
+				long amount = body.getLong();
+				LocalDate date = LedgerJournal.getDate(body);
+				if (isNew(lsn, fromAccount)) {
+					Transaction transaction = new Transaction(fromAccount, toAccount, amount);
+					transaction.overrideDate(date);
+					fromAccount.adjustBalance(-amount);
+					fromAccount.addTransaction(transaction);
+				}
+				// pending until its settlement or compensation is replayed, if there is none it is settled on start-up
+				CrossShardTransfer.restorePending(lsn, fromAccount, toAccount, amount, date);
+				break;
+			}
+			case LedgerJournal.TRANSFER_SETTLED: {
+				long reservedLsn = body.getLong();
+				Account fromAccount = account(body);
+				Account toAccount = account(body);
+				long amount = body.getLong();
+				LocalDate date = LedgerJournal.getDate(body);
+				if (isNew(lsn, toAccount)) {
+					Transaction transaction = new Transaction(fromAccount, toAccount, amount);
+					transaction.overrideDate(date);
+					toAccount.adjustBalance(amount);
+					toAccount.addTransaction(transaction);
+				}
+				CrossShardTransfer.restoreFinished(reservedLsn);
+				break;
+			}
+			case LedgerJournal.TRANSFER_COMPENSATED: {
+				long reservedLsn = body.getLong();
+				Account fromAccount = account(body);
+				long amount = body.getLong();
+				LocalDate date = LedgerJournal.getDate(body);
+				if (isNew(lsn, fromAccount)) {
+					Transaction refund = new Transaction(fromAccount, amount, Transaction.REFUND);
+					refund.overrideDate(date);
+					fromAccount.adjustBalance(amount);
+					fromAccount.addTransaction(refund);
+				}
+				CrossShardTransfer.restoreFinished(reservedLsn);
+				break;
+			}
+			default:
+				throw new IllegalStateException("Unknown journal record type " + type);
+		}
+	}
+
+	// Checks whether the account still needs the record with the given LSN and if so marks it as applied
+	private static boolean isNew(long lsn, Account account) {
+		if (lsn <= account.getJournalLsn()) {
+			return false;
+		}
+		account.setJournalLsn(lsn);
+		return true;
+	}
+
+	private static Account account(ByteBuffer body) {
+		String iban = LedgerJournal.getString(body);
+		Account account = Account.getAccountFromIBAN(iban);
+		if (account == null) {
+			throw new IllegalStateException("Journal refers to unknown account " + iban);
+		}
+		return account;
+	}
+}
@@ -0,0 +1,701 @@
+package newbank.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/*
+ * Append-only journal of every change to the bank's state: new customers and accounts, every deposit and withdrawal,
+ * every Transaction and every loan. Records are appended while the accounts they change are locked, so the journal
+ * holds the changes of each account in the order they happened, and replaying it rebuilds the bank after a restart.
+ *
+ * A client must not be told SUCCESS before its changes are on disk, so processRequest calls commit() before it
+ * returns. commit() waits until everything the calling thread has appended has been fsynced. One fsync writes out
+ * everything appended so far, so many sessions committing at the same time share one fsync (group commit):
+ * - SYNC: the first waiting thread writes and fsyncs the journal on behalf of all waiting threads
+ * - BATCHED: a BankScheduler job calls flushBatch() every few milliseconds and waiting threads sleep until it has run
+ *
+ * Each record has a sequence number (its LSN), counted from 1 across the life of the bank, and every account remembers
+ * the LSN of the last record that changed it. The journal is kept as segment files named after the LSN of their
+ * first record. A BankSnapshot starts a new segment, after which the older segments are no longer needed.
+ *
+ * Every record is framed as [int length][int CRC32 of the body][body], the body starts with the record type. A record
+ * cut short by a crash fails its length or CRC check and is cut off the end of the journal when it is next opened.
+ *
+ * Once a write or fsync fails, the journal can no longer tell which of the records it was writing are on disk, so it
+ * stops writing altogether: every commit waiting then, and every later one, throws an UncheckedIOException, and the
+ * request it was made for fails. The bank needs a restart to record changes again.
+ */
+public final class LedgerJournal {
+
+	// Durability modes, see above
+	public enum Durability { SYNC, BATCHED }
+
+	// Record types
+	static final byte CUSTOMER_ADDED = 1;
+	static final byte ACCOUNT_OPENED = 2;
+	static final byte ACCOUNT_ADDED = 3;
+	static final byte DEPOSIT = 4;
+	static final byte WITHDRAW = 5;
+	static final byte TRANSACTION = 6;
+	static final byte LOAN_OPENED = 7;
+	static final byte LOAN_REPAID = 8;
+	static final byte INTEREST = 9;
+	static final byte TRANSFER_RESERVED = 10;
+	static final byte TRANSFER_SETTLED = 11;
+	static final byte TRANSFER_COMPENSATED = 12;
+
+	private static final int MAGIC = 0x4E424A31; // "NBJ1"
+	private static final int VERSION = 3;
+	private static final int HEADER_SIZE = 16;
+	private static final int FRAME_SIZE = 8;
+	private static final String SEGMENT_PREFIX = "journal-";
+	private static final String SEGMENT_SUFFIX = ".log";
+
+	// the journal changes are written to, null while the journal is being replayed and nothing must be recorded
+	private static volatile LedgerJournal current;
+
+	// scratch buffer a record is encoded into before it is copied into the journal
+	private static final ThreadLocal<ByteBuffer> scratch = ThreadLocal.withInitial(() -> ByteBuffer.allocate(512));
+	// LSN of the last record appended by each thread, which commit() waits for
+	private static final ThreadLocal<long[]> lastAppended = ThreadLocal.withInitial(() -> new long[1]);
+	// checksum of the record being appended by each thread, reset for every record
+	private static final ThreadLocal<CRC32> recordCrc = ThreadLocal.withInitial(CRC32::new);
+
+	private final Path directory;
+	private final Durability durability;
+	// segment being appended to, only replaced while holding both flushLock and this
+	private FileChannel channel;
+	// records appended but not yet written, guarded by this
+	private ByteBuffer pending = ByteBuffer.allocate(64 * 1024);
+	// buffer being written by the flushing thread, guarded by flushLock
+	private ByteBuffer writing = ByteBuffer.allocate(64 * 1024);
+	private long appendedSeq;
+	private volatile long durableSeq;
+	private final Object flushLock = new Object();
+	private final Object durableMonitor = new Object();
+	private volatile boolean closed;
+	// the first write or fsync that failed, nothing is written after it
+	private volatile IOException failure;
+
+	// Opens the journal kept in the given directory. Nothing is recorded until it has been replayed and installed
+	public LedgerJournal(Path directory, Durability durability) throws IOException {
+		this.directory = directory;
+		this.durability = durability;
+		Files.createDirectories(directory);
+	}
+
+	// Accessor: Get whether commits flush the journal themselves or wait for flushBatch()
+	Durability getDurability() {
+		return durability;
+	}
+
+	// Writes and fsyncs the records appended since the last flush, run by the bank's scheduler in BATCHED mode
+	void flushBatch() {
+		if (!closed && failure == null) {
+			flush();
+		}
+	}
+
+	// Makes this the journal that changes are recorded in
+	public static void install(LedgerJournal journal) {
+		current = journal;
+	}
+
+	// Accessor: Get the journal changes are recorded in, null before start-up has finished
+	static LedgerJournal getJournal() {
+		return current;
+	}
+
+	/*
+	 * Applies every complete record after the given LSN with the given replayer, cuts off an incomplete record left at
+	 * the end by a crash and opens the last segment for appending. Returns the number of records replayed.
+	 */
+	public long replay(JournalReplayer replayer, long afterLsn) throws IOException {
+		List<Path> segments = segments();
+		long lsn = afterLsn;
+		long records = 0;
+		ByteBuffer frame = ByteBuffer.allocate(FRAME_SIZE);
+		CRC32 crc = new CRC32();
+		for (int i = 0; i < segments.size(); i++) {
+			boolean last = i == segments.size() - 1;
+			// a segment whose records all precede afterLsn is left over from before the last snapshot
+			if (!last && segmentStart(segments.get(i + 1)) <= afterLsn + 1) {
+				continue;
+			}
+			try (FileChannel in = FileChannel.open(segments.get(i), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+				long size = in.size();
+				long segmentLsn = readHeader(in) - 1;
+				long position = HEADER_SIZE;
+				while (position + FRAME_SIZE <= size) {
+					frame.clear();
+					in.read(frame, position);
+					frame.flip();
+					int length = frame.getInt();
+					int checksum = frame.getInt();
+					if (length <= 0 || position + FRAME_SIZE + length > size) {
+						break;
+					}
+					ByteBuffer body = ByteBuffer.allocate(length);
+					in.read(body, position + FRAME_SIZE);
+					body.flip();
+					crc.reset();
+					crc.update(body.duplicate());
+					if ((int) crc.getValue() != checksum) {
+						break;
+					}
+					segmentLsn++;
+					if (segmentLsn > afterLsn) {
+						replayer.apply(segmentLsn, body.get(), body);
+						records++;
+					}
+					position += FRAME_SIZE + length;
+				}
+				if (position < size) {
+					if (!last) {
+						throw new IOException("Journal segment " + segments.get(i) + " is damaged");
+					}
+					System.out.println("Journal: discarding " + (size - position) + " bytes of an incomplete record");
+					in.truncate(position);
+				}
+				lsn = Math.max(lsn, segmentLsn);
+			}
+		}
+
+		appendedSeq = lsn;
+		durableSeq = lsn;
+		if (segments.isEmpty()) {
+			channel = createSegment(lsn + 1);
+		} else {
+			channel = FileChannel.open(segments.get(segments.size() - 1), StandardOpenOption.WRITE);
+			channel.position(channel.size());
+		}
+		return records;
+	}
+
+	// Waits until everything the calling thread has recorded is on disk
+	public static void commit() {
+		LedgerJournal journal = current;
+		if (journal != null) {
+			journal.awaitDurable(lastAppended.get()[0]);
+		}
+	}
+
+	// Waits until the record with the given LSN, e.g. one appended by another thread, is on disk
+	static void commit(long lsn) {
+		LedgerJournal journal = current;
+		if (journal != null && lsn > 0) {
+			journal.awaitDurable(lsn);
+		}
+	}
+
+	/*
+	 * Writes out everything appended so far and starts a new segment. Returns the LSN of the last record in the
+	 * previous segments, every later record is in the new segment.
+	 */
+	long rotate() throws IOException {
+		long lastLsn;
+		synchronized (flushLock) {
+			// most of the buffered records are written before appends are held up below
+			flush();
+			synchronized (this) {
+				try {
+					pending.flip();
+					while (pending.hasRemaining()) {
+						channel.write(pending);
+					}
+					pending.clear();
+					channel.force(false);
+					channel.close();
+				} catch (IOException e) {
+					failed(e);
+					throw e;
+				}
+				lastLsn = appendedSeq;
+				channel = createSegment(lastLsn + 1);
+			}
+			durableSeq = lastLsn;
+		}
+		synchronized (durableMonitor) {
+			durableMonitor.notifyAll();
+		}
+		return lastLsn;
+	}
+
+	// Deletes the segments that only hold records up to the given LSN
+	void deleteSegmentsThrough(long lsn) throws IOException {
+		List<Path> segments = segments();
+		for (int i = 0; i < segments.size() - 1; i++) {
+			if (segmentStart(segments.get(i + 1)) <= lsn + 1) {
+				Files.delete(segments.get(i));
+			}
+		}
+	}
+
+	// Accessor: Get the LSN of the last record on disk, every earlier record is on disk too
+	long getDurableLsn() {
+		return durableSeq;
+	}
+
+	// Waits until a record after the given LSN is on disk, or the timeout has passed
+	void awaitDurableAfter(long lsn, long timeoutMillis) throws InterruptedException {
+		synchronized (durableMonitor) {
+			if (durableSeq <= lsn && !closed) {
+				durableMonitor.wait(timeoutMillis);
+			}
+		}
+	}
+
+	/*
+	 * Reads the records after the given LSN back from the segment files while the journal is being written, e.g. to
+	 * send them to a read replica (see ReplicationServer). Only records already on disk are read. Throws an
+	 * IOException if the segment holding the next record was deleted after a snapshot.
+	 */
+	final class Reader implements Closeable {
+		private long lsn;
+		private FileChannel segment;
+		private long position;
+		private final ByteBuffer frame = ByteBuffer.allocate(FRAME_SIZE);
+		private final CRC32 crc = new CRC32();
+
+		Reader(long afterLsn) throws IOException {
+			lsn = afterLsn;
+			open();
+		}
+
+		// Accessor: Get the LSN of the last record read
+		long getLsn() {
+			return lsn;
+		}
+
+		// Reads the next record on disk, its body starting with the record type, or returns null if there is none yet
+		ByteBuffer next() throws IOException {
+			if (lsn >= durableSeq) {
+				return null;
+			}
+			if (position + FRAME_SIZE > segment.size()) {
+				// the segment was rotated, the next record is the first of the next segment
+				segment.close();
+				open();
+			}
+			frame.clear();
+			segment.read(frame, position);
+			frame.flip();
+			int length = frame.getInt();
+			int checksum = frame.getInt();
+			ByteBuffer body = ByteBuffer.allocate(length);
+			segment.read(body, position + FRAME_SIZE);
+			body.flip();
+			crc.reset();
+			crc.update(body.duplicate());
+			if (length <= 0 || body.remaining() != length || (int) crc.getValue() != checksum) {
+				throw new IOException("Journal record " + (lsn + 1) + " is damaged");
+			}
+			position += FRAME_SIZE + length;
+			lsn++;
+			return body;
+		}
+
+		// Opens the segment holding the record after lsn and skips to that record
+		private void open() throws IOException {
+			Path file = null;
+			for (Path candidate : segments()) {
+				if (segmentStart(candidate) <= lsn + 1) {
+					file = candidate;
+				}
+			}
+			if (file == null) {
+				throw new IOException("The journal no longer holds record " + (lsn + 1));
+			}
+			segment = FileChannel.open(file, StandardOpenOption.READ);
+			position = HEADER_SIZE;
+			for (long skipped = readHeader(segment); skipped <= lsn; skipped++) {
+				frame.clear();
+				segment.read(frame, position);
+				frame.flip();
+				if (frame.remaining() < FRAME_SIZE) {
+					throw new IOException("The journal no longer holds record " + (lsn + 1));
+				}
+				position += FRAME_SIZE + frame.getInt();
+			}
+		}
+
+		public void close() throws IOException {
+			segment.close();
+		}
+	}
+
+	// Writes out everything still buffered and stops recording
+	public void close() throws IOException {
+		closed = true;
+		try {
+			if (failure == null) {
+				flush();
+			}
+		} finally {
+			if (current == this) {
+				current = null;
+			}
+			channel.close();
+		}
+	}
+
+	// Segment files of the journal in LSN order
+	private List<Path> segments() throws IOException {
+		List<Path> segments = new ArrayList<>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+			for (Path file : files) {
+				segments.add(file);
+			}
+		}
+		Collections.sort(segments);
+		return segments;
+	}
+
+	private static long segmentStart(Path segment) {
+		String name = segment.getFileName().toString();
+		return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+	}
+
+	// Creates an empty segment whose first record will have the given LSN
+	private FileChannel createSegment(long firstLsn) throws IOException {
+		Path file = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, firstLsn, SEGMENT_SUFFIX));
+		FileChannel segment = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION).putLong(firstLsn);
+		header.flip();
+		segment.write(header);
+		segment.force(true);
+		return segment;
+	}
+
+	// Checks a segment header and returns the LSN of the segment's first record
+	private static long readHeader(FileChannel segment) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		segment.read(header, 0);
+		header.flip();
+		if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC || header.getInt() != VERSION) {
+			throw new IOException("Not a NewBank journal segment, or written by a different version");
+		}
+		return header.getLong();
+	}
+
+	// Journal records, each does nothing while no journal is installed
+
+	static void customerAdded(Customer customer, String passwordHash) {
+		LedgerJournal journal = current;
+		if (journal == null) {
+			return;
+		}
+		ByteBuffer body = begin(CUSTOMER_ADDED);
+		body = putString(body, customer.getUsername());
+		body = putString(body, passwordHash);
+		for (String info : customer.getCustomerInfo()) {
+			body = putString(body, info);
+		}
+		body.putInt(customer.getSortCode());
+		journal.append(body);
+	}
+
+	static void accountOpened(Account account) {
+		LedgerJournal journal = current;
+		if (journal == null) {
+			return;
+		}
+		ByteBuffer body = begin(ACCOUNT_OPENED);
+		body = putString(body, account.getAccountType());
+		body = putString(body, account.getIBAN());
+		body = putString(body, account.getAccountName());
+		body = putString(body, account.getOwner().getUsername());
+		account.setJournalLsn(journal.append(body));
+	}
+
+	static void accountAdded(Customer customer, Account account) {
+		LedgerJournal journal = current;
+		if (journal == null) {
+			return;
+		}
+		ByteBuffer body = begin(ACCOUNT_ADDED);
+		body = putString(body, customer.getUsername());
+		body = putString(body, account.getIBAN());
+		journal.append(body);
+	}
+
+	static void deposit(Account account, long amount) {
+		balanceChange(DEPOSIT, account, amount);
+	}
+
+	static void withdraw(Account account, long amount) {
+		balanceChange(WITHDRAW, account, amount);
+	}
+
+	private static void balanceChange(byte type, Account account, long amount) {
+		LedgerJournal journal = current;
+		if (journal == null) {
+			return;
+		}
+		ByteBuffer body = begin(type);
+		body = putString(body, account.getIBAN());
+		body.putLong(amount);
+		account.setJournalLsn(journal.append(body));
+	}
+
+	static void transaction(Transaction transaction) {
+		LedgerJournal journal = current;
+		if (journal == null) {
+			return;
+		}
+		ByteBuffer body = begin(TRANSACTION);
+		body = putString(body, transaction.fromAccount.getIBAN());
+		body = putString(body, transaction.toAccount.getIBAN());
+		body.putLong(transaction.transactionAmount);
+		body.putLong(transaction.getDate().toEpochDay());
+		long lsn = journal.append(body);
+		transaction.fromAccount.setJournalLsn(lsn);
+		transaction.toAccount.setJournalLsn(lsn);
+	}
+
+	static void loanOpened(LoanAgreement loan) {
+		LedgerJournal journal = current;
+		if (journal == null) {
+			return;
+		}
+		ByteBuffer body = begin(LOAN_OPENED);
+		body = putString(body, loan.getBorrowerAccount().getIBAN());
+		body = putString(body, loan.getLenderAccount().getIBAN());
+		body = putString(body, loan.getLoanAccount().getIBAN());
+		body.putLong(loan.getLoanAmount());
+		loan.getBorrowerAccount().setJournalLsn(journal.append(body));
+	}
+
+	// Records the interest paid to a savings account for a month, an amount of 0 marks the month as paid without paying
+	static void interest(SavingsAccount account, long period, long amount) {
+		LedgerJournal journal = current;
+		if (journal == null) {
+			return;
+		}
+		ByteBuffer body = begin(INTEREST);
+		body = putString(body, account.getIBAN());
+		body.putLong(period);
+		body.putLong(amount);
+		body.putLong(InterestEngine.today().toEpochDay());
+		account.setJournalLsn(journal.append(body));
+	}
+
+	static void loanRepaid(LoanAgreement loan) {
+		LedgerJournal journal = current;
+		if (journal == null) {
+			return;
+		}
+		ByteBuffer body = begin(LOAN_REPAID);
+		body = putString(body, loan.getBorrowerAccount().getIBAN());
+		loan.getBorrowerAccount().setJournalLsn(journal.append(body));
+	}
+
+	// Records the debit of a payment to another shard, returns its LSN which identifies the transfer
+	static long transferReserved(Transaction transaction) {
+		LedgerJournal journal = current;
+		if (journal == null) {
+			return 0;
+		}
+		ByteBuffer body = begin(TRANSFER_RESERVED);
+		body = putString(body, transaction.fromAccount.getIBAN());
+		body = putString(body, transaction.toAccount.getIBAN());
+		body.putLong(transaction.transactionAmount);
+		body.putLong(transaction.getDate().toEpochDay());
+		long lsn = journal.append(body);
+		transaction.fromAccount.setJournalLsn(lsn);
+		return lsn;
+	}
+
+	// Records the credit that settles the transfer reserved at the given LSN, returns the LSN of the record
+	static long transferSettled(long reservedLsn, Transaction transaction) {
+		LedgerJournal journal = current;
+		if (journal == null) {
+			return 0;
+		}
+		ByteBuffer body = begin(TRANSFER_SETTLED);
+		body.putLong(reservedLsn);
+		body = putString(body, transaction.fromAccount.getIBAN());
+		body = putString(body, transaction.toAccount.getIBAN());
+		body.putLong(transaction.transactionAmount);
+		body.putLong(transaction.getDate().toEpochDay());
+		long lsn = journal.append(body);
+		transaction.toAccount.setJournalLsn(lsn);
+		return lsn;
+	}
+
+	// Records the refund that compensates the transfer reserved at the given LSN
+	static void transferCompensated(long reservedLsn, Account fromAccount, long amount) {
+		LedgerJournal journal = current;
+		if (journal == null) {
+			return;
+		}
+		ByteBuffer body = begin(TRANSFER_COMPENSATED);
+		body.putLong(reservedLsn);
+		body = putString(body, fromAccount.getIBAN());
+		body.putLong(amount);
+		body.putLong(LocalDate.now().toEpochDay());
+		fromAccount.setJournalLsn(journal.append(body));
+	}
+
+	// Encoding helpers
+
+	private static ByteBuffer begin(byte type) {
+		ByteBuffer body = scratch.get();
+		body.clear();
+		body.put(type);
+		return body;
+	}
+
+	// Appends a length-prefixed string, growing the calling thread's scratch buffer if the record does not fit
+	private static ByteBuffer putString(ByteBuffer body, String value) {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		if (bytes.length > 0xFFFF) {
+			throw new IllegalArgumentException("Value too long for the journal");
+		}
+		if (body.remaining() < 2 + bytes.length + 64) {
+			ByteBuffer larger = ByteBuffer.allocate(body.capacity() + 2 + bytes.length + 512);
+			body.flip();
+			larger.put(body);
+			scratch.set(larger);
+			body = larger;
+		}
+		body.putShort((short) bytes.length);
+		body.put(bytes);
+		return body;
+	}
+
+	static String getString(ByteBuffer body) {
+		byte[] bytes = new byte[body.getShort() & 0xFFFF];
+		body.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	static LocalDate getDate(ByteBuffer body) {
+		return LocalDate.ofEpochDay(body.getLong());
+	}
+
+	// Copies an encoded record into the journal buffer, remembers it as the calling thread's last record and returns its LSN
+	private long append(ByteBuffer body) {
+		body.flip();
+		// the body is in the thread's scratch buffer, it is checksummed in place
+		CRC32 crc = recordCrc.get();
+		crc.reset();
+		crc.update(body.array(), body.arrayOffset() + body.position(), body.remaining());
+		int length = body.remaining();
+		long seq;
+		synchronized (this) {
+			// a failed journal writes nothing more, so its records are not kept
+			if (failure == null) {
+				if (pending.remaining() < FRAME_SIZE + length) {
+					ByteBuffer larger = ByteBuffer.allocate(Math.max(pending.capacity() * 2,
+							pending.position() + FRAME_SIZE + length));
+					pending.flip();
+					larger.put(pending);
+					pending = larger;
+				}
+				pending.putInt(length).putInt((int) crc.getValue()).put(body);
+			}
+			seq = ++appendedSeq;
+		}
+		lastAppended.get()[0] = seq;
+		return seq;
+	}
+
+	// Waits until the record is on disk, throws an UncheckedIOException if the journal failed before writing it
+	private void awaitDurable(long seq) {
+		if (durableSeq >= seq) {
+			return;
+		}
+		if (durability == Durability.SYNC) {
+			// whoever gets the flush lock first writes for everyone, threads behind it usually find their records written
+			synchronized (flushLock) {
+				if (durableSeq < seq) {
+					flush();
+				}
+			}
+			return;
+		}
+		// an interrupt does not make the record durable, the wait carries on and the interrupt is kept for the caller
+		boolean interrupted = false;
+		try {
+			synchronized (durableMonitor) {
+				while (durableSeq < seq) {
+					if (failure != null) {
+						throw notWritten();
+					}
+					try {
+						durableMonitor.wait();
+					} catch (InterruptedException e) {
+						interrupted = true;
+					}
+				}
+			}
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	// Writes and fsyncs every record appended so far
+	private void flush() {
+		synchronized (flushLock) {
+			if (failure != null) {
+				throw notWritten();
+			}
+			long upTo;
+			synchronized (this) {
+				if (pending.position() == 0) {
+					return;
+				}
+				ByteBuffer full = pending;
+				pending = writing;
+				writing = full;
+				upTo = appendedSeq;
+			}
+			try {
+				writing.flip();
+				while (writing.hasRemaining()) {
+					channel.write(writing);
+				}
+				writing.clear();
+				channel.force(false);
+			} catch (IOException e) {
+				// part of the buffer may be on disk, it is never written again
+				failed(e);
+				throw notWritten();
+			}
+			durableSeq = upTo;
+		}
+		synchronized (durableMonitor) {
+			durableMonitor.notifyAll();
+		}
+	}
+
+	// Stops the journal after a failed write or fsync and wakes every thread waiting for its records to be written
+	private void failed(IOException e) {
+		if (failure == null) {
+			failure = e;
+		}
+		synchronized (durableMonitor) {
+			durableMonitor.notifyAll();
+		}
+	}
+
+	private UncheckedIOException notWritten() {
+		return new UncheckedIOException("Could not write the journal", failure);
+	}
+}
@@ -2,10 +2,15 @@ package newbank.server;
 
 public class LoanAccount extends Account {
 
-    public LoanAccount(String accountName, double openingBalance, Customer customer) {
+    public LoanAccount(String accountName, long openingBalance, Customer customer) {
         super(accountName, openingBalance, customer);
     }
 
+    // Constructor used when the bank is restored from its journal
+    LoanAccount(String accountIBAN, String accountName, Customer customer) {
+        super(accountIBAN, accountName, customer);
+    }
+
     @Override
     public String getAccountType() {
         String accountType = "LOAN";
@@ -1,17 +1,19 @@
 package newbank.server;
 
+import java.math.RoundingMode;
+
 public class LoanAgreement {
-    private final double loanAmount;
+    private final long loanAmount;	// in pence
     private final Customer borrower;
     private final Customer lender;
     private final Account lenderAccount;
     private final CurrentAccount borrowerAccount;
     private LoanAccount borrowerLoanAccount;
-    private static final double INTEREST_RATE = 0.07;
-    private static final double MAX_LOAN_AMOUNT = 100;
+    private static final long INTEREST_BASIS_POINTS = 700;	// 7%
+    private static final long MAX_LOAN_AMOUNT = 100_00;
 
     // Constructor
-    public LoanAgreement (double amount, Customer borrower, Customer lender, CurrentAccount borrowerAccount,
+    public LoanAgreement (long amount, Customer borrower, Customer lender, CurrentAccount borrowerAccount,
                           Account lenderAccount) {
         this.loanAmount = amount;
         this.borrower = borrower;
@@ -21,7 +23,8 @@ public class LoanAgreement {
         this.borrowerLoanAccount = null;
     }
 
-    // Checks if a loan is valid based on current loan agreement requirements
+    // Checks if a loan is valid based on current loan agreement requirements, the caller holds the lender's and
+    // borrower's account locks
     public boolean isValidLoan() {
         if (borrower.getHasActiveLoan()) {
             System.out.println("Borrower already has an active loan.");
@@ -37,7 +40,7 @@ public class LoanAgreement {
             return false;
         }
 
-        if (!lenderAccount.getOwner().sufficientFunds(loanAmount)) {
+        if (!lenderAccount.sufficientFunds(loanAmount)) {
             System.out.println("Insufficient balance in lender's account.");
             return false;
         }
@@ -56,8 +59,9 @@ public class LoanAgreement {
         borrowerLoanAccount.withdraw(loanAmount);
         borrowerAccount.deposit(loanAmount);
         borrower.setHasActiveLoan(true);
+        LedgerJournal.loanOpened(this);
 
-        System.out.println("Loan of " + loanAmount + " lent to " + borrower.getUsername() + ".");
+        System.out.println("Loan of " + Money.format(loanAmount) + " lent to " + borrower.getUsername() + ".");
     }
 
     // Checks that loan account is active and that borrower has the necessary balance to repay loan
@@ -75,20 +79,47 @@ public class LoanAgreement {
     plus interest into the lender's current account.
      */
     public void performRepaymentProcess() {
-        double repaymentAmount = repaymentAmount();
+        long repaymentAmount = repaymentAmount();
 
         // withdraws loan amount plus interest from borrower's account
         borrowerAccount.withdraw(repaymentAmount);
         // deposits loan amount plus interest into lender's account
         lenderAccount.deposit(repaymentAmount);
         borrower.setHasActiveLoan(false);
+        LedgerJournal.loanRepaid(this);
+
+        System.out.println("Loan of " + Money.format(loanAmount) + " paid to " + lender.getUsername()
+                + " with " + INTEREST_BASIS_POINTS / 100 + "% interest.");
+    }
+
+    // Accessor: Get the amount lent
+    public long getLoanAmount() {
+        return loanAmount;
+    }
+
+    // Accessor: Get the loan account opened for the borrower when the loan was paid out
+    public LoanAccount getLoanAccount() {
+        return borrowerLoanAccount;
+    }
+
+    // Mutator: Re-link the loan account when the loan is restored from the journal
+    void restoreLoanAccount(LoanAccount loanAccount) {
+        this.borrowerLoanAccount = loanAccount;
+    }
+
+    // Accessor: Get the current account the loan was paid into and is repaid from
+    public CurrentAccount getBorrowerAccount() {
+        return borrowerAccount;
+    }
 
-        System.out.println("Loan of " + loanAmount + " paid to " + lender.getUsername()
-                + " with " + INTEREST_RATE + " interest.");
+    // Accessor: Get the account the loan was lent from and is repaid to
+    public Account getLenderAccount() {
+        return lenderAccount;
     }
 
-    // Calculates loan amount plus interest to be repaid by the borrower to the lender
-    private double repaymentAmount() {
-        return loanAmount * (1 + INTEREST_RATE);
+    // Calculates loan amount plus interest to be repaid by the borrower to the lender, the interest is rounded to the
+    // nearest penny with ties rounded up
+    private long repaymentAmount() {
+        return loanAmount + Money.percentOf(loanAmount, INTEREST_BASIS_POINTS, RoundingMode.HALF_UP);
     }
 }
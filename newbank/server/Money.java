@@ -0,0 +1,108 @@
+package newbank.server;
+
+import java.math.RoundingMode;
+
+/*
+ * Amounts of money are held as a long number of pence (minor units) everywhere in the bank. This class converts
+ * between pence and the pounds-and-pence text customers type and see, and does percentage calculations with an
+ * explicit rounding rule so that no amount is ever held in floating point.
+ */
+public final class Money {
+
+	// Largest amount accepted from a customer, well below the point where sums of amounts could overflow a long
+	public static final long MAX_AMOUNT = 1_000_000_000_000L;
+
+	private Money() {
+	}
+
+	/*
+	 * Parses an amount typed by a customer, e.g. "100", "100.5" or "100.50", straight into pence without creating
+	 * intermediate objects. Negative amounts, more than two decimal places and amounts above MAX_AMOUNT are rejected.
+	 */
+	public static long parse(CharSequence text) {
+		return parse(text, 0, text.length());
+	}
+
+	// Parses the amount between start (inclusive) and end (exclusive) of a longer text, e.g. one word of a request
+	public static long parse(CharSequence text, int start, int end) {
+		if (start == end) {
+			throw new NumberFormatException("Empty amount");
+		}
+		long pounds = 0;
+		int i = start;
+		for (; i < end && text.charAt(i) != '.'; i++) {
+			pounds = pounds * 10 + digit(text, i, start, end);
+			if (pounds > MAX_AMOUNT / 100) {
+				throw new NumberFormatException("Amount too large: " + text.subSequence(start, end));
+			}
+		}
+		long pence = 0;
+		if (i < end) {
+			int decimals = end - i - 1;
+			if (decimals == 0 && i == start || decimals > 2) {
+				throw new NumberFormatException("Invalid amount: " + text.subSequence(start, end));
+			}
+			for (int d = 1; d <= 2; d++) {
+				pence = pence * 10 + (d <= decimals ? digit(text, i + d, start, end) : 0);
+			}
+		} else if (i == start) {
+			throw new NumberFormatException("Invalid amount: " + text.subSequence(start, end));
+		}
+		long amount = pounds * 100 + pence;
+		if (amount > MAX_AMOUNT) {
+			throw new NumberFormatException("Amount too large: " + text.subSequence(start, end));
+		}
+		return amount;
+	}
+
+	private static int digit(CharSequence text, int index, int start, int end) {
+		char c = text.charAt(index);
+		if (c < '0' || c > '9') {
+			throw new NumberFormatException("Invalid amount: " + text.subSequence(start, end));
+		}
+		return c - '0';
+	}
+
+	// Formats pence as pounds with two decimal places, e.g. 100050 as "1000.50"
+	public static String format(long pence) {
+		return appendTo(new StringBuilder(16), pence).toString();
+	}
+
+	// Appends pence formatted as pounds with two decimal places
+	public static StringBuilder appendTo(StringBuilder out, long pence) {
+		if (pence < 0) {
+			out.append('-');
+			pence = -pence;
+		}
+		long remainder = pence % 100;
+		out.append(pence / 100).append('.');
+		if (remainder < 10) {
+			out.append('0');
+		}
+		return out.append(remainder);
+	}
+
+	/*
+	 * Calculates a percentage of an amount, given in basis points (1/100 of a percent, so 2% is 200), rounded to a
+	 * whole penny with the given rounding rule. Only HALF_UP, HALF_EVEN and DOWN are supported.
+	 */
+	public static long percentOf(long pence, long basisPoints, RoundingMode rounding) {
+		long product = Math.multiplyExact(pence, basisPoints);
+		long quotient = product / 10_000;
+		long remainder = Math.abs(product % 10_000);
+		int direction = product < 0 ? -1 : 1;
+		switch (rounding) {
+			case DOWN:
+				return quotient;
+			case HALF_UP:
+				return remainder >= 5_000 ? quotient + direction : quotient;
+			case HALF_EVEN:
+				if (remainder > 5_000 || remainder == 5_000 && quotient % 2 != 0) {
+					return quotient + direction;
+				}
+				return quotient;
+			default:
+				throw new IllegalArgumentException("Unsupported rounding " + rounding);
+		}
+	}
+}
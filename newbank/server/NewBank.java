@@ -1,25 +1,168 @@
 package newbank.server;
 
-import java.util.Arrays;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.time.LocalDate;
-import java.util.ArrayList;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
-import java.time.Duration;
-import java.time.LocalTime;
-import java.time.ZoneId;
-import java.time.ZonedDateTime;
+import java.util.function.Supplier;
 
 public class NewBank {
 	private static final NewBank bank = new NewBank();
-	Transaction transaction;
-	LoanAgreement loanAgreement;
-
-	// creates one instance of NewBank and initialises test data
+	private long startupMillis;
+	// runs the bank's periodic jobs, see BankScheduler
+	private final BankScheduler scheduler = new BankScheduler(BankConfig.schedulerThreads());
+	// pays savings interest, run by the scheduler
+	private final InterestEngine interestEngine = new InterestEngine(BankConfig.interestSchedule(),
+			Runtime.getRuntime().availableProcessors());
+	// customers allowed to read the server's metrics with STATS
+	private final Set<String> admins = BankConfig.adminUsers();
+	// follows the primary's journal when this bank is a read replica, null when it is the primary
+	private final ReadReplica replica = BankConfig.replicaOf() != null
+			? new ReadReplica(BankConfig.replicaOf(), BankConfig.replicaMaxStalenessMillis()) : null;
+	// runs requests on one writer thread per shard of customers, null when they run on the sessions' threads
+	private final ShardEngine shards = BankConfig.shards() > 0 && replica == null
+			? new ShardEngine(BankConfig.shards(), BankConfig.shardRingSize()) : null;
+	// Number of PAYBATCH payments whose accounts are locked together
+	private static final int PAY_BATCH_GROUP = 256;
+	// Result line of a PAYBATCH payment that was made
+	private static final String BATCH_PAID = "SUCCESS";
+
+	// Outcome of a payment to another customer
+	enum PaymentResult { PAID, INSUFFICIENT_FUNDS, OVER_LIMIT, INVALID_IBAN, NOT_OWNER, SAME_CUSTOMER, TIMED_OUT }
+
+	// creates one instance of NewBank, restored from disk or initialised with test data on the first start
 	private NewBank() {
-		addTestData();
-		runInterestThread();
+		if (replica != null) {
+			followPrimary();
+			return;
+		}
+		restore();
+		scheduleInterest();
+		scheduleSnapshots();
+	}
+
+	// Loads a read replica from its primary and waits until it has caught up, see ReadReplica
+	private void followPrimary() {
+		long started = System.nanoTime();
+		System.out.println("Following the primary at " + replica.getPrimary());
+		replica.start();
+		try {
+			replica.awaitCurrent();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		startupMillis = (System.nanoTime() - started) / 1000000;
+		System.out.println("NewBank read replica ready in " + startupMillis + " ms at LSN " + replica.getAppliedLsn()
+				+ ", " + Account.getAllAccounts().size() + " accounts");
+	}
+
+	/* Loads the newest snapshot and replays the journal written after it. A bank with neither is started with the
+	 * test data. The time this takes is reported as the bank's time to ready.
+	 */
+	private void restore() {
+		Path directory = BankConfig.dataDirectory();
+		try {
+			long started = System.nanoTime();
+			long snapshotLsn = BankSnapshot.loadLatest(directory);
+			long snapshotLoaded = System.nanoTime();
+
+			LedgerJournal journal = new LedgerJournal(directory, BankConfig.journalDurability());
+			long records = journal.replay(new JournalReplayer(), snapshotLsn);
+			LedgerJournal.install(journal);
+			if (journal.getDurability() == LedgerJournal.Durability.BATCHED) {
+				long batchMillis = BankConfig.journalBatchMillis();
+				scheduler.scheduleWithFixedDelay("journal-flush", journal::flushBatch, batchMillis, batchMillis,
+						TimeUnit.MILLISECONDS);
+			}
+			if (snapshotLsn == 0 && records == 0) {
+				addTestData();
+			}
+			// payments to another shard whose debit was on disk had been accepted, they are completed
+			for (CrossShardTransfer transfer : CrossShardTransfer.getPending()) {
+				transfer.settle();
+			}
+			LedgerJournal.commit();
+			restoreDailyLimits();
+			long ready = System.nanoTime();
+
+			startupMillis = (ready - started) / 1000000;
+			System.out.println("NewBank ready in " + startupMillis + " ms: snapshot at LSN " + snapshotLsn
+					+ " loaded in " + (snapshotLoaded - started) / 1000000 + " ms, " + records
+					+ " journal records replayed in " + (ready - snapshotLoaded) / 1000000 + " ms, "
+					+ Account.getAllAccounts().size() + " accounts");
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not restore the bank from " + directory, e);
+		}
+	}
+
+	// Counts today's payments to other customers towards their senders' daily limits, the limits are not journaled
+	private void restoreDailyLimits() {
+		LocalDate today = DailyLimit.today();
+		for (Account account : Account.getAllAccounts()) {
+			for (Transaction transaction : account.copyTransactionsSince(today)) {
+				if (transaction.fromAccount == account && transaction.toCustomer != transaction.fromCustomer) {
+					account.getOwner().getDailyLimit().restore(transaction.transactionAmount);
+				}
+			}
+		}
+	}
+
+	// Takes a snapshot of the bank in the background every configured interval
+	private void scheduleSnapshots() {
+		long interval = BankConfig.snapshotIntervalMinutes();
+		if (interval <= 0) {
+			return;
+		}
+		scheduler.scheduleWithFixedDelay("snapshot", () -> {
+			try {
+				BankSnapshot.take(LedgerJournal.getJournal(), BankConfig.dataDirectory());
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}, interval, interval, TimeUnit.MINUTES);
+	}
+
+	/*
+	 * Stops the periodic jobs, waiting for a snapshot or interest run in progress to finish, then writes out and
+	 * closes the journal. Called when the server shuts down.
+	 */
+	public void shutdown() {
+		if (shards != null) {
+			shards.shutdown();
+		}
+		if (!scheduler.shutdown(30, TimeUnit.SECONDS)) {
+			System.out.println("Scheduled jobs still running were interrupted");
+		}
+		interestEngine.shutdown();
+		for (BankScheduler.Job job : scheduler.getJobs()) {
+			System.out.println(job);
+		}
+		LedgerJournal journal = LedgerJournal.getJournal();
+		if (journal != null) {
+			try {
+				journal.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	// Accessor: Get the primary's journal follower if this bank is a read replica, null if it is the primary
+	ReadReplica getReplica() {
+		return replica;
+	}
+
+	// Accessor: Get the scheduler running the bank's periodic jobs, e.g. to read their timing metrics
+	BankScheduler getScheduler() {
+		return scheduler;
+	}
+
+	// Accessor: Get the time in milliseconds it took to restore the bank and become ready for requests
+	public long getStartupMillis() {
+		return startupMillis;
 	}
 
 	// adds test data for program demonstration
@@ -29,196 +172,130 @@ public class NewBank {
 		SecureDataStore.addNewCustomer("Bhagy", defaultPassword, "123 Road A10 B11", 
 		"07777777771", "bhagy@test.com");
 		Customer bhagy = SecureDataStore.getCustomer("Bhagy");
-		bhagy.addAccount(new CurrentAccount("Main", 1000.0, bhagy));
+		bhagy.addAccount(new CurrentAccount("Main", 1000_00, bhagy));
 
 		SecureDataStore.addNewCustomer("Christina", defaultPassword, "123 Road A10 B11", 
 		"07777777772", "christina@test.com");
 		Customer christina = SecureDataStore.getCustomer("Christina");
-		christina.addAccount(new SavingsAccount("Savings", 1500.0, christina));
+		christina.addAccount(new SavingsAccount("Savings", 1500_00, christina));
 
 		SecureDataStore.addNewCustomer("John", defaultPassword, "123 Road A10 B11", 
 		"07777777773", "john@test.com");
 		Customer john = SecureDataStore.getCustomer("John");
 
-		Account johnChecking = new CurrentAccount("Checking", 250.0, john);
-		Account johnSavings = new SavingsAccount("Savings", 100.0, john);
+		Account johnChecking = new CurrentAccount("Checking", 250_00, john);
+		Account johnSavings = new SavingsAccount("Savings", 100_00, john);
 		john.addAccount(johnChecking);
 		john.addAccount(johnSavings);
 
 		// Example transactions for John (to demonstrate 12 month statement)
-		this.transaction = new Transaction(johnChecking, johnSavings, 30);
-		this.transaction.overrideDate(LocalDate.now().minusMonths(13));
-		johnChecking.addTransaction(this.transaction);
-		johnSavings.addTransaction(this.transaction);
-		this.transaction = new Transaction(johnSavings, johnChecking, 20);
-		this.transaction.overrideDate(LocalDate.now().minusMonths(10));
-		johnSavings.addTransaction(this.transaction);
-		johnChecking.addTransaction(this.transaction);
-		moveMoney(10, johnChecking.getIBAN(), johnSavings.getIBAN());
+		Transaction transaction = new Transaction(johnChecking, johnSavings, 30_00);
+		transaction.overrideDate(LocalDate.now().minusMonths(13));
+		transaction.post();
+		transaction = new Transaction(johnSavings, johnChecking, 20_00);
+		transaction.overrideDate(LocalDate.now().minusMonths(10));
+		transaction.post();
+		moveMoney(10_00, johnChecking.getIBAN(), johnSavings.getIBAN());
 	}
 
 	// returns single instance of NewBank
 	public static NewBank getBank() {
-
-		// Schedule a task to reset daily transaction limit at midnight
-		ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
-
-		// Use UK time zone to determine next midnight
-		ZoneId ukTime = ZoneId.of("Europe/London");
-		LocalTime midnight = LocalTime.MIDNIGHT;
-		ZonedDateTime now = ZonedDateTime.now(ukTime);
-		ZonedDateTime nextMidnight = now.toLocalDate().atTime(midnight).atZone(ukTime);
-
-		// If nextMidnight is in the past compared to the current time, adjust nextMidnight to the upcoming midnight
-		if (now.compareTo(nextMidnight) > 0) {
-			nextMidnight = nextMidnight.plusDays(1);
-		}
-
-		// Calculate the delay in time before next daily transaction limit reset
-		Duration initialDelayDuration = Duration.between(now, nextMidnight);
-		long initialDelay = initialDelayDuration.getSeconds();
-		long period = Duration.ofDays(1).getSeconds(); // 24 hours in seconds
-
-		// Schedule the task
-		scheduler.scheduleAtFixedRate(
-				Transaction::resetDailyTransactionLimit,
-				initialDelay,
-				period,
-				TimeUnit.SECONDS
-		);
 		return bank;
-
 	}
 
 	// commands from the NewBank customer are processed in this method
 	/**
+	 * Requests from different sessions run concurrently. Commands that move money lock only the accounts they touch
+	 * (see AccountLocks), read-only commands take no locks and see each customer's accounts between two changes (see
+	 * Customer.readAccounts). The response is returned once the changes the request made are on disk.
+	 *
 	 * @param customer The CustomerID of the customer making the request
 	 * @param request The request string received from the customer
 	 * @return The response string based on the processed request
 	 */
-	public synchronized String processRequest(CustomerID customer, String request) {
-		/* Splits a multi-word customer request/command to separate a command from its parameters
-		  for effective processing */
-
-		String command = getCommand(request);
-
-		ArrayList<String> otherParams = getOtherParams(request);
-
-		// Check if the customer is in the bank's database, if so retrieve the customer's information i.e. acct details.
-		if(SecureDataStore.getCustomer(customer) != null) {
-			switch(command) {
-
-				// display info about the application/commands
-				case "INFO":
-					return infoCommand();
-
-				// move money between a customer's accounts
-				case "MOVE":
-					return moveCommand(customer, otherParams);
-
-				// displays all the account of a specified customer
-				case "SHOWMYACCOUNTS" :
-					return showMyAccounts(customer);
-
-				// opens a new account of type/name acctType
-				case "NEWACCOUNT":					
-			    if(otherParams.size() == 2) {
-					String accountType = otherParams.get(0);	// get account type which is the 2nd parameter
-					String accountName = otherParams.get(1);	// get account name which is the 3rd parameter
-				        return newAccount(customer, accountName, accountType);
-				    } else {
-					return "The number of specified parameters in the command is incorrect.\n" +
-					"Type INFO to see a list of all commands with their corresponding parameters including short descriptions.\n" +
-					"FAIL\n";
-					 // the call to open a new account fails if the account type is not specified
-				    }
-
-				// move money from one customer's account to another customer's account
-				case "PAY":
-					if (otherParams.size() == 3) { // checks that there are 2 remaining parameters
-						return pay(customer, otherParams.get(0), otherParams.get(1), otherParams.get(2));
-					// from account is 2nd parameter, recipient is 3rd parameter and amount is 4th parameter
-					} else {
-
-					return "The number of specified parameters in the command is incorrect.\n" +
-					"Type INFO to see a list of all commands with their corresponding parameters including short descriptions.\n"+
-					"FAIL\n"; 
-					}					
-				//
-
-				case "PRINTSTATEMENT":
-					if (otherParams.size() == 1) { // checks that there is 1 parameter
-						return printStatement(customer, otherParams.get(0));
-					} else {
-					return "The number of specified parameters in the command is incorrect.\n" +
-					"Type INFO to see a list of all commands with their corresponding parameters including short descriptions.\n"+
-					"FAIL\n";
-					}
-
-				// complete loan as a lender to another NewBank customer
-				case "LOAN":
-					if (otherParams.size() == 3) {
-						return processLoanCommand(customer, otherParams.get(0), otherParams.get(1), otherParams.get(2));
-					} else {
-						return "FAIL";
-					}
-
-				// complete repayment to lender
-				case "REPAY":
-					return repayLoanCommand();
+	public String processRequest(CustomerID customer, String request) {
+		return processRequest(customer, Command.parse(request));
+	}
 
-				// fail if no case is recognised
-				default : 
-					return "Your command " + command + " is invalid. \n" +
-					"Type INFO to see a list of all commands with their corresponding parameters including short descriptions.\n"+
-					"FAIL\n";
+	// Runs a request that has already been parsed, e.g. after the customer confirmed it
+	public String processRequest(CustomerID customer, Command command) {
+		long started = System.nanoTime();
+		String response;
+		try {
+			if (replica != null) {
+				response = replica.serve(command, () -> executeRequest(customer, command));
+			} else if (command.isReadOnly()) {
+				// reads take no locks and change nothing, so they are run on this thread even when the bank is sharded
+				response = executeRequest(customer, command);
+			} else if (shards != null && (command instanceof Command.Pay || command instanceof Command.PayBatch)) {
+				// a PAY is run on this thread and sends each leg to the shard that owns its account, see pay and payBatch
+				response = executeRequest(customer, command);
+			} else {
+				response = onShard(customer, () -> executeRequest(customer, command));
 			}
+		} catch (UncheckedIOException e) {
+			// the journal failed (see LedgerJournal), the change is lost when the bank restarts
+			response = "The bank could not record the request, it has not been completed.\nFAIL\n";
 		}
-		return "There is no information about this customer in the bank's database.\n"+
-		"FAIL\n";
-		
+		ServerMetrics.commandRun(command, System.nanoTime() - started, response);
+		return response;
 	}
 
-	// Fetch additional parameters entered in command line
-	private ArrayList<String> getOtherParams(String request) {
-		// initialize an array for the remaining parameters
-		String[] params = request.split(" ");
-		int paramsLength = params.length;
-		ArrayList<String> otherParams = new ArrayList<>();
-		if(paramsLength > 1) {
-		    for(String param : (Arrays.copyOfRange(params, 1, paramsLength))) {
-                        otherParams.add(param);		// store other parameters in the initialised ArrayList
-		   }
+	/*
+	 * Runs a task for the customer and returns its result once the changes it made are on disk. When the bank is
+	 * sharded the task is run by the writer of the customer's shard (see ShardEngine), otherwise by the calling thread.
+	 */
+	<T> T onShard(CustomerID customer, Supplier<T> task) {
+		Customer owner = shards == null ? null : SecureDataStore.getCustomer(customer);
+		if (owner != null) {
+			// the writer commits the journal before it replies
+			return shards.execute(owner.getSortCode(), task);
 		}
-		return otherParams;
+		T result = task.get();
+		LedgerJournal.commit();
+		return result;
 	}
 
-	// Fetch commands when entered in command line
-	private String getCommand(String request) {
-		String[] params = request.split(" ");
-		String command = params[0];
-		return command; 		// extract the command/request which is the first parameter
+	/*
+	 * Runs a task that only reads the bank on the calling thread, it reads accounts through Customer.readAccounts and
+	 * takes no locks. On a read replica it is run while no journal record is being applied.
+	 */
+	<T> T read(Supplier<T> task) {
+		return replica != null ? replica.read(task) : task.get();
+	}
+
+	// Runs the command of a request and returns the response
+	private String executeRequest(CustomerID customer, Command command) {
+		// Check if the customer is in the bank's database, if so run the command on the customer's behalf
+		if(SecureDataStore.getCustomer(customer) != null) {
+			return command.execute(this, customer);
+		}
+		return "There is no information about this customer in the bank's database.\n"+
+		"FAIL\n";
 	}
 
 	// Returns a string representation of the accounts associated with the customer
-	private String showMyAccounts(CustomerID customer) {
+	String showMyAccounts(CustomerID customer) {
 		return (SecureDataStore.getCustomer(customer).accountsToString());
 	}
 
 	// Create a new customer account
-	private String newAccount(CustomerID customer, String name, String accountType) {
+	String newAccount(CustomerID customer, String name, String accountType) {
 		// create new current or savings account
 		Customer owner = SecureDataStore.getCustomer(customer);
+		if (!Account.canOpenAccount()) {
+			return "The bank cannot open any more accounts.\nFAIL\n";
+		}
 		if(accountType.equals("CURRENT")){
 			// create a new account object starting with a zero balance
-			Account nAcct = new CurrentAccount(name, 0.0, owner);
+			Account nAcct = new CurrentAccount(name, 0, owner);
 
 			// add the new account to the list of the specified customer's accounts
 			SecureDataStore.getCustomer(customer).addAccount(nAcct);
 
 		} else if(accountType.equals("SAVINGS")){
 			// create a new account object starting with a zero balance
-			Account nAcct = new SavingsAccount(name, 0.0, owner);
+			Account nAcct = new SavingsAccount(name, 0, owner);
 
 			// add the new account to the list of the specified customer's accounts
 			owner.addAccount(nAcct);
@@ -231,120 +308,306 @@ public class NewBank {
 		"SUCCESS\n";
 	}
 
-	// Checks which accounts in the data store are savings accounts and adds interest to them
-	private void addInterestToSavingsAccounts() {
-		for (Customer customer : SecureDataStore.getAllCustomers()) {
-				for (Account a : customer.getAccounts()) {
-				  if (a instanceof SavingsAccount) {
-					  SavingsAccount savingsAccount = (SavingsAccount) a;
-					  savingsAccount.addInterest();
-				}
-			}
-		}
-	}
-
-	// Runs a background thread to automatically deposit interest into savings accounts every 30 days
-	private void runInterestThread() {
-		Thread interestThread = new Thread(() -> {
-			while (true) {
-				try {
-					Thread.sleep(30 * 24 * 60 * 60 * 1000); // Sleep for 30 days
-					addInterestToSavingsAccounts();
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				}
-			}
-		});
-		interestThread.start();
+	/*
+	 * Checks for savings interest that is due, straight away to finish a run cut short by a restart and then every
+	 * configured number of hours, see InterestEngine
+	 */
+	private void scheduleInterest() {
+		long hours = BankConfig.interestCheckHours();
+		scheduler.scheduleWithFixedDelay("interest", interestEngine::runDue, 0, hours, TimeUnit.HOURS);
 	}
 
 	// Method to handle payments to a person or company in NewBank
-	private String pay(CustomerID fromCustomer, String amount, String fromIBAN, String toIBAN) {
+	String pay(CustomerID fromCustomer, long numAmount, String fromIBAN, String toIBAN) {
 		/**
 		 * @param fromCustomer, customer initiating payment
-		 * @param to, customer that will receive payment
-		 * @param amount, amount of money to be paid
+		 * @param numAmount, amount of money to be paid in pence
+		 * @param fromIBAN, account the payment is made from
+		 * @param toIBAN, account that will receive payment
 		 * */
-		double numAmount;
-		Customer recipient = Account.getAccountFromIBAN(toIBAN).getOwner();
-		Customer sender = Account.getAccountFromIBAN(fromIBAN).getOwner();
-
-		// Convert amount from String to double
-		try {
-			numAmount = Double.parseDouble(amount);
-		} catch(NumberFormatException e) {
-			return "Invalid amount input\n"+
-			"FAIL\n";
+		Account fromAcct = Account.getAccountFromIBAN(fromIBAN);
+		Account toAcct = Account.getAccountFromIBAN(toIBAN);
+		switch (pay(fromCustomer, numAmount, fromAcct, toAcct)) {
+			case PAID:
+				return "The payment was successful!\n"+
+				"SUCCESS\n";
+			case INVALID_IBAN:
+				return "Invalid IBAN.\n"+
+				"FAIL\n";
+			case NOT_OWNER:
+				return "Payment not initiated by account owner ("
+				+ fromAcct.getOwner().getUsername() + ", "
+				+ SecureDataStore.getCustomer(fromCustomer).getUsername() + ")\n"+
+				"FAIL\n";
+			case SAME_CUSTOMER:
+				return "Sender is recipient\n!"+
+				"FAIL\n";
+			case OVER_LIMIT:
+				return "Transaction amount exceeds daily limit.\n"+
+				"FAIL\n";
+			case TIMED_OUT:
+				return "The payment could not be completed in time and was cancelled, your account has not been charged.\n"+
+				"FAIL\n";
+			default:
+				return "Insufficient funds in this account to send " + Money.format(numAmount) + " to \n" + toAcct.getOwner().getUsername() + ": " + toIBAN + "\n"+
+				"Your account's funds in the account " + fromAcct.getAccountName() + "(" + fromIBAN + ") are " + Money.format(fromAcct.getBalance()) + ".\n" +
+				"FAIL\n";
 		}
+	}
 
+	// Pays another customer after checking the accounts, used by the text and the binary protocol
+	PaymentResult pay(CustomerID fromCustomer, long amount, Account fromAcct, Account toAcct) {
+		if (fromAcct == null || toAcct == null) {
+			return PaymentResult.INVALID_IBAN;
+		}
+		Customer sender = fromAcct.getOwner();
 		// check that customer initiating payment is the fromAccount owner
-		if(!sender.equals(SecureDataStore.getCustomer(fromCustomer))){
-			return "Payment not initiated by account owner ("
-			+ sender.getUsername() + ", "
-			+ SecureDataStore.getCustomer(fromCustomer).getUsername() + ")\n"+
-			"FAIL\n";
+		if (!sender.equals(SecureDataStore.getCustomer(fromCustomer))) {
+			return PaymentResult.NOT_OWNER;
 		}
-
 		// check that sender is not the recipient
-		if(sender.equals(recipient)){
-			return "Sender is recipient\n!"+
-			"FAIL\n";
+		if (sender.equals(toAcct.getOwner())) {
+			return PaymentResult.SAME_CUSTOMER;
 		}
+		if (shards == null || ShardEngine.onWriterThread()) {
+			return payBetween(amount, fromAcct, toAcct);
+		}
+		int fromSortCode = sender.getSortCode();
+		int toSortCode = toAcct.getOwner().getSortCode();
+		if (shards.shardOf(fromSortCode) == shards.shardOf(toSortCode)) {
+			return shards.execute(fromSortCode, () -> payBetween(amount, fromAcct, toAcct));
+		}
+		return payAcrossShards(amount, fromAcct, toAcct, fromSortCode, toSortCode);
+	}
 
-		// check that there are sufficient funds in customer's account to send payment, then complete payment
-		Account fromAcct = Account.getAccountFromIBAN(fromIBAN);
-		if (fromAcct.sufficientFunds(numAmount)) {
-			LocalDate today = LocalDate.now();
-			double currentSum = Transaction.getDailyTransactions().getOrDefault(today, 0.0);
-			// check that the transaction amount does not exceed the daily transaction limit
-			if (currentSum + numAmount > Transaction.getDailyLimit()) {
-				return "Transaction amount exceeds daily limit.\n"+
-				"FAIL\n";
+	// Pays from one account to the other on the calling thread
+	private PaymentResult payBetween(long amount, Account fromAcct, Account toAcct) {
+		// funds and the daily limit are checked under the account locks, another session may spend them at the same time
+		Account[] locked = AccountLocks.lockAll(fromAcct, toAcct);
+		try {
+			return payLocked(amount, fromAcct, toAcct);
+		} finally {
+			AccountLocks.unlockAll(locked);
+		}
+	}
+
+	/*
+	 * Pays a customer on another shard: the payer's shard reserves the payment, then the payee's shard settles it. If
+	 * the payee's shard does not settle it in time the payer's shard compensates it, unless it was settled meanwhile,
+	 * in which case the payer waits for the settlement to be on disk. Each leg is on disk before the customer is told
+	 * the result, see CrossShardTransfer.
+	 */
+	private PaymentResult payAcrossShards(long amount, Account fromAcct, Account toAcct, int fromSortCode,
+			int toSortCode) {
+		CrossShardTransfer transfer = new CrossShardTransfer(fromAcct, toAcct, amount);
+		PaymentResult reserved = shards.execute(fromSortCode, transfer::reserve);
+		if (reserved != PaymentResult.PAID) {
+			return reserved;
+		}
+		ServerMetrics.transferReserved();
+		Boolean settled = shards.execute(toSortCode, transfer::settle,
+				TimeUnit.MILLISECONDS.toNanos(BankConfig.transferTimeoutMillis()));
+		if (settled == null) {
+			if (shards.execute(fromSortCode, transfer::compensate)) {
+				ServerMetrics.transferCompensated();
+				return PaymentResult.TIMED_OUT;
 			}
-			this.moveMoney(numAmount, fromIBAN, toIBAN);
-			return "The payment was successful!\n"+
-			"SUCCESS\n";
-			
-		}
-		else {
-			return "Insufficient funds in this account to send" + amount + "to \n" + recipient.getUsername() + ": " + toIBAN + "\n"+
-			"Your account's funds in the account " + Account.getAccountFromIBAN(fromIBAN).getAccountName() + "(" + fromIBAN + ") are " + Account.getAccountFromIBAN(fromIBAN).getBalance() + ".\n" +
-			"FAIL\n";
+			// settled after the timeout, by the payee's writer, which may not have committed it yet
+			transfer.awaitSettled();
 		}
+		return PaymentResult.PAID;
 	}
 
 	// Tries to transfer money from one account to another, returns true if successful
-	private boolean moveMoney(double amount, String fromIBAN, String toIBAN) {
+	boolean moveMoney(long amount, String fromIBAN, String toIBAN) {
+		return moveMoney(amount, Account.getAccountFromIBAN(fromIBAN), Account.getAccountFromIBAN(toIBAN));
+	}
+
+	// Tries to transfer money between accounts already looked up, returns true if successful
+	boolean moveMoney(long amount, Account fromAccount, Account toAccount) {
 		try{
-			Account fromAccount = Account.getAccountFromIBAN(fromIBAN);
-			Account toAccount = Account.getAccountFromIBAN(toIBAN);
-			if(fromAccount.sufficientFunds(amount)){
-			    fromAccount.withdraw(amount);
-			    toAccount.deposit(amount);
-			    this.recordTransaction(fromAccount, toAccount, amount);
-			} else {
-				return false;
+			// only the two accounts involved are locked, the funds check and both balance updates happen under the locks
+			Account[] locked = AccountLocks.lockAll(fromAccount, toAccount);
+			try {
+				return transfer(amount, fromAccount, toAccount);
+			} finally {
+				AccountLocks.unlockAll(locked);
 			}
 		}
 		catch(Exception e){
 			return false;
 		}
-		return true;
 	}
 
-	// Record the transaction in the statements of all involved accounts
-	private void recordTransaction(Account fromAccount, Account toAccount, double amount){
-		this.transaction = new Transaction(fromAccount, toAccount, amount);
-		System.out.println("Owner: " + fromAccount.getOwner().getUsername());
-		fromAccount.addTransaction(this.transaction);
-		toAccount.addTransaction(this.transaction);
+	// Transfers money if the from account has the funds, returns true if successful. The caller holds both account locks
+	private boolean transfer(long amount, Account fromAccount, Account toAccount) {
+		if(fromAccount.sufficientFunds(amount)){
+		    fromAccount.withdraw(amount);
+		    toAccount.deposit(amount);
+		    this.recordTransaction(fromAccount, toAccount, amount);
+		    return true;
+		}
+		return false;
+	}
+
+	/*
+	 * Pays another customer if the from account has the funds and the payment fits under the sender's daily limit.
+	 * The limit is reserved only once the funds are checked, so a payment that fails never counts towards it. The
+	 * caller holds both account locks.
+	 */
+	private PaymentResult payLocked(long amount, Account fromAccount, Account toAccount) {
+		if (!fromAccount.sufficientFunds(amount)) {
+			return PaymentResult.INSUFFICIENT_FUNDS;
+		}
+		if (!fromAccount.getOwner().getDailyLimit().tryReserve(amount)) {
+			return PaymentResult.OVER_LIMIT;
+		}
+		transfer(amount, fromAccount, toAccount);
+		return PaymentResult.PAID;
+	}
+
+	/*
+	 * Makes the payments of a PAYBATCH and returns one result line per payment. Every line is validated before any
+	 * money moves, then the payments are made in line order in groups: the accounts of a group are locked together
+	 * once, so a payroll run takes one lock per account per group instead of one round of locking per payment. All
+	 * payments reach the disk with one journal commit when the request completes.
+	 *
+	 * When the bank is sharded the batch is run on the session's thread like a PAY: each group is run and committed by
+	 * the payer's shard, and a payment to a customer on another shard ends its group and is made on its own in legs,
+	 * see payAcrossShards.
+	 */
+	String payBatch(CustomerID customer, Command.PayBatch batch) {
+		Customer sender = SecureDataStore.getCustomer(customer);
+		int size = batch.size();
+		String[] results = new String[size];
+		Account[] fromAccounts = new Account[size];
+		Account[] toAccounts = new Account[size];
+
+		// validate every line up front
+		for (int i = 0; i < size; i++) {
+			if (batch.error(i) != null) {
+				results[i] = batch.error(i);
+				continue;
+			}
+			fromAccounts[i] = Account.getAccountFromIBAN(batch.fromIBAN(i));
+			toAccounts[i] = Account.getAccountFromIBAN(batch.toIBAN(i));
+			if (fromAccounts[i] == null || toAccounts[i] == null) {
+				results[i] = "FAIL: Invalid IBAN";
+			} else if (!fromAccounts[i].getOwner().equals(sender)) {
+				results[i] = "FAIL: Payment not initiated by account owner";
+			} else if (toAccounts[i].getOwner().equals(sender)) {
+				results[i] = "FAIL: Sender is recipient";
+			}
+		}
+
+		// apply the valid payments group by group
+		boolean sharded = shards != null && !ShardEngine.onWriterThread();
+		int fromSortCode = sender.getSortCode();
+		int start = 0;
+		while (start < size) {
+			int end = start;
+			while (end < size && end - start < PAY_BATCH_GROUP
+					&& !(sharded && results[end] == null && onOtherShard(fromSortCode, toAccounts[end]))) {
+				end++;
+			}
+			if (end == start) {
+				// a payment to another shard
+				PaymentResult result = payAcrossShards(batch.amount(start), fromAccounts[start], toAccounts[start],
+						fromSortCode, toAccounts[start].getOwner().getSortCode());
+				results[start] = paymentResult(result);
+				end++;
+			} else if (sharded) {
+				int first = start;
+				int last = end;
+				shards.execute(fromSortCode, () -> payGroup(batch, first, last, fromAccounts, toAccounts, results));
+			} else {
+				payGroup(batch, start, end, fromAccounts, toAccounts, results);
+			}
+			start = end;
+		}
+
+		int payments = 0;
+		long total = 0;
+		StringBuilder summary = new StringBuilder(size * 16 + 64);
+		for (int i = 0; i < size; i++) {
+			if (BATCH_PAID.equals(results[i])) {
+				payments++;
+				total += batch.amount(i);
+			}
+			summary.append(i + 1).append(' ').append(results[i]).append('\n');
+		}
+		summary.append(payments).append(" of ").append(size).append(" payments made, totalling ");
+		Money.appendTo(summary, total).append('\n');
+		summary.append(payments == size ? "SUCCESS\n" : "FAIL\n");
+		return summary.toString();
+	}
+
+	/*
+	 * Makes the valid payments of the batch lines from start (inclusive) to end (exclusive), with all their accounts
+	 * locked together. Returns the number of payments made.
+	 */
+	private int payGroup(Command.PayBatch batch, int start, int end, Account[] fromAccounts, Account[] toAccounts,
+			String[] results) {
+		Set<Account> groupAccounts = new HashSet<>();
+		for (int i = start; i < end; i++) {
+			if (results[i] == null) {
+				groupAccounts.add(fromAccounts[i]);
+				groupAccounts.add(toAccounts[i]);
+			}
+		}
+		if (groupAccounts.isEmpty()) {
+			return 0;
+		}
+		int payments = 0;
+		Account[] locked = AccountLocks.lockAll(groupAccounts.toArray(new Account[0]));
+		try {
+			for (int i = start; i < end; i++) {
+				if (results[i] == null) {
+					results[i] = paymentResult(payLocked(batch.amount(i), fromAccounts[i], toAccounts[i]));
+					if (BATCH_PAID.equals(results[i])) {
+						payments++;
+					}
+				}
+			}
+		} finally {
+			AccountLocks.unlockAll(locked);
+		}
+		return payments;
+	}
+
+	// The result line of a PAYBATCH payment whose accounts were valid
+	private static String paymentResult(PaymentResult result) {
+		switch (result) {
+			case PAID:
+				return BATCH_PAID;
+			case OVER_LIMIT:
+				return "FAIL: Exceeds daily limit";
+			case TIMED_OUT:
+				return "FAIL: Not completed in time, not charged";
+			default:
+				return "FAIL: Insufficient funds";
+		}
+	}
+
+	// Whether the account's owner is on another shard than the given sort code's
+	private boolean onOtherShard(int sortCode, Account account) {
+		return shards.shardOf(sortCode) != shards.shardOf(account.getOwner().getSortCode());
+	}
+
+	// Record the transaction in the statements of all involved accounts, the caller holds both account locks
+	private void recordTransaction(Account fromAccount, Account toAccount, long amount){
+		Transaction transaction = new Transaction(fromAccount, toAccount, amount);
+		transaction.post();
 	}
 
-	// Print the account's 12 month statement to command line
-	private String printStatement(CustomerID customer, String statementIBAN){
+	// Print one page of the account's 12 month statement to command line
+	String printStatement(CustomerID customer, String statementIBAN, int page){
 		String statement;
 		Account account = Account.getAccountFromIBAN(statementIBAN);
-		Customer accountOwner = Account.getAccountFromIBAN(statementIBAN).getOwner();
+		if (account == null) {
+			return "Invalid IBAN.\n";
+		}
+		Customer accountOwner = account.getOwner();
 		//Check that customer initiating the print statement command request is the account owner
 		try{
 			if(!accountOwner.equals(SecureDataStore.getCustomer(customer))){
@@ -353,7 +616,14 @@ public class NewBank {
 				"FAIL\n";
 			}
 			else{
-			statement = account.getAllTransactions();
+				// read without taking the account's lock, payments into it carry on meanwhile
+				statement = accountOwner.readAccounts(() -> {
+					int pages = account.getStatementPages();
+					if (page < 1 || page > pages) {
+						return "Invalid page number, the statement has " + pages + " page(s).\nFAIL\n";
+					}
+					return account.getStatement(page);
+				});
 			}
 	 	}
 	 	catch(Exception e){
@@ -362,56 +632,59 @@ public class NewBank {
 	 	return statement;
 	}
 
-	// Print information explaining available commands to the command line
-	private String infoCommand(){
-		return
+	// Shows the server's metrics to a customer named in newbank.admin.users
+	String statsCommand(CustomerID customer) {
+		if (!admins.contains(customer.getKey())) {
+			return "STATS is only available to administrators.\n" +
+			"FAIL\n";
+		}
+		return ServerMetrics.get().getReport() + "SUCCESS\n";
+	}
+
+	// Information explaining available commands, a constant so it is encoded once for every session (see StaticResponses)
+	static final String INFO =
 		"\nWelcome! \nTo navigate the application and complete actions you must enter a command into the terminal."+
 		"\nThe commands generally consist of a command name followed by the parameters needed to complete the request, which are detailed below:\n"+
 		"\nSHOWMYACCOUNTS\nThis command will show all the accounts owned by a customer and the balance for each.\n"+
 		"\nNEWACCOUNT <account type> <account name>\nThis command can be used for setting up a new account for a customer. Separated by a space, enter: \n\t1) the command \n\t2) the account type (CURRENT or SAVINGS)\n\t3) your chosen account name.\n"+
 		"\nMOVE <amount> <fromAccountName> <toAccountName>\nThis command is used for moving money between a customers accounts. Separated by a space, enter:\n\t1) the command\n\t2) the amount to transfer (a number)\n\t3) the name of the account the money is coming from\n\t4) the name of the account the money is going to.\nExample: MOVE 100 Current Savings\n"+
 		"\nPAY <amount> <fromAccountIBAN> <toAccountIBAN>\nThis command is used for sending money to another customer. \nSeparated by a space, enter:\n\t1) the command\n\t2) the amount of money to be paid (a number)\n\t3) the origin account's IBAN\n\t4) the receiving account's IBAN identifier.\n"+
-		"\nPRINTSTATEMENT <accountIBAN>\nSee all transactions on this account in the last 12 months.\n"+
+		"\nPAYBATCH <count>\nPAYBATCH FILE <fileName>\nThis command is used for making many payments at once. Enter the number of payments, then one payment per line: <amount> <fromAccountIBAN> <toAccountIBAN>.\nA payment file prepared by the bank can be used instead. Every payment is checked before any money moves and the result of each line is shown.\n"+
+		"\nPRINTSTATEMENT <accountIBAN> [page]\nSee all transactions on this account in the last 12 months, newest first, " + StatementLog.PAGE_SIZE + " per page.\n"+
 		"\nLOAN <LenderAccountType> <username> <amount>\nLoan another NewBank customer money. \nSeparated by a space, enter: \n\t1) the command\n\t2) the account type you will be lending from\n\t3) the NewBank customer's username\n\t4) the amount of money.\n"+
 		"\nREPAY\nThis command will allow you to repay your active loan. It will automatically withdraw the loan amount plus interest from your current account.\n"+
 		"\nEXIT\nThis command is used to log out of your session."+
 		"\n\nWhat do you want to do?\n";
+
+	// Print information explaining available commands to the command line
+	String infoCommand(){
+		return INFO;
 	}
 
 	// Move money between one customer's accounts
-	private String moveCommand(CustomerID customer, ArrayList<String> otherParams) {
-		if (otherParams.size() >= 3) {
-			// Move money from account name inputs within own accounts
-			double amount = Double.parseDouble(otherParams.get(0));
-			String fromAccountName = otherParams.get(1);
-			String toAccountName = otherParams.get(2);
-			Customer customerObj = SecureDataStore.getCustomer(customer);
-			Account fromAccount = customerObj.getAccountByName(fromAccountName);
-			Account toAccount = customerObj.getAccountByName(toAccountName);
+	String moveCommand(CustomerID customer, long amount, String fromAccountName, String toAccountName) {
+		// Move money from account name inputs within own accounts
+		Customer customerObj = SecureDataStore.getCustomer(customer);
+		Account fromAccount = customerObj.getAccountByName(fromAccountName);
+		Account toAccount = customerObj.getAccountByName(toAccountName);
+
+		// if the accounts are valid, move the money, else reject
+		if (fromAccount != null && toAccount != null) {
 			String fromIBAN = fromAccount.getIBAN();
-			String toIBAN = toAccount.getIBAN();
-
-			// if the accounts are valid, move the money, else reject
-			if (fromAccount != null && toAccount != null) {
-				if (moveMoney(amount, fromIBAN, toIBAN)) {
-					return "SUCCESS\n";
-				} else {
-					return "FAIL: Insufficient funds in the " + fromAccountName + " account.\n"+
-					"Your account's funds in the account " + Account.getAccountFromIBAN(fromIBAN).getAccountName() + "(" + fromIBAN + ") are " + Account.getAccountFromIBAN(fromIBAN).getBalance() + ".\n" +
-					"FAIL\n";
-				}
+			if (moveMoney(amount, fromAccount, toAccount)) {
+				return "SUCCESS\n";
 			} else {
-				return "FAIL: Invalid account names.\n";
+				return "FAIL: Insufficient funds in the " + fromAccountName + " account.\n"+
+				"Your account's funds in the account " + fromAccount.getAccountName() + "(" + fromIBAN + ") are " + Money.format(fromAccount.getBalance()) + ".\n" +
+				"FAIL\n";
 			}
 		} else {
-
-			return "FAIL: Invalid parameters. Please enter command in the following format (without the chevrons): MOVE <amount> <fromAccount> <toAccount>\n";
-
+			return "FAIL: Invalid account names.\n";
 		}
 	}
 
 	// Method to handle loan command to loan money to another NewBank customer
-	private String processLoanCommand(CustomerID customer, String lenderAccountType, String borrowerUsername, String amount) {
+	String processLoanCommand(CustomerID customer, String lenderAccountType, String borrowerUsername, long numAmount) {
 
 		// Get the borrower's account by username
 		Customer borrower = SecureDataStore.getCustomer(borrowerUsername);
@@ -422,6 +695,9 @@ public class NewBank {
 		// Get lender's account by specified account type
 		Customer lender = SecureDataStore.getCustomer(customer);
 		Account lenderAccount = lender.getAccountByType(lenderAccountType);
+		if (lenderAccount == null) {
+			return "FAIL: Lender's account not found.";
+		}
 
 		// Get borrower's account
 		Account borrowerAccount = borrower.getAccountByType("CURRENT");
@@ -429,16 +705,6 @@ public class NewBank {
 			return "FAIL: Borrower's account not found.";
 		}
 
-		double numAmount;
-
-		// Convert amount from String to double
-		try {
-			numAmount = Double.parseDouble(amount);
-		} catch(NumberFormatException e) {
-			System.out.println("Invalid amount input");
-			return "FAIL";
-		}
-
 		// Check if the borrowerAccount is a CurrentAccount
 		if (!(borrowerAccount instanceof CurrentAccount)) {
 			return "FAIL: Borrower account is not a CurrentAccount.";
@@ -448,55 +714,47 @@ public class NewBank {
 		CurrentAccount currentBorrowerAccount = (CurrentAccount) borrowerAccount;
 
 		// Create a new LoanAgreement instance with the lender, borrower, and loan amount
-		loanAgreement = new LoanAgreement(numAmount, borrowerAccount.getOwner(),
+		LoanAgreement loanAgreement = new LoanAgreement(numAmount, borrowerAccount.getOwner(),
 				lenderAccount.getOwner(), currentBorrowerAccount, lenderAccount);
 
-		// Check if the loan agreement is valid
-		if (!loanAgreement.isValidLoan()) {
-			return "FAIL";
-		}
+		// the borrower's current account lock also guards the borrower's active loan flag
+		Account[] locked = AccountLocks.lockAll(lenderAccount, borrowerAccount);
+		try {
+			// Check if the loan agreement is valid
+			if (!loanAgreement.isValidLoan()) {
+				return "FAIL";
+			}
 
-		// Add the loan agreement to the borrower's loan agreements list
-//		Customer borrower = borrowerAccount.getOwner();
-		borrower.addLoanAgreement(loanAgreement);
+			// Add the loan agreement to the borrower's loan agreements list
+//			Customer borrower = borrowerAccount.getOwner();
+			borrower.addLoanAgreement(loanAgreement);
 
-		// Perform the loan process, including debiting lender and crediting borrower
-		loanAgreement.performLoanProcess();
+			// Perform the loan process, including debiting lender and crediting borrower
+			loanAgreement.performLoanProcess();
+		} finally {
+			AccountLocks.unlockAll(locked);
+		}
 		return "SUCCESS";
 	}
 
 	// method to handle repay command to repay loan with interest to lender's account
-	private String repayLoanCommand() {
-
-		// Check if the loan agreement is valid for repayment
-		if (!loanAgreement.isValidRepayment()) {
+	String repayLoanCommand(CustomerID customer) {
+		LoanAgreement loanAgreement = SecureDataStore.getCustomer(customer).getActiveLoanAgreement();
+		if (loanAgreement == null) {
 			return "FAIL";
 		}
-		// Perform the repayment process from borrower to lender with interest
-		loanAgreement.performRepaymentProcess();
-		return "SUCCESS";
-	}
-	/*
-	 * This method creates a confirmation message where applicable (i.e. when a user is about to move money between
-	 * accounts, create a new account or pay another user)
-	 */
-	public String confirmationMessage(CustomerID customer, String request) {
-		String command = getCommand(request);
-		ArrayList<String> otherParams = getOtherParams(request);
-		switch (command) {
-			case "MOVE":
-				return "You are attempting to send " + otherParams.get(0) + " from " + otherParams.get(1) + " to " + otherParams.get(2);
-			case "PAY":
-				return "You are attempting to send " + otherParams.get(1) + " to " + otherParams.get(0);
-			case "NEWACCOUNT":
-				return "You are attempting to create a new " + otherParams.get(0) + " account called " + otherParams.get(1);
-			case "LOAN":
-				return "You are attempting to loan " + otherParams.get(2) + " from your " + otherParams.get(0) + " account to " + otherParams.get(1);
-			case "REPAY":
-				return "You are attempting to repay your loan";
-			default:
-				return null;
-		}
 
+		Account[] locked = AccountLocks.lockAll(loanAgreement.getBorrowerAccount(), loanAgreement.getLenderAccount());
+		try {
+			// Check if the loan agreement is valid for repayment
+			if (!loanAgreement.isValidRepayment()) {
+				return "FAIL";
+			}
+			// Perform the repayment process from borrower to lender with interest
+			loanAgreement.performRepaymentProcess();
+		} finally {
+			AccountLocks.unlockAll(locked);
+		}
+		return "SUCCESS";
 	}
 }
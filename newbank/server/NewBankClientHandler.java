@@ -1,93 +1,65 @@
 package newbank.server;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.OutputStream;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 // creates a separate thread for each customer connection
 public class NewBankClientHandler extends Thread{
-	
+
 	private NewBank bank;
-	private BufferedReader in;
-	private PrintWriter out;
-	
+	private Socket socket;
+	private BufferedInputStream in;
+	private OutputStream out;
+
 
 	/* The constructor initialises NewBankClientHandler object when a customer connects to server. It retrieves NewBank
 	* instance and creates input and output streams to communicate with user via socket object.
 	* */
 	public NewBankClientHandler(Socket s) throws IOException {
 		bank = NewBank.getBank();
-		in = new BufferedReader(new InputStreamReader(s.getInputStream()));
-		out = new PrintWriter(s.getOutputStream(), true);
+		socket = s;
+		in = new BufferedInputStream(s.getInputStream());
+		out = s.getOutputStream();
 	}
 
 	public void run() {
-		// keep getting requests from the client and processing them
+		// keep getting requests from the client and processing them, the session keeps track of login and confirmation
+		ServerMetrics.sessionOpened();
 		try {
-			CustomerID customer = null;
-			// keep asking for login details until correctly entered
-			while(customer == null){
-				// ask for username
-				out.println("Enter Username");
-				String userName = in.readLine();
-
-				// ask for password
-				out.println("Enter Password");
-				String password = in.readLine();
-
-				// authenticate user and get customer ID token from bank for use in subsequent requests
-				customer = SecureDataStore.checkLogInDetails(userName, password);
-
-				// if the user is authenticated then get requests from the user and process them 
-				if(customer != null) {
-					out.println("Log In Successful.\n"+
-					"\nWelcome " + userName + "!\n"+
-					"\nThe NewBank application is controlled by something called a Command Line Interface (CLI).\nTo navigate the application and complete actions you must enter a command into the terminal."+
-					"\nThe commands generally consist of a command name followed by the parameters needed to complete the request."+
-					"\nType INFO in the terminal to be informed of how to use the commands with their parameters and see a list of them with short descriptions.\n");
-					while(true) {
-						String request = in.readLine();
-						// if the user logs out by issuing the EXIT command, print an exit message and go back to login screen.
-						if(request.equals("EXIT")) {
-							out.println("\nThank you for using NewBank, " + customer.getKey() + ". You logged out.\n");
-							System.out.println(customer.getKey() + " Logged out.\n");
-							customer = null; 	// reinitialise customer to null to stay in the login screen.
-							break;			// break out of this while loop
-						}
-						System.out.println("Request from " + customer.getKey());
-						// process user input using bank instance
-						// First get the confirmation message from the bank - if there is one run the confirmation method
-						String confirm = bank.confirmationMessage(customer, request);
-						if (confirm != null) {
-							out.println(confirm);
-							// If the user confirms the transaction, run the request, otherwise cancel the transaction
-							if (confirmTransaction()) {
-								String responce = bank.processRequest(customer, request);
-								out.println(responce);
-							} else {
-								out.println("Transaction cancelled");
-							}							
-						}
-						// If there is no confirmation message, run the request as normal
-						else {
-							String responce = bank.processRequest(customer, request);
-							out.println(responce);
-						}
-					}
-				}
-				else {
-					out.println("Log In Failed");
-				}
+			// each response is encoded into the writer's buffer and written to the socket at once
+			ClientSession session = new ClientSession(bank, new ResponseWriter(this::send));
+			session.start();
+			// a client that starts with the binary protocol's magic bytes speaks it from then on
+			in.mark(1);
+			int first = in.read();
+			in.reset();
+			if (first == BinaryProtocol.MAGIC[0]) {
+				runBinary();
+				return;
+			}
+			BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+			String line;
+			while((line = reader.readLine()) != null) {
+				session.handleLine(line);
 			}
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 		finally {
+			ServerMetrics.sessionClosed();
 			try {
 				in.close();
-				out.close();
+				socket.close();
 			} catch (IOException e) {
 				e.printStackTrace();
 				Thread.currentThread().interrupt();
@@ -95,24 +67,52 @@ public class NewBankClientHandler extends Thread{
 		}
 	}
 
-	// method to confirm a process request
-	private boolean confirmTransaction() {		
-		while (true) {	
-			out.println("Please confirm the transaction by entering 'Y' or 'N'");			
-			String input;
+	// Writes a complete text response to the client
+	private void send(ByteBuffer response) {
+		try {
+			out.write(response.array(), response.arrayOffset() + response.position(), response.remaining());
+		} catch (IOException e) {
+			// the client is gone, closing the socket ends the session's read loop
 			try {
-				input = in.readLine();
-				if (input.equals("Y")) {
-					return true;
-				} else if (input.equals("N")) {
-					return false;
-				} else {
-					System.out.println("Invalid input, please try again");
-				}
-			} catch (IOException e) {
-				e.printStackTrace();
-			}		
+				socket.close();
+			} catch (IOException closing) {
+				closing.printStackTrace();
+			}
+		}
+	}
 
+	/*
+	 * Runs a connection speaking the binary protocol. Responses are buffered and only flushed once no further request
+	 * has arrived, so a client sending many requests at once gets their responses in a few writes.
+	 */
+	private void runBinary() throws IOException {
+		DataInputStream frames = new DataInputStream(in);
+		OutputStream responses = new BufferedOutputStream(socket.getOutputStream(), 8192);
+		byte[] magic = new byte[BinaryProtocol.MAGIC.length];
+		frames.readFully(magic);
+		if (!Arrays.equals(magic, BinaryProtocol.MAGIC)) {
+			return;
+		}
+		responses.write(BinaryProtocol.MAGIC);
+		responses.flush();
+		BinarySession session = new BinarySession(bank);
+		byte[] request = new byte[BinaryProtocol.MAX_REQUEST_LENGTH];
+		while (true) {
+			int length;
+			try {
+				length = frames.readInt();
+			} catch (EOFException e) {
+				return;
+			}
+			if (length < BinaryProtocol.HEADER_LENGTH - Integer.BYTES || length > BinaryProtocol.MAX_REQUEST_LENGTH) {
+				return;
+			}
+			frames.readFully(request, 0, length);
+			ByteBuffer response = session.handle(ByteBuffer.wrap(request, 0, length));
+			responses.write(response.array(), 0, response.limit());
+			if (in.available() == 0) {
+				responses.flush();
+			}
 		}
 	}
 
@@ -0,0 +1,333 @@
+package newbank.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Serves every customer connection from a single selector thread instead of a thread per connection. The selector
+ * thread only reads and writes bytes. Complete lines are handed to a small worker pool that runs them through the
+ * connection's ClientSession, one line at a time per connection, so an idle session costs a few buffers and no thread.
+ * A connection whose first byte starts the binary protocol's magic bytes is handed request frames instead, which are
+ * run through its BinarySession (see BinaryProtocol).
+ *
+ * A client that sends requests faster than they are run, e.g. by pipelining tagged requests, or that does not read its
+ * responses, is not read from while MAX_QUEUED of its requests or responses are waiting, so it is held back by TCP flow
+ * control instead of filling the heap.
+ */
+public class NewBankNioServer extends Thread {
+
+	// longest line a client may send, connections sending longer lines are dropped
+	private static final int MAX_LINE_LENGTH = 8192;
+	// requests of one connection waiting for a worker, or responses waiting for the socket, before the connection is no
+	// longer read from
+	private static final int MAX_QUEUED = 64;
+	// the connection is read from again once both queues are down to this
+	private static final int RESUME_QUEUED = MAX_QUEUED / 4;
+
+	private final ServerSocketChannel server;
+	private final Selector selector;
+	private final ExecutorService workers;
+	private final NewBank bank;
+
+	public NewBankNioServer(int port, int workerThreads) throws IOException {
+		selector = Selector.open();
+		server = ServerSocketChannel.open();
+		server.bind(new InetSocketAddress(port));
+		server.configureBlocking(false);
+		server.register(selector, SelectionKey.OP_ACCEPT);
+		workers = Executors.newFixedThreadPool(workerThreads);
+		bank = NewBank.getBank();
+	}
+
+	public void run() {
+		// Display port on which the NewBank server is listening
+		System.out.println("New Bank Server (nio) listening on " + server.socket().getLocalPort());
+		try {
+			while (true) {
+				selector.select();
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (!key.isValid()) {
+						continue;
+					}
+					if (key.isAcceptable()) {
+						accept();
+					} else {
+						Connection connection = (Connection) key.attachment();
+						if (key.isReadable()) {
+							connection.read();
+						}
+						if (key.isValid() && key.isWritable()) {
+							connection.flush();
+						}
+					}
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		finally {
+			workers.shutdown();
+			try {
+				selector.close();
+				server.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	// Registers a newly connected client and sends it the first prompt
+	private void accept() throws IOException {
+		SocketChannel channel = server.accept();
+		if (channel == null) {
+			return;
+		}
+		channel.configureBlocking(false);
+		SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+		Connection connection = new Connection(channel, key);
+		key.attach(connection);
+		connection.session.start();
+		connection.flush();
+	}
+
+	// The buffers and session of one client connection
+	private class Connection {
+		private final SocketChannel channel;
+		private final SelectionKey key;
+		private final ClientSession session;
+		private final ByteBuffer readBuffer = ByteBuffer.allocate(1024);
+		private byte[] lineBytes = new byte[128];
+		private int lineLength;
+		// lines received but not yet processed, drained by at most one worker at a time
+		private final ConcurrentLinkedQueue<String> pendingLines = new ConcurrentLinkedQueue<>();
+		// chosen by the first byte received, the binary session and its frames stay null for the text protocol
+		private boolean protocolChosen;
+		private BinarySession binarySession;
+		private BinaryProtocol.FrameReader frameReader;
+		private final ConcurrentLinkedQueue<ByteBuffer> pendingFrames = new ConcurrentLinkedQueue<>();
+		// lines and frames queued and not yet taken by the worker
+		private final AtomicInteger queued = new AtomicInteger();
+		// the selector does not read from the connection while a queue is full, guarded by the connection
+		private volatile boolean readPaused;
+		private final AtomicBoolean scheduled = new AtomicBoolean();
+		private final AtomicBoolean closed = new AtomicBoolean();
+		// responses not yet written to the socket, guarded by the connection
+		private final ArrayDeque<ByteBuffer> pendingWrites = new ArrayDeque<>();
+
+		Connection(SocketChannel channel, SelectionKey key) {
+			this.channel = channel;
+			this.key = key;
+			this.session = new ClientSession(bank, new ResponseWriter(this::send));
+			ServerMetrics.sessionOpened();
+		}
+
+		// Called on the selector thread when the socket has data, splits it into lines
+		void read() {
+			int count;
+			try {
+				count = channel.read(readBuffer);
+			} catch (IOException e) {
+				close();
+				return;
+			}
+			if (count < 0) {
+				close();
+				return;
+			}
+			readBuffer.flip();
+			if (!protocolChosen && readBuffer.hasRemaining()) {
+				protocolChosen = true;
+				if (readBuffer.get(0) == BinaryProtocol.MAGIC[0]) {
+					binarySession = new BinarySession(bank);
+					frameReader = new BinaryProtocol.FrameReader();
+					synchronized (this) {
+						pendingWrites.add(ByteBuffer.wrap(BinaryProtocol.MAGIC.clone()));
+					}
+					flush();
+				}
+			}
+			if (frameReader != null) {
+				boolean valid = frameReader.read(readBuffer, this::queueFrame);
+				readBuffer.clear();
+				if (!valid) {
+					close();
+					return;
+				}
+				schedule();
+				pauseReadingIfFull();
+				return;
+			}
+			while (readBuffer.hasRemaining()) {
+				byte b = readBuffer.get();
+				if (b == '\n') {
+					int end = lineLength > 0 && lineBytes[lineLength - 1] == '\r' ? lineLength - 1 : lineLength;
+					pendingLines.add(new String(lineBytes, 0, end, StandardCharsets.UTF_8));
+					queued.incrementAndGet();
+					lineLength = 0;
+				} else {
+					if (lineLength == MAX_LINE_LENGTH) {
+						close();
+						return;
+					}
+					if (lineLength == lineBytes.length) {
+						byte[] larger = new byte[Math.min(lineBytes.length * 2, MAX_LINE_LENGTH)];
+						System.arraycopy(lineBytes, 0, larger, 0, lineLength);
+						lineBytes = larger;
+					}
+					lineBytes[lineLength++] = b;
+				}
+			}
+			readBuffer.clear();
+			schedule();
+			pauseReadingIfFull();
+		}
+
+		private void queueFrame(ByteBuffer frame) {
+			pendingFrames.add(frame);
+			queued.incrementAndGet();
+		}
+
+		// Called on the selector thread after queueing requests, stops reading while too many are waiting to be run
+		private synchronized void pauseReadingIfFull() {
+			updateInterest();
+		}
+
+		// Called by the worker as it takes a request, reads again once the queue has room
+		private void taken() {
+			if (queued.decrementAndGet() <= RESUME_QUEUED && readPaused) {
+				synchronized (this) {
+					updateInterest();
+				}
+			}
+		}
+
+		// Hands the pending lines to a worker unless one is already working through them
+		private void schedule() {
+			if ((!pendingLines.isEmpty() || !pendingFrames.isEmpty()) && scheduled.compareAndSet(false, true)) {
+				workers.execute(this::processLines);
+			}
+		}
+
+		// Runs on a worker thread, lines of one connection are processed in the order they arrived
+		private void processLines() {
+			try {
+				String line;
+				while ((line = pendingLines.poll()) != null) {
+					taken();
+					session.handleLine(line);
+				}
+				ByteBuffer frame;
+				while ((frame = pendingFrames.poll()) != null) {
+					taken();
+					ByteBuffer response = binarySession.handle(frame);
+					ByteBuffer copy = ByteBuffer.allocate(response.remaining()).put(response).flip();
+					synchronized (this) {
+						pendingWrites.add(copy);
+					}
+					// responses to requests that arrived together are written together
+					if (pendingFrames.isEmpty()) {
+						flush();
+					}
+				}
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+				close();
+			} finally {
+				scheduled.set(false);
+			}
+			// a line may have arrived after the queue was found empty but before the flag was cleared
+			schedule();
+		}
+
+		/*
+		 * Writes a complete text response straight to the socket unless earlier responses are still queued. Only what
+		 * the socket does not accept is copied and queued, the session reuses the response's buffer.
+		 */
+		private void send(ByteBuffer response) {
+			synchronized (this) {
+				if (pendingWrites.isEmpty()) {
+					try {
+						channel.write(response);
+					} catch (IOException e) {
+						close();
+						return;
+					}
+				}
+				if (response.hasRemaining()) {
+					pendingWrites.add(ByteBuffer.allocate(response.remaining()).put(response).flip());
+				}
+			}
+			flush();
+		}
+
+		// Writes queued responses, if the socket is full the selector finishes the write once it has room again
+		synchronized void flush() {
+			try {
+				while (!pendingWrites.isEmpty()) {
+					ByteBuffer head = pendingWrites.peek();
+					channel.write(head);
+					if (head.hasRemaining()) {
+						break;
+					}
+					pendingWrites.poll();
+				}
+			} catch (IOException e) {
+				close();
+				return;
+			}
+			updateInterest();
+		}
+
+		/*
+		 * Asks the selector for the events the connection is waiting for, the caller holds the connection's lock. The
+		 * queues are checked under the lock, so a worker taking the last request cannot miss a pause it has to undo.
+		 */
+		private void updateInterest() {
+			if (readPaused) {
+				readPaused = queued.get() > RESUME_QUEUED || pendingWrites.size() > RESUME_QUEUED;
+			} else {
+				readPaused = queued.get() >= MAX_QUEUED || pendingWrites.size() >= MAX_QUEUED;
+			}
+			int ops = (readPaused ? 0 : SelectionKey.OP_READ) | (pendingWrites.isEmpty() ? 0 : SelectionKey.OP_WRITE);
+			try {
+				if (key.interestOps() != ops) {
+					key.interestOps(ops);
+					selector.wakeup();
+				}
+			} catch (CancelledKeyException e) {
+				// the connection was closed while the response was written
+			}
+		}
+
+		private void close() {
+			// a connection can fail on the selector thread and on a worker at the same time, it is counted once
+			if (!closed.compareAndSet(false, true)) {
+				return;
+			}
+			ServerMetrics.sessionClosed();
+			key.cancel();
+			try {
+				channel.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+}
@@ -45,7 +45,19 @@ public class NewBankServer extends Thread{
 	}
 	
 	public static void main(String[] args) throws IOException {
-		// starts a new NewBankServer thread on a specified port number
-		new NewBankServer(14002).start();
+		// the bank is restored before connections are accepted, and stops its background jobs and closes its journal on shutdown
+		NewBank bank = NewBank.getBank();
+		Runtime.getRuntime().addShutdownHook(new Thread(bank::shutdown, "bank-shutdown"));
+		ServerMetrics.registerMBeans();
+		// a primary lets read replicas follow its journal
+		if (bank.getReplica() == null && BankConfig.replicationPort() > 0) {
+			new ReplicationServer(BankConfig.replicationPort(), BankConfig.replicationHeartbeatMillis()).start();
+		}
+		// starts a new server thread on the configured port, either a thread per connection or one selector thread
+		if (BankConfig.serverMode().equals("nio")) {
+			new NewBankNioServer(BankConfig.port(), BankConfig.workerThreads()).start();
+		} else {
+			new NewBankServer(BankConfig.port()).start();
+		}
 	}
 }
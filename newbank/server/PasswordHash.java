@@ -0,0 +1,85 @@
+package newbank.server;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.spec.InvalidKeySpecException;
+import java.util.Arrays;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/*
+ * A stored PBKDF2 password hash, parsed once from its "iterations:salt:hash" text form into binary when the customer
+ * is added or restored, so a login only has to hash the password typed in. Each thread keeps its own SecretKeyFactory,
+ * which is not safe to share between threads and is slow to look up.
+ */
+final class PasswordHash {
+
+	static final String ALGORITHM = "PBKDF2WithHmacSHA1";
+
+	private static final ThreadLocal<SecretKeyFactory> keyFactory = ThreadLocal.withInitial(() -> {
+		try {
+			return SecretKeyFactory.getInstance(ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(ALGORITHM + " is not available", e);
+		}
+	});
+
+	private final String encoded;
+	private final int iterations;
+	private final byte[] salt;
+	private final byte[] hash;
+
+	private PasswordHash(String encoded, int iterations, byte[] salt, byte[] hash) {
+		this.encoded = encoded;
+		this.iterations = iterations;
+		this.salt = salt;
+		this.hash = hash;
+	}
+
+	// Parses a hash stored as "iterations:salt:hash", salt and hash in hexadecimal
+	static PasswordHash parse(String encoded) {
+		int first = encoded.indexOf(':');
+		int second = encoded.indexOf(':', first + 1);
+		if (first < 0 || second < 0) {
+			throw new IllegalArgumentException("Not a password hash");
+		}
+		return new PasswordHash(encoded, Integer.parseInt(encoded.substring(0, first)),
+				fromHex(encoded, first + 1, second), fromHex(encoded, second + 1, encoded.length()));
+	}
+
+	private static byte[] fromHex(String hex, int start, int end) {
+		byte[] bytes = new byte[(end - start) / 2];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) (Character.digit(hex.charAt(start + 2 * i), 16) << 4
+					| Character.digit(hex.charAt(start + 2 * i + 1), 16));
+		}
+		return bytes;
+	}
+
+	// Hashes a password with the given salt and iterations, the result is hashLength bytes long
+	static byte[] hash(char[] password, byte[] salt, int iterations, int hashLength) throws InvalidKeySpecException {
+		PBEKeySpec spec = new PBEKeySpec(password, salt, iterations, hashLength * 8);
+		try {
+			return keyFactory.get().generateSecret(spec).getEncoded();
+		} finally {
+			spec.clearPassword();
+		}
+	}
+
+	// Checks a password typed in against the hash, comparing in constant time
+	boolean matches(String password) {
+		char[] characters = password.toCharArray();
+		try {
+			return MessageDigest.isEqual(hash, hash(characters, salt, iterations, hash.length));
+		} catch (InvalidKeySpecException e) {
+			return false;
+		} finally {
+			Arrays.fill(characters, '\0');
+		}
+	}
+
+	// Accessor: Get the hash in its stored text form, as it is journaled and written to snapshots
+	String getEncoded() {
+		return encoded;
+	}
+}
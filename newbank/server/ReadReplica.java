@@ -0,0 +1,188 @@
+package newbank.server;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/*
+ * Makes the bank a read replica of a primary: the bank is loaded from the primary's snapshot and then follows its
+ * journal over a socket (see ReplicationServer), applying every record with a JournalReplayer like a restart would.
+ * Nothing is journaled or scheduled on a replica, and it only answers read-only commands, so statements and balances
+ * can be served by more processes while the primary runs the payments.
+ *
+ * Records are applied under the write lock of a read-write lock and requests run under its read lock, so a request
+ * never sees a payment half applied. A replica is as current as the last heartbeat of the primary whose records it has
+ * applied: it has every change the primary committed before that heartbeat was sent. Each answer starts with how long
+ * ago that was, and requests are turned away once it is longer than the configured maximum.
+ *
+ * A replica that loses its primary reconnects and carries on from the last record it applied. One the primary can no
+ * longer follow, because the journal it needs was deleted after a snapshot, stops and has to be restarted.
+ */
+final class ReadReplica extends Thread {
+
+	private final String primary;
+	private final long maxStalenessMillis;
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	private final JournalReplayer replayer = new JournalReplayer();
+	// written by this thread only
+	private volatile long appliedLsn;
+	// primary's time of the last heartbeat whose records have all been applied, 0 until the first
+	private volatile long currentAsOf;
+	// why the replica stopped following, null while it follows
+	private volatile String stopped;
+	// notified when the replica first catches up or stops
+	private final Object caughtUp = new Object();
+
+	ReadReplica(String primary, long maxStalenessMillis) {
+		super("newbank-replica");
+		setDaemon(true);
+		this.primary = primary;
+		this.maxStalenessMillis = maxStalenessMillis;
+	}
+
+	// Accessor: Get the host:port of the primary
+	String getPrimary() {
+		return primary;
+	}
+
+	// Accessor: Get the LSN of the last record applied
+	long getAppliedLsn() {
+		return appliedLsn;
+	}
+
+	// Milliseconds since the replica was last known to have every change committed by the primary
+	long getStalenessMillis() {
+		long asOf = currentAsOf;
+		return asOf == 0 ? Long.MAX_VALUE : Math.max(0, System.currentTimeMillis() - asOf);
+	}
+
+	// Whether the replica is too far behind to answer requests
+	boolean isTooStale() {
+		return getStalenessMillis() > maxStalenessMillis;
+	}
+
+	// Waits until the replica has caught up with the primary for the first time
+	void awaitCurrent() throws InterruptedException {
+		synchronized (caughtUp) {
+			while (currentAsOf == 0 && stopped == null) {
+				caughtUp.wait();
+			}
+		}
+	}
+
+	/*
+	 * Runs a request and returns its response, starting with how current the replica is. A request that is not
+	 * read-only, or that arrives while the replica is too far behind, is turned away with FAIL.
+	 */
+	String serve(Command command, Supplier<String> request) {
+		if (!command.isReadOnly()) {
+			return "This server is a read replica, send " + command.getName() + " to the primary at " + primary + ".\n"
+					+ "FAIL\n";
+		}
+		long staleness = getStalenessMillis();
+		if (staleness > maxStalenessMillis) {
+			return "This read replica is too far behind the primary at " + primary + ", send the request there.\n"
+					+ "FAIL\n";
+		}
+		String response = read(request);
+		return "Replica of " + primary + ", as of " + staleness + " ms ago\n" + response;
+	}
+
+	// Runs a task that reads the bank while no record is being applied
+	<T> T read(Supplier<T> task) {
+		lock.readLock().lock();
+		try {
+			return task.get();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public void run() {
+		int colon = primary.lastIndexOf(':');
+		String host = primary.substring(0, colon);
+		int port = Integer.parseInt(primary.substring(colon + 1));
+		while (stopped == null) {
+			try (Socket socket = new Socket(host, port)) {
+				follow(socket);
+			} catch (IOException e) {
+				System.out.println("Replica lost the primary at " + primary + ": " + e);
+			}
+			if (stopped == null) {
+				try {
+					Thread.sleep(1000);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}
+		System.out.println("Replica stopped following " + primary + ": " + stopped);
+		synchronized (caughtUp) {
+			caughtUp.notifyAll();
+		}
+	}
+
+	// Asks the primary for what it is missing and applies the stream until the connection ends
+	private void follow(Socket socket) throws IOException {
+		socket.setTcpNoDelay(true);
+		DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+		out.writeInt(ReplicationServer.MAGIC);
+		out.writeLong(appliedLsn);
+		out.flush();
+		DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+		byte[] body = new byte[512];
+		while (true) {
+			byte message = in.readByte();
+			if (message == ReplicationServer.RECORD) {
+				long lsn = in.readLong();
+				int length = in.readInt();
+				if (length > body.length) {
+					body = new byte[Math.max(length, body.length * 2)];
+				}
+				in.readFully(body, 0, length);
+				ByteBuffer record = ByteBuffer.wrap(body, 0, length);
+				lock.writeLock().lock();
+				try {
+					replayer.apply(lsn, record.get(), record);
+				} finally {
+					lock.writeLock().unlock();
+				}
+				appliedLsn = lsn;
+			} else if (message == ReplicationServer.HEARTBEAT) {
+				long durableLsn = in.readLong();
+				long sent = in.readLong();
+				// the primary sends every record up to durableLsn before the heartbeat
+				if (appliedLsn >= durableLsn) {
+					boolean first = currentAsOf == 0;
+					currentAsOf = sent;
+					if (first) {
+						synchronized (caughtUp) {
+							caughtUp.notifyAll();
+						}
+					}
+				}
+			} else if (message == ReplicationServer.SNAPSHOT) {
+				lock.writeLock().lock();
+				try {
+					appliedLsn = BankSnapshot.load(in, "the primary at " + primary);
+				} catch (IOException e) {
+					// the bank is half loaded, it cannot be loaded again over it
+					stopped = "the snapshot could not be loaded, " + e.getMessage();
+					throw e;
+				} finally {
+					lock.writeLock().unlock();
+				}
+			} else if (message == ReplicationServer.ERROR) {
+				stopped = in.readUTF();
+				return;
+			} else if (message != ReplicationServer.NO_SNAPSHOT) {
+				throw new IOException("Unexpected message " + message + " from the primary");
+			}
+		}
+	}
+}
@@ -0,0 +1,131 @@
+package newbank.server;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/*
+ * Lets read replicas (see ReadReplica) follow the primary's journal. A replica connects and says which LSN it has
+ * applied up to. A new replica is first sent the newest snapshot, then every replica is sent the journal records after
+ * its LSN as soon as they are on disk, so a replica never sees a change the primary could still lose in a crash.
+ * Records are read back from the journal's segment files by one thread per replica, the bank's writers never wait for
+ * a replica.
+ *
+ * Between records the primary sends heartbeats: the LSN on disk and the time it was read. Once a replica has applied
+ * the records up to that LSN it has every change committed before that time, which bounds how stale its answers are,
+ * also when the primary is idle.
+ *
+ * Stream from the replica: [int MAGIC][long applied LSN, 0 for a new replica]
+ * Stream to the replica, a sequence of messages each starting with a byte:
+ * - SNAPSHOT: the snapshot file, as read by BankSnapshot.load
+ * - NO_SNAPSHOT: the primary has never taken a snapshot, its journal starts at LSN 1
+ * - RECORD: [long LSN][int length][body], the body as in the journal, starting with the record type
+ * - HEARTBEAT: [long LSN on disk][long time in milliseconds]
+ * - ERROR: [UTF message], the replica cannot follow, e.g. because the journal it needs was deleted after a snapshot
+ */
+final class ReplicationServer extends Thread {
+
+	static final int MAGIC = 0x4E425231; // "NBR1"
+	static final byte SNAPSHOT = 'S';
+	static final byte NO_SNAPSHOT = 'N';
+	static final byte RECORD = 'R';
+	static final byte HEARTBEAT = 'H';
+	static final byte ERROR = 'E';
+
+	private final ServerSocket server;
+	private final long heartbeatMillis;
+
+	ReplicationServer(int port, long heartbeatMillis) throws IOException {
+		super("newbank-replication");
+		setDaemon(true);
+		server = new ServerSocket(port);
+		this.heartbeatMillis = heartbeatMillis;
+	}
+
+	public void run() {
+		System.out.println("Replication listening on " + server.getLocalPort());
+		try {
+			while (true) {
+				Socket replica = server.accept();
+				Thread sender = new Thread(() -> follow(replica), "newbank-replication-" + replica.getPort());
+				sender.setDaemon(true);
+				sender.start();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	// Sends one replica what it is missing, then the journal as it is written, until the replica disconnects
+	private void follow(Socket replica) {
+		String name = replica.getRemoteSocketAddress().toString();
+		try (Socket socket = replica;
+			 DataInputStream in = new DataInputStream(socket.getInputStream());
+			 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16))) {
+			socket.setTcpNoDelay(true);
+			if (in.readInt() != MAGIC) {
+				return;
+			}
+			long appliedLsn = in.readLong();
+			LedgerJournal journal = LedgerJournal.getJournal();
+			Path snapshot = appliedLsn == 0 ? BankSnapshot.latest(BankConfig.dataDirectory()) : null;
+			long fromLsn = snapshot == null ? appliedLsn : BankSnapshot.lsnOf(snapshot);
+			// the first segment is opened before the snapshot is sent, a snapshot taken meanwhile cannot delete it
+			LedgerJournal.Reader reader;
+			try {
+				reader = journal.new Reader(fromLsn);
+			} catch (IOException e) {
+				out.writeByte(ERROR);
+				out.writeUTF(e.getMessage());
+				out.flush();
+				System.out.println("Replica " + name + " cannot follow: " + e.getMessage());
+				return;
+			}
+			try (LedgerJournal.Reader records = reader) {
+				if (snapshot != null) {
+					out.writeByte(SNAPSHOT);
+					try (InputStream file = Files.newInputStream(snapshot)) {
+						file.transferTo(out);
+					}
+				} else if (appliedLsn == 0) {
+					out.writeByte(NO_SNAPSHOT);
+				}
+				System.out.println("Replica " + name + " following from LSN " + fromLsn);
+				stream(records, journal, out);
+			}
+		} catch (IOException e) {
+			System.out.println("Replica " + name + " disconnected: " + e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// Sends every record on disk, then a heartbeat, then waits for more records or the next heartbeat
+	private void stream(LedgerJournal.Reader records, LedgerJournal journal, DataOutputStream out)
+			throws IOException, InterruptedException {
+		while (true) {
+			// read before the LSN, so every change committed before this time is sent before the heartbeat
+			long now = System.currentTimeMillis();
+			long durableLsn = journal.getDurableLsn();
+			while (records.getLsn() < durableLsn) {
+				ByteBuffer body = records.next();
+				out.writeByte(RECORD);
+				out.writeLong(records.getLsn());
+				out.writeInt(body.remaining());
+				out.write(body.array(), body.position(), body.remaining());
+			}
+			out.writeByte(HEARTBEAT);
+			out.writeLong(durableLsn);
+			out.writeLong(now);
+			out.flush();
+			journal.awaitDurableAfter(durableLsn, heartbeatMillis);
+		}
+	}
+}
@@ -0,0 +1,107 @@
+package newbank.server;
+
+import java.nio.ByteBuffer;
+
+/*
+ * The Output of a text session on either server. The lines of a response are encoded to UTF-8 into one buffer, which
+ * is kept for the session's next response, and handed to the connection in one piece when the session flushes, so a
+ * response costs one write to the socket however many lines it has. Static responses (see StaticResponses) are copied
+ * already encoded, others are encoded here without the arrays String.getBytes would allocate.
+ *
+ * A writer belongs to one session and is used by one thread at a time.
+ */
+final class ResponseWriter implements ClientSession.Output {
+
+	// Where a complete response is written, the buffer is reused once send returns
+	interface Sink {
+		void send(ByteBuffer response);
+	}
+
+	private static final int INITIAL_CAPACITY = 2048;
+	// a buffer grown larger than this for one long response, e.g. a statement, is not kept for the next
+	private static final int MAX_RETAINED_CAPACITY = 1 << 16;
+
+	private final Sink sink;
+	private byte[] buffer = new byte[INITIAL_CAPACITY];
+	private ByteBuffer view = ByteBuffer.wrap(buffer);
+	private int length;
+
+	ResponseWriter(Sink sink) {
+		this.sink = sink;
+	}
+
+	public void println(String text) {
+		byte[] encoded = StaticResponses.get(text);
+		if (encoded != null) {
+			ensureCapacity(encoded.length + 1);
+			System.arraycopy(encoded, 0, buffer, length, encoded.length);
+			length += encoded.length;
+		} else {
+			encode(text);
+		}
+		ensureCapacity(1);
+		buffer[length++] = '\n';
+	}
+
+	public void flush() {
+		if (length == 0) {
+			return;
+		}
+		view.clear().limit(length);
+		length = 0;
+		sink.send(view);
+		if (buffer.length > MAX_RETAINED_CAPACITY) {
+			buffer = new byte[INITIAL_CAPACITY];
+			view = ByteBuffer.wrap(buffer);
+		}
+	}
+
+	// Appends the text as UTF-8, a surrogate that is not part of a pair is written as '?' like String.getBytes does
+	private void encode(String text) {
+		int count = text.length();
+		// most responses are ASCII, one byte per char
+		ensureCapacity(count);
+		int i = 0;
+		while (i < count) {
+			char c = text.charAt(i);
+			if (c >= 0x80) {
+				break;
+			}
+			buffer[length++] = (byte) c;
+			i++;
+		}
+		for (; i < count; i++) {
+			char c = text.charAt(i);
+			ensureCapacity(4);
+			if (c < 0x80) {
+				buffer[length++] = (byte) c;
+			} else if (c < 0x800) {
+				buffer[length++] = (byte) (0xC0 | c >> 6);
+				buffer[length++] = (byte) (0x80 | c & 0x3F);
+			} else if (Character.isHighSurrogate(c) && i + 1 < count && Character.isLowSurrogate(text.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, text.charAt(++i));
+				buffer[length++] = (byte) (0xF0 | codePoint >> 18);
+				buffer[length++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+				buffer[length++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+				buffer[length++] = (byte) (0x80 | codePoint & 0x3F);
+			} else if (Character.isSurrogate(c)) {
+				buffer[length++] = '?';
+			} else {
+				buffer[length++] = (byte) (0xE0 | c >> 12);
+				buffer[length++] = (byte) (0x80 | c >> 6 & 0x3F);
+				buffer[length++] = (byte) (0x80 | c & 0x3F);
+			}
+		}
+	}
+
+	// Grows the buffer so that it has room for another count bytes
+	private void ensureCapacity(int count) {
+		if (length + count <= buffer.length) {
+			return;
+		}
+		byte[] larger = new byte[Math.max(length + count, buffer.length * 2)];
+		System.arraycopy(buffer, 0, larger, 0, length);
+		buffer = larger;
+		view = ByteBuffer.wrap(buffer);
+	}
+}
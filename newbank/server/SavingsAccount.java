@@ -1,19 +1,87 @@
 package newbank.server;
 
+import java.math.RoundingMode;
+import java.time.LocalDate;
 
 public class SavingsAccount extends Account {
 
-    private static final double interestRate = 2.0; // example of 2% interest is used
+    private static final long INTEREST_BASIS_POINTS = 200; // example of 2% interest is used
+
+    // day of the month (1 to 28) interest is paid on when it is spread over the month
+    private final int interestDay;
+    // last month interest was paid for (see InterestEngine.period), guarded by the account lock
+    private long lastInterestPeriod;
 
     // Constructor
-    public SavingsAccount(String accountName, double openingBalance, Customer customer) {
+    public SavingsAccount(String accountName, long openingBalance, Customer customer) {
         super(accountName, openingBalance, customer);
+        this.interestDay = interestDay(getIBAN());
+        // interest is first paid for the month after the account is opened
+        Account[] locked = AccountLocks.lockAll(this);
+        try {
+            this.lastInterestPeriod = InterestEngine.period(InterestEngine.today());
+            LedgerJournal.interest(this, lastInterestPeriod, 0);
+        } finally {
+            AccountLocks.unlockAll(locked);
+        }
+        InterestEngine.register(this);
+    }
+
+    // Constructor used when the bank is restored from its journal
+    SavingsAccount(String accountIBAN, String accountName, Customer customer) {
+        super(accountIBAN, accountName, customer);
+        this.interestDay = interestDay(accountIBAN);
+        InterestEngine.register(this);
+    }
+
+    private static int interestDay(String accountIBAN) {
+        return Integer.parseInt(accountIBAN.substring(accountIBAN.length() - 7)) % InterestEngine.DAYS + 1;
+    }
+
+    /*
+     * Mutator that deposits the interest for the given month unless it was paid already, rounded to the nearest
+     * penny with ties to even (banker's rounding). The balance change and the month are journaled in one record, so
+     * they are restored together. Returns true if interest was paid.
+     */
+    boolean payInterest(long period) {
+        Account[] locked = AccountLocks.lockAll(this);
+        try {
+            if (this.lastInterestPeriod >= period) {
+                return false;
+            }
+            long interest = Money.percentOf(this.getBalance(), INTEREST_BASIS_POINTS, RoundingMode.HALF_EVEN);
+            restoreInterest(period, interest, InterestEngine.today());
+            LedgerJournal.interest(this, period, interest);
+            return true;
+        } finally {
+            AccountLocks.unlockAll(locked);
+        }
+    }
+
+    // Mutator: Apply interest paid for a month, when it is paid or when it is restored from the journal
+    void restoreInterest(long period, long interest, LocalDate date) {
+        this.lastInterestPeriod = period;
+        if (interest > 0) {
+            this.adjustBalance(interest);
+            Transaction transaction = new Transaction(this, interest);
+            transaction.overrideDate(date);
+            this.addTransaction(transaction);
+        }
+    }
+
+    // Accessor: Get the day of the month interest is paid on when it is spread over the month
+    int getInterestDay() {
+        return this.interestDay;
+    }
+
+    // Accessor: Get the last month interest was paid for, the caller holds the account lock
+    long getLastInterestPeriod() {
+        return this.lastInterestPeriod;
     }
 
-    // Mutator that deposits interest into savings account
-    public void addInterest() {
-            double interest = this.getBalance() * (interestRate / 100);
-            this.deposit(interest);
+    // Mutator: Set the last month interest was paid for when the account is restored from a snapshot
+    void setLastInterestPeriod(long period) {
+        this.lastInterestPeriod = period;
     }
 
     // Accessor: Get type of account (savings or current)
@@ -1,18 +1,26 @@
 package newbank.server;
 
-import javax.crypto.SecretKeyFactory;
-import javax.crypto.spec.PBEKeySpec;
 import java.math.BigInteger;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.security.spec.InvalidKeySpecException;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class SecureDataStore {
     // hashmap facilitates retrieving customer information by username and accessing customerID token
-	private static HashMap<String, Customer> customers = new HashMap<>();
-    private static HashMap<String, String> passwordHashes = new HashMap<>();
+	private static ConcurrentHashMap<String, Customer> customers = new ConcurrentHashMap<>();
+    // hashes are parsed once when stored, so logging in only hashes the password typed in
+    private static ConcurrentHashMap<String, PasswordHash> passwordHashes = new ConcurrentHashMap<>();
+    // passwords are checked on a bounded pool sized to the cores, so a reconnect storm queues for the CPU instead of
+    // every session hashing at once, and logins no longer wait for each other behind one lock
+    private static final ThreadPoolExecutor authPool = newAuthPool();
     
     // Constructor
     public SecureDataStore(){
@@ -23,23 +31,29 @@ public class SecureDataStore {
    // Create a new customer object with associated information
     public static boolean addNewCustomer(String username, String inputPassword, String address, 
     String contactNumber, String email){
+        // Validate the entered password on setup, before the customer is stored or journaled
+        if(!passwordMeetsRequirements(inputPassword)){
+            return false;
+        }
+
         // store username and user object
+        Customer customerObj;
         if(customers.get(username) == null){
-            Customer customerObj = new Customer(username, address, contactNumber, email);
-            customers.put(username, customerObj);
+            customerObj = new Customer(username, address, contactNumber, email);
+            if(customers.putIfAbsent(username, customerObj) != null){
+                // another session registered the same username first
+                return false;
+            }
         } else {
             // username already exists
             return false;
         } 
-        
-        // Validate the entered password on setup
-        if(!passwordMeetsRequirements(inputPassword)){
-            return false;
-        }
 
         // store password
         try{
-            passwordHashes.put(username, newPasswordHash(inputPassword));
+            String passwordHash = newPasswordHash(inputPassword);
+            passwordHashes.put(username, PasswordHash.parse(passwordHash));
+            LedgerJournal.customerAdded(customerObj, passwordHash);
             return true;
         } catch (NoSuchAlgorithmException e){
             return false;
@@ -48,6 +62,19 @@ public class SecureDataStore {
         }
    }
 
+    // Fetch the stored password hash of a customer, null if none has been stored yet
+    static String getPasswordHash(String username){
+        PasswordHash passwordHash = passwordHashes.get(username);
+        return passwordHash == null ? null : passwordHash.getEncoded();
+    }
+
+    // Recreate a customer from the journal with its stored password hash and sort code
+    static void restoreCustomer(String username, String passwordHash, String address, String contactNumber,
+    String email, int sortCode){
+        customers.put(username, new Customer(username, address, contactNumber, email, sortCode));
+        passwordHashes.put(username, PasswordHash.parse(passwordHash));
+    }
+
     // Fetch customer object by its username (polymorphic)
     public static Customer getCustomer(String username){
         return customers.get(username);
@@ -58,19 +85,39 @@ public class SecureDataStore {
         return customers.get(customerID.getKey());
     }
 
-    // Validate log in details entered by customer
-	public static synchronized CustomerID checkLogInDetails(String username, String password) {
-        // validate username
-        if(customers.containsKey(username)) {
-            // get customer ID
-			CustomerID currentCustomerID = new CustomerID(username);
-
-            // validate password
-			if(validatePassword(username, password)){
-				return currentCustomerID;
-			}
-		}
-		return null;
+    // Validate log in details entered by customer, waiting for the check on the authentication pool
+	public static CustomerID checkLogInDetails(String username, String password) {
+        try {
+            return checkLogInDetailsAsync(username, password).join();
+        } catch (RejectedExecutionException e) {
+            System.out.println("Log in for " + username + " rejected, too many log ins waiting");
+            return null;
+        }
+    }
+
+    /*
+     * Validate log in details on the authentication pool. The future completes with the customer ID token, or null if
+     * the details are wrong. Throws RejectedExecutionException if too many log ins are already waiting.
+     */
+    public static CompletableFuture<CustomerID> checkLogInDetailsAsync(String username, String password) {
+        return CompletableFuture.supplyAsync(() -> {
+            // validate username and password
+            if(customers.containsKey(username) && validatePassword(username, password)){
+                return new CustomerID(username);
+            }
+            return null;
+        }, authPool);
+    }
+
+    private static ThreadPoolExecutor newAuthPool() {
+        int threads = BankConfig.authThreads();
+        AtomicInteger count = new AtomicInteger();
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(BankConfig.authQueueLength()), runnable -> {
+                    Thread thread = new Thread(runnable, "auth-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
     }
 
     // Returns collection of customers stored in data store
@@ -113,33 +160,8 @@ public class SecureDataStore {
             return false;
         }
 
-        // get encoded password stored for username
-        String userHash = passwordHashes.get(username);
-
-        // validate the input password
-        try {
-            // separate stored hash into its sections
-            String[] parts = userHash.split(":");
-            int iterations = Integer.parseInt(parts[0]); // find iterations used
-            byte[] salt = getBytesFromHex(parts[1]); // find salt used
-            byte[] hash = getBytesFromHex(parts[2]); // find password hash used
-
-            // using the same salt and iterations as stored password, encode inputPassword
-            PBEKeySpec spec = new PBEKeySpec(inputPassword.toCharArray(), salt, iterations, hash.length * 8);
-            SecretKeyFactory skf = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
-            byte[] testHash = skf.generateSecret(spec).getEncoded();
-
-            // if there is no difference between the two encoded passwords, return true
-            int diff = hash.length ^ testHash.length;
-            for(int i = 0; i < hash.length && i < testHash.length; i++) {
-                diff |= hash[i] ^ testHash[i];
-            }
-            return diff == 0;
-        } catch (NoSuchAlgorithmException e){
-            return false;
-        } catch (InvalidKeySpecException e){
-            return false;
-        }
+        // check the input password against the stored hash
+        return passwordHashes.get(username).matches(inputPassword);
     }
     
     // Encrypt a new password
@@ -151,14 +173,8 @@ public class SecureDataStore {
         char[] charPassword = inputPassword.toCharArray(); // strings are immutable but char arrays can be overwritten after use (more secure)
         byte[] salt = getSalt();
 
-        // password based encryption: convert the password characters
-        PBEKeySpec spec = new PBEKeySpec(charPassword, salt, iterations, 64 * 8);
-
-        // create 'SecretKeyFactory' object for converting 'PBKDF2WithHmacSHA1' algorithm keys and key specifications
-        SecretKeyFactory skf = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
-
-        // generate secret key object from specification and encode as a byte array
-        byte[] hash = skf.generateSecret(spec).getEncoded();
+        // password based encryption of the password characters, with this thread's 'SecretKeyFactory'
+        byte[] hash = PasswordHash.hash(charPassword, salt, iterations, 64);
 
         return iterations + ":" + getHexFromBytes(salt) + ":" + getHexFromBytes(hash);
     }
@@ -191,15 +207,5 @@ public class SecureDataStore {
             return hex;
         }
     }
-    
-    // Convert hexidecimal string to byte array
-    private static byte[] getBytesFromHex(String hex) throws NoSuchAlgorithmException {
-        // convert hexadecimal string to byte array
-		byte[] bytes = new byte[hex.length() / 2];
-		for(int i = 0; i < bytes.length; i++) {
-			bytes[i] = (byte)Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
-		}
-		return bytes;
-	}
    
 }
@@ -0,0 +1,156 @@
+package newbank.server;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import newbank.metrics.LatencyRecorder;
+
+/*
+ * Metrics of the running server: the count, failures and latency of each command run by processRequest, the time
+ * taken to check a log in, how often a command had to wait for an account lock and for how long, the number of
+ * sessions, and how many payments to another shard were made and how many of them had to be compensated. They are
+ * cheap enough to record all the time (see LatencyRecorder) and are read with the STATS command or over JMX, where
+ * the server is newbank:type=Server and each latency is newbank:type=Latency,name=<command>, with name=LOGIN for log
+ * ins and name=LOCKWAIT for lock waits.
+ */
+final class ServerMetrics implements ServerMetricsMBean {
+
+	private static final ServerMetrics metrics = new ServerMetrics();
+
+	// one recorder per command name, filled when the class is loaded and only read after
+	private final Map<String, LatencyRecorder> commands = new HashMap<>();
+	private final LatencyRecorder logins = new LatencyRecorder();
+	private final LatencyRecorder lockWaits = new LatencyRecorder();
+	private final AtomicInteger activeSessions = new AtomicInteger();
+	private final LongAdder sessionsOpened = new LongAdder();
+	private final LongAdder lockAcquisitions = new LongAdder();
+	private final LongAdder crossShardTransfers = new LongAdder();
+	private final LongAdder transfersCompensated = new LongAdder();
+
+	private ServerMetrics() {
+		for (String name : Command.commandNames()) {
+			commands.put(name, new LatencyRecorder());
+		}
+	}
+
+	// Records a command run by processRequest, a response ending with FAIL counts as failed
+	static void commandRun(Command command, long nanos, String response) {
+		boolean failed = response.startsWith("FAIL") || response.endsWith("FAIL\n");
+		commandRun(command.getName(), nanos, failed);
+	}
+
+	// Records a command run by name, e.g. by the binary protocol
+	static void commandRun(String name, long nanos, boolean failed) {
+		metrics.commands.get(name).record(nanos, failed);
+	}
+
+	// Records the time taken to check a log in
+	static void loggedIn(long nanos, boolean failed) {
+		metrics.logins.record(nanos, failed);
+	}
+
+	// Records an account lock taken, and the time waited for it when another command held it
+	static void lockAcquired() {
+		metrics.lockAcquisitions.increment();
+	}
+
+	static void lockWaited(long nanos) {
+		metrics.lockWaits.record(nanos, false);
+	}
+
+	// Counts a payment to another shard that was reserved, and one of them that was compensated instead of settled
+	static void transferReserved() {
+		metrics.crossShardTransfers.increment();
+	}
+
+	static void transferCompensated() {
+		metrics.transfersCompensated.increment();
+	}
+
+	// Counts a client connecting and disconnecting
+	static void sessionOpened() {
+		metrics.activeSessions.incrementAndGet();
+		metrics.sessionsOpened.increment();
+	}
+
+	static void sessionClosed() {
+		metrics.activeSessions.decrementAndGet();
+	}
+
+	// Accessor: Get the metrics of this server
+	static ServerMetrics get() {
+		return metrics;
+	}
+
+	// Makes the metrics readable over JMX, e.g. with jconsole, called once when the server starts
+	static void registerMBeans() {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			server.registerMBean(metrics, new ObjectName("newbank:type=Server"));
+			for (Map.Entry<String, LatencyRecorder> command : metrics.commands.entrySet()) {
+				server.registerMBean(command.getValue(), new ObjectName("newbank:type=Latency,name=" + command.getKey()));
+			}
+			server.registerMBean(metrics.logins, new ObjectName("newbank:type=Latency,name=LOGIN"));
+			server.registerMBean(metrics.lockWaits, new ObjectName("newbank:type=Latency,name=LOCKWAIT"));
+		} catch (JMException e) {
+			System.out.println("The metrics could not be registered with JMX: " + e);
+		}
+	}
+
+	public int getActiveSessions() {
+		return activeSessions.get();
+	}
+
+	public long getSessionsOpened() {
+		return sessionsOpened.sum();
+	}
+
+	public long getLockAcquisitions() {
+		return lockAcquisitions.sum();
+	}
+
+	public long getLockWaits() {
+		return lockWaits.getCount();
+	}
+
+	public long getCrossShardTransfers() {
+		return crossShardTransfers.sum();
+	}
+
+	public long getTransfersCompensated() {
+		return transfersCompensated.sum();
+	}
+
+	// The metrics as text, latencies in milliseconds
+	public String getReport() {
+		StringBuilder report = new StringBuilder();
+		report.append("Sessions: ").append(getActiveSessions()).append(" active, ").append(getSessionsOpened())
+				.append(" opened\n");
+		report.append("Log ins: ").append(logins.snapshot().toString(1e6, "ms")).append(", ")
+				.append(logins.getErrors()).append(" failed\n");
+		report.append("Lock waits: ").append(getLockWaits()).append(" of ").append(getLockAcquisitions())
+				.append(" account locks taken had to wait, ").append(lockWaits.snapshot().toString(1e6, "ms"))
+				.append('\n');
+		report.append("Payments to another shard: ").append(getCrossShardTransfers()).append(", ")
+				.append(getTransfersCompensated()).append(" compensated\n");
+		report.append("Commands:\n");
+		for (String name : Command.commandNames()) {
+			LatencyRecorder command = commands.get(name);
+			if (command.getCount() > 0) {
+				report.append(name).append(": ").append(command.snapshot().toString(1e6, "ms")).append(", ")
+						.append(command.getErrors()).append(" failed\n");
+			}
+		}
+		report.append("Jobs:\n");
+		for (BankScheduler.Job job : NewBank.getBank().getScheduler().getJobs()) {
+			report.append(job).append('\n');
+		}
+		return report.toString();
+	}
+}
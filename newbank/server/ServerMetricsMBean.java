@@ -0,0 +1,20 @@
+package newbank.server;
+
+// The JMX view of the server's metrics, see ServerMetrics
+public interface ServerMetricsMBean {
+
+	int getActiveSessions();
+
+	long getSessionsOpened();
+
+	long getLockAcquisitions();
+
+	long getLockWaits();
+
+	long getCrossShardTransfers();
+
+	long getTransfersCompensated();
+
+	// The same report as the STATS command
+	String getReport();
+}
@@ -0,0 +1,119 @@
+package newbank.server;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/*
+ * Session tokens let a client that lost its connection log in again with RESUME <token> instead of its password, so a
+ * reconnect costs one HMAC instead of a PBKDF2 hash. A token is issued after each successful log in and looks like
+ * <username>.<expiry>.<id>.<signature>: the username in base64, the expiry time in milliseconds, a random id and an
+ * HMAC-SHA256 of the rest under a key chosen when the server starts.
+ *
+ * Issued tokens are also kept in a bounded cache. A token is only accepted while it is in the cache and has not
+ * expired, so logging out revokes it, and when the cache is full the least recently used token is evicted and its
+ * client has to log in with its password again. Tokens do not survive a restart of the server.
+ */
+final class SessionTokens {
+
+	private static final String ALGORITHM = "HmacSHA256";
+	private static final Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+	private static final Base64.Decoder decoder = Base64.getUrlDecoder();
+
+	private static final SecureRandom random = new SecureRandom();
+	private static final byte[] key = newKey();
+	// Mac objects are not safe to share between threads
+	private static final ThreadLocal<Mac> mac = ThreadLocal.withInitial(() -> {
+		try {
+			Mac instance = Mac.getInstance(ALGORITHM);
+			instance.init(new SecretKeySpec(key, ALGORITHM));
+			return instance;
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException(ALGORITHM + " is not available", e);
+		}
+	});
+
+	private static final long ttlMillis = BankConfig.sessionTokenMinutes() * 60 * 1000;
+	private static final int maxTokens = BankConfig.maxSessionTokens();
+	// token id to username, least recently used first, guarded by itself
+	private static final LinkedHashMap<String, String> tokens = new LinkedHashMap<>(1024, 0.75f, true) {
+		protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+			return size() > maxTokens;
+		}
+	};
+
+	private SessionTokens() {
+	}
+
+	private static byte[] newKey() {
+		byte[] newKey = new byte[32];
+		random.nextBytes(newKey);
+		return newKey;
+	}
+
+	// Issues a token for a customer who has just logged in with their password
+	static String issue(String username) {
+		byte[] id = new byte[12];
+		random.nextBytes(id);
+		String tokenId = encoder.encodeToString(id);
+		String payload = encoder.encodeToString(username.getBytes(StandardCharsets.UTF_8)) + "."
+				+ (System.currentTimeMillis() + ttlMillis) + "." + tokenId;
+		synchronized (tokens) {
+			tokens.put(tokenId, username);
+		}
+		return payload + "." + encoder.encodeToString(sign(payload));
+	}
+
+	// Checks a token and returns the customer it was issued to, or null if it is invalid, expired, revoked or evicted
+	static CustomerID resume(String token) {
+		int signatureStart = token.lastIndexOf('.');
+		int idStart = token.lastIndexOf('.', signatureStart - 1);
+		int expiryStart = token.lastIndexOf('.', idStart - 1);
+		if (expiryStart <= 0) {
+			return null;
+		}
+		String payload = token.substring(0, signatureStart);
+		byte[] signature;
+		long expiry;
+		String username;
+		try {
+			signature = decoder.decode(token.substring(signatureStart + 1));
+			expiry = Long.parseLong(token, expiryStart + 1, idStart, 10);
+			username = new String(decoder.decode(token.substring(0, expiryStart)), StandardCharsets.UTF_8);
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+		if (!MessageDigest.isEqual(signature, sign(payload)) || expiry < System.currentTimeMillis()) {
+			return null;
+		}
+		String tokenId = token.substring(idStart + 1, signatureStart);
+		synchronized (tokens) {
+			if (!username.equals(tokens.get(tokenId))) {
+				return null;
+			}
+		}
+		return SecureDataStore.getCustomer(username) == null ? null : new CustomerID(username);
+	}
+
+	// Revokes a token when its customer logs out, unknown or invalid tokens are ignored
+	static void revoke(String token) {
+		int signatureStart = token.lastIndexOf('.');
+		int idStart = token.lastIndexOf('.', signatureStart - 1);
+		if (idStart < 0) {
+			return;
+		}
+		synchronized (tokens) {
+			tokens.remove(token.substring(idStart + 1, signatureStart));
+		}
+	}
+
+	private static byte[] sign(String payload) {
+		return mac.get().doFinal(payload.getBytes(StandardCharsets.US_ASCII));
+	}
+}
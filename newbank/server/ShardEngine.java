@@ -0,0 +1,243 @@
+package newbank.server;
+
+import java.io.UncheckedIOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/*
+ * Runs requests on shards of the bank instead of on the sessions' own threads. Customers, and with them their accounts,
+ * are split into shards by sort code, and each shard is owned by one writer thread that takes the requests of its
+ * customers from a ring buffer, one after another, so the accounts of a shard are only ever changed by its writer.
+ *
+ * The ring is an array of slots allocated once (in the style of the LMAX Disruptor). A session claims the next
+ * sequence number, fills the slot it maps to, marks the slot published with that number and waits for its reply. The
+ * writer takes every published slot in sequence order, runs them, commits the journal once for all of them and only
+ * then hands out the replies, so the requests taken together share one fsync. A session finding the ring full waits
+ * for the writer to free a slot.
+ *
+ * A PAY to a customer on another shard, and each such payment of a PAYBATCH, is made in legs, each run by the shard
+ * whose account it changes (see CrossShardTransfer). LOAN and REPAY are exempt: they are still run whole by the writer
+ * of the requesting customer's shard, even when the other customer is on another shard. A loan or a repayment moves
+ * the money, and opens or closes the loan, in one journal record, which replay applies to both sides at once, so it
+ * cannot be split into legs without new records. The account locks (see AccountLocks) keep them safe against the
+ * other shard's writer, and they are rare enough that the contended locks cost nothing measurable. On a single shard
+ * the locks are never contended.
+ */
+final class ShardEngine {
+
+	private final Shard[] shards;
+	// each waiting thread has one reply it reuses for every request it sends
+	private final ThreadLocal<Reply> replies = ThreadLocal.withInitial(Reply::new);
+
+	ShardEngine(int shardCount, int ringSize) {
+		if (Integer.bitCount(ringSize) != 1) {
+			throw new IllegalArgumentException("The ring size must be a power of two, not " + ringSize);
+		}
+		shards = new Shard[shardCount];
+		for (int i = 0; i < shardCount; i++) {
+			shards[i] = new Shard(i, ringSize);
+			shards[i].start();
+		}
+	}
+
+	// Number of shards
+	int size() {
+		return shards.length;
+	}
+
+	// The shard of the customers with the given sort code
+	int shardOf(int sortCode) {
+		return Math.floorMod(sortCode, shards.length);
+	}
+
+	// Whether the calling thread is the writer of a shard, which runs anything it is given straight away
+	static boolean onWriterThread() {
+		return Thread.currentThread() instanceof Shard;
+	}
+
+	/*
+	 * Runs the task on the writer of the shard of the given sort code and returns its result once the journal records
+	 * it appended are on disk. A task that throws throws the same exception here. A writer runs the task itself, it
+	 * must never wait for another writer that may be waiting for it.
+	 */
+	<T> T execute(int sortCode, Supplier<T> task) {
+		if (onWriterThread()) {
+			return task.get();
+		}
+		Reply reply = replies.get();
+		reply.done = false;
+		shards[shardOf(sortCode)].publish(task, reply);
+		while (!reply.done) {
+			LockSupport.park(this);
+		}
+		return result(reply);
+	}
+
+	/*
+	 * Like execute, but gives up waiting for the result after the timeout and returns null, the task may still be run
+	 * later. The reply is not reused, the writer may still hand a result to it after the caller has moved on.
+	 */
+	<T> T execute(int sortCode, Supplier<T> task, long timeoutNanos) {
+		if (onWriterThread()) {
+			return task.get();
+		}
+		Reply reply = new Reply();
+		long deadline = System.nanoTime() + timeoutNanos;
+		shards[shardOf(sortCode)].publish(task, reply);
+		while (!reply.done) {
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0) {
+				return null;
+			}
+			LockSupport.parkNanos(this, remaining);
+		}
+		return result(reply);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T result(Reply reply) {
+		Object result = reply.result;
+		Throwable failure = reply.failure;
+		reply.result = null;
+		reply.failure = null;
+		if (failure instanceof RuntimeException) {
+			throw (RuntimeException) failure;
+		} else if (failure != null) {
+			throw (Error) failure;
+		}
+		return (T) result;
+	}
+
+	// Stops the writers once they have run every request already published
+	void shutdown() {
+		for (Shard shard : shards) {
+			shard.running = false;
+			LockSupport.unpark(shard);
+		}
+		for (Shard shard : shards) {
+			try {
+				shard.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	// The result of a request handed from a writer back to the thread waiting for it
+	private static final class Reply {
+		private final Thread waiter = Thread.currentThread();
+		private Object result;
+		private Throwable failure;
+		// written last by the writer, so the result is visible once it is seen
+		private volatile boolean done;
+	}
+
+	private static final class Slot {
+		// sequence number of the request in the slot, the slot is free for the next request once the writer took it
+		private volatile long published = -1;
+		private Supplier<?> task;
+		private Reply reply;
+	}
+
+	// One shard's ring and the writer thread that owns it
+	private static final class Shard extends Thread {
+		private final Slot[] ring;
+		private final int mask;
+		// next sequence number to claim, and the last one the writer has taken out of the ring
+		private final AtomicLong claimed = new AtomicLong();
+		private volatile long taken = -1;
+		private volatile boolean sleeping;
+		private volatile boolean running = true;
+		// requests taken in one go, kept until their journal records are committed
+		private final Reply[] batch;
+		private final Object[] results;
+		private final Throwable[] failures;
+
+		Shard(int index, int ringSize) {
+			super("newbank-shard-" + index);
+			setDaemon(true);
+			ring = new Slot[ringSize];
+			for (int i = 0; i < ringSize; i++) {
+				ring[i] = new Slot();
+			}
+			mask = ringSize - 1;
+			batch = new Reply[ringSize];
+			results = new Object[ringSize];
+			failures = new Throwable[ringSize];
+		}
+
+		// Claims a slot, waiting while the ring is full, fills it and wakes the writer if it sleeps
+		void publish(Supplier<?> task, Reply reply) {
+			long sequence = claimed.getAndIncrement();
+			while (sequence - taken > ring.length) {
+				LockSupport.parkNanos(1000);
+			}
+			Slot slot = ring[(int) sequence & mask];
+			slot.task = task;
+			slot.reply = reply;
+			slot.published = sequence;
+			if (sleeping) {
+				LockSupport.unpark(this);
+			}
+		}
+
+		public void run() {
+			long next = 0;
+			while (true) {
+				int count = 0;
+				// take every request published in sequence, up to a full ring
+				Slot slot = ring[(int) next & mask];
+				while (count < ring.length && slot.published == next) {
+					batch[count] = slot.reply;
+					try {
+						results[count] = slot.task.get();
+					} catch (RuntimeException | Error e) {
+						// the writer carries on with the next request, the exception is thrown to the session
+						failures[count] = e;
+					}
+					slot.task = null;
+					slot.reply = null;
+					count++;
+					taken = next++;
+					slot = ring[(int) next & mask];
+				}
+				if (count > 0) {
+					complete(count);
+					continue;
+				}
+				if (!running) {
+					return;
+				}
+				// nothing published: sleep until a session publishes, checking once more after saying so
+				sleeping = true;
+				if (slot.published != next && running) {
+					LockSupport.park(this);
+				}
+				sleeping = false;
+			}
+		}
+
+		// Commits the journal records of the requests taken and hands out their replies
+		private void complete(int count) {
+			// requests whose changes could not be written fail, the writer carries on
+			RuntimeException notWritten = null;
+			try {
+				LedgerJournal.commit();
+			} catch (UncheckedIOException e) {
+				notWritten = e;
+			}
+			for (int i = 0; i < count; i++) {
+				Reply reply = batch[i];
+				reply.result = results[i];
+				reply.failure = notWritten != null ? notWritten : failures[i];
+				batch[i] = null;
+				results[i] = null;
+				failures[i] = null;
+				reply.done = true;
+				LockSupport.unpark(reply.waiter);
+			}
+		}
+	}
+}
@@ -0,0 +1,126 @@
+package newbank.server;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * Append-only history of the transactions of one account, kept oldest first together with the day of each
+ * transaction, so the start of the 12 month statement window is found by binary search and a statement page only
+ * touches the transactions printed on it. Changed under the lock of the account that owns it, statements are also read
+ * without it through Customer.readAccounts, which retries a read that met a change.
+ */
+final class StatementLog {
+
+	// Number of transactions printed on each page of a statement
+	static final int PAGE_SIZE = 20;
+
+	// Builders are reused by each thread, but dropped after an unusually large statement so they do not stay big
+	private static final int MAX_KEPT_CAPACITY = 1 << 16;
+	private static final ThreadLocal<StringBuilder> builder = ThreadLocal.withInitial(() -> new StringBuilder(4096));
+
+	private Transaction[] transactions = new Transaction[8];
+	private long[] days = new long[8];	// epoch day of each transaction
+	private int size;
+
+	/*
+	 * Adds a transaction. Transactions nearly always arrive in date order and are simply appended, one dated before
+	 * the newest entry (e.g. posted on either side of midnight) is inserted in date order after those of its day.
+	 */
+	void append(Transaction transaction) {
+		if (size == transactions.length) {
+			transactions = Arrays.copyOf(transactions, size * 2);
+			days = Arrays.copyOf(days, size * 2);
+		}
+		long day = transaction.getDate().toEpochDay();
+		int index = size;
+		if (size > 0 && days[size - 1] > day) {
+			index = firstAfter(day);
+			System.arraycopy(transactions, index, transactions, index + 1, size - index);
+			System.arraycopy(days, index, days, index + 1, size - index);
+		}
+		transactions[index] = transaction;
+		days[index] = day;
+		size++;
+	}
+
+	// Index of the first transaction dated after the given epoch day
+	private int firstAfter(long day) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (days[middle] <= day) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	// Accessor: Get a copy of all transactions, oldest first
+	List<Transaction> copy() {
+		return new ArrayList<>(Arrays.asList(transactions).subList(0, size));
+	}
+
+	// Accessor: Get a copy of the transactions dated on or after the given day, oldest first
+	List<Transaction> copySince(LocalDate day) {
+		return new ArrayList<>(Arrays.asList(transactions).subList(firstAfter(day.toEpochDay() - 1), size));
+	}
+
+	// Accessor: Get the number of pages of the statement of transactions dated after the cut off date
+	int pages(LocalDate cutOffDate) {
+		int count = size - firstAfter(cutOffDate.toEpochDay());
+		return Math.max(1, (count + PAGE_SIZE - 1) / PAGE_SIZE);
+	}
+
+	/*
+	 * Copies one page of the statement of transactions dated after the cut off date into the array, newest first, and
+	 * returns how many were copied. The array holds at least PAGE_SIZE transactions.
+	 */
+	int copyPage(LocalDate cutOffDate, int page, Transaction[] into) {
+		int first = firstAfter(cutOffDate.toEpochDay());
+		int end = size - (page - 1) * PAGE_SIZE;
+		int start = Math.max(first, end - PAGE_SIZE);
+		int count = 0;
+		for (int i = end - 1; i >= start; i--) {
+			into[count++] = transactions[i];
+		}
+		return count;
+	}
+
+	/*
+	 * Prints one page of the statement of transactions dated after the cut off date, newest first. Page 1 holds the
+	 * newest transactions. A footer with the page number is added when the statement has more than one page.
+	 */
+	String print(Account account, LocalDate cutOffDate, int page) {
+		int first = firstAfter(cutOffDate.toEpochDay());
+		int pages = Math.max(1, (size - first + PAGE_SIZE - 1) / PAGE_SIZE);
+		int end = size - (page - 1) * PAGE_SIZE;
+		int start = Math.max(first, end - PAGE_SIZE);
+
+		StringBuilder statement = builder.get();
+		statement.setLength(0);
+		for (int i = end - 1; i >= start; i--) {
+			Transaction transaction = transactions[i];
+			char operator = ' ';
+			// If money leaving this account, add minus, if money entering this account, add plus
+			if (transaction.fromAccount == account) {
+				operator = '-';
+			} else if (transaction.toAccount == account) {
+				operator = '+';
+			}
+			transaction.appendTo(statement, operator);
+		}
+		if (pages > 1) {
+			statement.append("\nPage ").append(page).append(" of ").append(pages).append('\n');
+		}
+		String result = statement.toString();
+		if (statement.capacity() > MAX_KEPT_CAPACITY) {
+			builder.remove();
+		}
+		return result;
+	}
+}
@@ -0,0 +1,41 @@
+package newbank.server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/*
+ * The responses of the text protocol that never change, e.g. the INFO text and the prompts, encoded to UTF-8 once when
+ * the server starts so ResponseWriter copies their bytes instead of encoding them for every session. They are looked
+ * up by identity: each is a constant, the same String object wherever it is returned, and a response built at run time
+ * is never mistaken for one of them however equal its text.
+ */
+final class StaticResponses {
+
+	private static final Map<String, byte[]> encoded = new IdentityHashMap<>();
+
+	static {
+		String[] responses = {
+				NewBank.INFO,
+				Command.WRONG_PARAMETER_COUNT,
+				Command.INVALID_AMOUNT,
+				ClientSession.ENTER_USERNAME,
+				ClientSession.ENTER_PASSWORD,
+				ClientSession.LOG_IN_FAILED,
+				ClientSession.INTRODUCTION,
+				ClientSession.CONFIRM_PROMPT,
+				ClientSession.CANCELLED
+		};
+		for (String response : responses) {
+			encoded.put(response, response.getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	private StaticResponses() {
+	}
+
+	// The UTF-8 bytes of a static response, null for any other string
+	static byte[] get(String response) {
+		return encoded.get(response);
+	}
+}
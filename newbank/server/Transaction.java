@@ -2,33 +2,20 @@ package newbank.server;
 
 import java.time.LocalDate;
 import java.time.LocalTime;
-import java.util.concurrent.ConcurrentHashMap;
 
 public class Transaction {
+    // Name of the credit paying back a payment to another shard that could not be completed, see CrossShardTransfer
+    static final String REFUND = "Refund";
+
     LocalDate today, transactionDate;
     LocalTime transactionTime;
     Account fromAccount, toAccount;
     Customer fromCustomer, toCustomer;
     String fromAccountName, toAccountName;
-    double transactionAmount;
-    private static final double dailyLimit = 50000.0;
-    private static final ConcurrentHashMap<LocalDate, Double> dailyTransactions = new ConcurrentHashMap<>();
-
-    // Accessor: Get daily transaction limit
-    public static double getDailyLimit() { return dailyLimit; }
-
-    // Accessor: Get daily transaction total
-    public static ConcurrentHashMap<LocalDate, Double> getDailyTransactions() {
-        return dailyTransactions;
-    }
-
-    // Mutator: Reset daily transaction limit each day
-    public static void resetDailyTransactionLimit() {
-        dailyTransactions.clear();
-    }
+    long transactionAmount;	// in pence
 
     // Constructor
-    public Transaction(Account fromAccount, Account toAccount, double amount){
+    public Transaction(Account fromAccount, Account toAccount, long amount){
         this.setToday();  
         this.fromAccount = fromAccount;
         this.toAccount = toAccount;
@@ -42,15 +29,48 @@ public class Transaction {
         this.transactionAmount = amount;
     }
 
+    // Constructor for money paid in by the bank itself, e.g. interest, which has no account it comes from
+    public Transaction(Account toAccount, long amount){
+        this(toAccount, amount, "Interest");
+    }
+
+    // Constructor for money paid in by the bank for the given reason, shown in place of the account it comes from
+    Transaction(Account toAccount, long amount, String creditName){
+        this.setToday();
+        this.toAccount = toAccount;
+        this.toCustomer = toAccount.getOwner();
+        this.fromAccountName = creditName;
+        this.toAccountName = toAccount.getAccountName();
+        this.transactionAmount = amount;
+    }
+
+    // Mutator: Add the transaction to the statements of both accounts and record it in the journal
+    public void post() {
+        fromAccount.addTransaction(this);
+        toAccount.addTransaction(this);
+        LedgerJournal.transaction(this);
+    }
+
     // Write transaction as string (for statements)
     public String toString(char operator){
-        String statementRecord = "\n" + this.transactionDate 
-        + "\t" + operator + "£" + this.transactionAmount
-        + "\nFrom: " + this.fromAccount.getIBAN() 
-        + " (" + this.fromCustomer.getUsername() + ", " + this.fromAccountName 
-        + ")\nTo: " + this.toAccount.getIBAN()
-        + " (" + this.toCustomer.getUsername() + ", " + this.toAccountName + ")\n";
-        return statementRecord;
+        return appendTo(new StringBuilder(128), operator).toString();
+    }
+
+    // Append transaction to a statement being built
+    public StringBuilder appendTo(StringBuilder statement, char operator){
+        statement.append('\n').append(this.transactionDate)
+        .append('\t').append(operator).append('£');
+        Money.appendTo(statement, this.transactionAmount)
+        .append("\nFrom: ");
+        if (this.fromAccount == null) {
+            statement.append("NewBank (").append(this.fromAccountName);
+        } else {
+            statement.append(this.fromAccount.getIBAN())
+            .append(" (").append(this.fromCustomer.getUsername()).append(", ").append(this.fromAccountName);
+        }
+        statement.append(")\nTo: ").append(this.toAccount.getIBAN())
+        .append(" (").append(this.toCustomer.getUsername()).append(", ").append(this.toAccountName).append(")\n");
+        return statement;
     }
 
     // Mutator: Update today value to today's date
@@ -0,0 +1,117 @@
+package newbank.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+/*
+ * IBANs are parsed into long keys, and the accounts are found by key in an open-addressing table that grows as it
+ * fills, also while other threads are looking accounts up.
+ */
+class AccountIndexTest {
+
+	private final Customer customer = new Customer("indexTest", "1 Test Road", "07000000000", "test@test.com");
+
+	@Test
+	void keyHoldsTheSortCodeAndAccountNumber() {
+		assertEquals(AccountIndex.key(100003, 1000003), AccountIndex.key("GB001000031000003"));
+		assertEquals(AccountIndex.key(7, 1000001), AccountIndex.key("GB0071000001"));
+		assertEquals(AccountIndex.key(Integer.MAX_VALUE, 9999999), AccountIndex.key("GB0021474836479999999"));
+	}
+
+	@Test
+	void textThatIsNotAnIbanHasNoKey() {
+		for (String text : new String[] { "", "GB00", "1000003", "GB001000003", "XX001000031000003", "GB011000031000003",
+				"GB000100031000003", "GB00100003100000A", "GB00-100031000003", "GB0021474836481000003",
+				"GB00123456789011000003" }) {
+			assertEquals(AccountIndex.NO_KEY, AccountIndex.key(text), text);
+		}
+		assertNull(new AccountIndex().get(AccountIndex.NO_KEY));
+	}
+
+	@Test
+	void accountsAreFoundAfterTheTableHasGrown() {
+		AccountIndex index = new AccountIndex();
+		List<Account> accounts = new ArrayList<>();
+		// well past 70% of the first table of 1024 slots, so it grows several times
+		for (int i = 0; i < 5000; i++) {
+			Account account = new CurrentAccount("Index" + i, 0, customer);
+			index.put(account);
+			accounts.add(account);
+		}
+
+		assertEquals(accounts.size(), index.size());
+		for (Account account : accounts) {
+			assertSame(account, index.get(AccountIndex.key(account.getIBAN())));
+			assertSame(account, Account.getAccountFromIBAN(account.getIBAN()));
+		}
+		assertNull(index.get(AccountIndex.key(customer.getSortCode(), 999)));
+		Set<Account> listed = new HashSet<>(index.values());
+		assertEquals(new HashSet<>(accounts), listed);
+	}
+
+	@Test
+	void ibanHasAFixedWidthAccountNumber() {
+		assertEquals("GB001000030000042", AccountIndex.iban(100003, 42));
+		assertEquals("GB0071000001", AccountIndex.iban(7, 1000001));
+		long key = AccountIndex.key(AccountIndex.iban(100003, 42));
+		assertEquals(100003, AccountIndex.sortCode(key));
+		assertEquals(42, AccountIndex.accountNumber(key));
+		assertThrows(IllegalArgumentException.class, () -> AccountIndex.iban(100003, AccountIndex.MAX_ACCOUNT_NUMBER + 1));
+	}
+
+	@Test
+	void secondAccountUnderTheSameKeyIsRefused() {
+		AccountIndex index = new AccountIndex();
+		Account account = new CurrentAccount("Twice", 0, customer);
+		index.put(account);
+		assertThrows(IllegalStateException.class, () -> index.put(account));
+		assertEquals(1, index.size());
+		assertSame(account, index.get(account.getIbanKey()));
+	}
+
+	@Test
+	void lookupsWhileTheTableGrowsFindEveryAccountAlreadyAdded() throws InterruptedException {
+		AccountIndex index = new AccountIndex();
+		int total = 20000;
+		Account[] accounts = new Account[total];
+		for (int i = 0; i < total; i++) {
+			accounts[i] = new CurrentAccount("Grow" + i, 0, customer);
+		}
+		AtomicInteger added = new AtomicInteger();
+		AtomicInteger missed = new AtomicInteger();
+		List<Thread> readers = new ArrayList<>();
+		for (int r = 0; r < 4; r++) {
+			Thread reader = new Thread(() -> {
+				while (added.get() < total) {
+					int known = added.get();
+					for (int i = Math.max(0, known - 64); i < known; i++) {
+						if (index.get(accounts[i].getIbanKey()) != accounts[i]) {
+							missed.incrementAndGet();
+						}
+					}
+				}
+			});
+			reader.start();
+			readers.add(reader);
+		}
+		for (int i = 0; i < total; i++) {
+			index.put(accounts[i]);
+			added.set(i + 1);
+		}
+		for (Thread reader : readers) {
+			reader.join();
+		}
+		assertEquals(0, missed.get());
+		assertEquals(total, index.size());
+	}
+}
@@ -0,0 +1,72 @@
+package newbank.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/*
+ * A PAY or MOVE frame carries its amount as a long in pence, which is held to the same bounds as an amount typed in
+ * the text protocol: at least a penny and at most Money.MAX_AMOUNT.
+ */
+class BinarySessionTest {
+
+	@BeforeAll
+	static void useEmptyDataDirectory() throws IOException {
+		System.setProperty("newbank.data", Files.createTempDirectory("newbank-test").toString());
+		System.setProperty("newbank.snapshot.intervalMinutes", "0");
+	}
+
+	@Test
+	void amountsOutsideTheTextProtocolsBoundsAreBadRequests() {
+		NewBank bank = NewBank.getBank();
+		SecureDataStore.addNewCustomer("binaryPayer", "Password123!", "1 Test Road", "07000000000", "test@test.com");
+		Customer payer = SecureDataStore.getCustomer("binaryPayer");
+		Account main = new CurrentAccount("Main", 100_00, payer);
+		Account savings = new SavingsAccount("Savings", 0, payer);
+		payer.addAccount(main);
+		payer.addAccount(savings);
+		SecureDataStore.addNewCustomer("binaryPayee", "Password123!", "1 Test Road", "07000000000", "test@test.com");
+		Customer payee = SecureDataStore.getCustomer("binaryPayee");
+		Account payeeMain = new CurrentAccount("Main", 0, payee);
+		payee.addAccount(payeeMain);
+		BinarySession session = new BinarySession(bank);
+		assertEquals(BinaryProtocol.OK, session.handle(logIn("binaryPayer", "Password123!")).get(8));
+
+		for (long amount : new long[] { 0, -1, Money.MAX_AMOUNT + 1, Long.MAX_VALUE }) {
+			assertEquals(BinaryProtocol.BAD_REQUEST,
+					session.handle(transfer(BinaryProtocol.PAY, amount, main, payeeMain)).get(8));
+			assertEquals(BinaryProtocol.BAD_REQUEST,
+					session.handle(transfer(BinaryProtocol.MOVE, amount, main, savings)).get(8));
+		}
+		// the largest amount accepted is refused for its funds, not its size
+		assertEquals(BinaryProtocol.INSUFFICIENT_FUNDS,
+				session.handle(transfer(BinaryProtocol.MOVE, Money.MAX_AMOUNT, main, savings)).get(8));
+		assertEquals(BinaryProtocol.OK, session.handle(transfer(BinaryProtocol.PAY, 1, main, payeeMain)).get(8));
+		assertEquals(100_00 - 1, main.getBalance());
+		assertEquals(1, payeeMain.getBalance());
+	}
+
+	// A LOGIN request from its request id on, as BinarySession.handle takes it
+	private static ByteBuffer logIn(String username, String password) {
+		byte[] name = username.getBytes(StandardCharsets.UTF_8);
+		byte[] secret = password.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer request = ByteBuffer.allocate(7 + name.length + secret.length);
+		request.putInt(1).put(BinaryProtocol.LOGIN);
+		request.put((byte) name.length).put(name).put((byte) secret.length).put(secret);
+		return request.flip();
+	}
+
+	private static ByteBuffer transfer(byte opcode, long amount, Account from, Account to) {
+		ByteBuffer request = ByteBuffer.allocate(Integer.BYTES + 1 + Long.BYTES + 16);
+		request.putInt(2).put(opcode).putLong(amount);
+		BinaryProtocol.putIban(request, from);
+		BinaryProtocol.putIban(request, to);
+		return request.flip();
+	}
+}
@@ -0,0 +1,70 @@
+package newbank.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/*
+ * A trailing CONFIRM word confirms a command that asks for confirmation in advance. For any other request it is left
+ * as one of the request's words.
+ */
+class ClientSessionTest {
+
+	private final List<String> printed = new ArrayList<>();
+	private Customer customer;
+
+	@BeforeAll
+	static void useEmptyDataDirectory() throws IOException {
+		System.setProperty("newbank.data", Files.createTempDirectory("newbank-test").toString());
+		System.setProperty("newbank.snapshot.intervalMinutes", "0");
+	}
+
+	@Test
+	void confirmIsOnlyTakenOffCommandsThatAskForConfirmation() {
+		ClientSession session = logIn("confirmTest");
+		Account main = customer.getAccountByName("Main");
+		Account savings = customer.getAccountByName("Savings");
+		Account named = customer.getAccountByName("CONFIRM");
+
+		session.handleLine("MOVE 10 Main Savings CONFIRM");
+		assertEquals(List.of("SUCCESS\n"), printed);
+		assertEquals(90_00, main.getBalance());
+		assertEquals(10_00, savings.getBalance());
+
+		// without the word the request is missing its account, so CONFIRM names the account and the move is confirmed
+		printed.clear();
+		session.handleLine("MOVE 5 Main CONFIRM");
+		assertEquals(List.of("You are attempting to send 5.00 from Main to CONFIRM", ClientSession.CONFIRM_PROMPT),
+				printed);
+		printed.clear();
+		session.handleLine("Y");
+		assertEquals(List.of("SUCCESS\n"), printed);
+		assertEquals(5_00, named.getBalance());
+
+		// invalid with or without the word, the reason is the one given without it
+		printed.clear();
+		session.handleLine("MOVE 0 Main Savings CONFIRM");
+		assertEquals(List.of(Command.INVALID_AMOUNT), printed);
+	}
+
+	// Opens a customer with a Main, Savings and CONFIRM account and logs in as them
+	private ClientSession logIn(String name) {
+		SecureDataStore.addNewCustomer(name, "Password123!", "1 Test Road", "07000000000", "test@test.com");
+		customer = SecureDataStore.getCustomer(name);
+		customer.addAccount(new CurrentAccount("Main", 100_00, customer));
+		customer.addAccount(new SavingsAccount("Savings", 0, customer));
+		customer.addAccount(new CurrentAccount("CONFIRM", 0, customer));
+		ClientSession session = new ClientSession(NewBank.getBank(), printed::add);
+		session.start();
+		session.handleLine(name);
+		session.handleLine("Password123!");
+		printed.clear();
+		return session;
+	}
+}
@@ -0,0 +1,115 @@
+package newbank.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/*
+ * Request lines are parsed once into typed commands with their parameters, and requests that cannot be run are parsed
+ * into a command answering with the reason.
+ */
+class CommandTest {
+
+	@Test
+	void parsesEachCommandWithItsParameters() {
+		Command.Pay pay = assertInstanceOf(Command.Pay.class, Command.parse("PAY 10.50 GB001000011000001 GB001000021000002"));
+		assertEquals(10_50, pay.amount);
+		assertEquals("GB001000011000001", pay.fromIBAN);
+		assertEquals("GB001000021000002", pay.toIBAN);
+
+		Command.Move move = assertInstanceOf(Command.Move.class, Command.parse("MOVE 100 Main Savings"));
+		assertEquals(100_00, move.amount);
+		assertEquals("Main", move.fromAccountName);
+		assertEquals("Savings", move.toAccountName);
+
+		Command.NewAccount newAccount = assertInstanceOf(Command.NewAccount.class, Command.parse("NEWACCOUNT SAVINGS Holiday"));
+		assertEquals("SAVINGS", newAccount.accountType);
+		assertEquals("Holiday", newAccount.accountName);
+
+		Command.Loan loan = assertInstanceOf(Command.Loan.class, Command.parse("LOAN CURRENT John 20"));
+		assertEquals("CURRENT", loan.lenderAccountType);
+		assertEquals("John", loan.borrowerUsername);
+		assertEquals(20_00, loan.amount);
+
+		assertInstanceOf(Command.Info.class, Command.parse("INFO"));
+		assertInstanceOf(Command.ShowMyAccounts.class, Command.parse("SHOWMYACCOUNTS"));
+		assertInstanceOf(Command.Repay.class, Command.parse("REPAY"));
+	}
+
+	@Test
+	void statementPageDefaultsToTheFirst() {
+		Command.PrintStatement first = assertInstanceOf(Command.PrintStatement.class,
+				Command.parse("PRINTSTATEMENT GB001000011000001"));
+		assertEquals("GB001000011000001", first.iban);
+		assertEquals(1, first.page);
+		assertEquals(3, assertInstanceOf(Command.PrintStatement.class, Command.parse("PRINTSTATEMENT GB001000011000001 3")).page);
+		assertInvalid("PRINTSTATEMENT GB001000011000001 two", "Invalid page number");
+	}
+
+	@Test
+	void wordsAreSeparatedByAnyNumberOfSpaces() {
+		Command.Pay pay = assertInstanceOf(Command.Pay.class, Command.parse("  PAY   1   A  B "));
+		assertEquals(1_00, pay.amount);
+		assertEquals("A", pay.fromIBAN);
+		assertEquals("B", pay.toIBAN);
+	}
+
+	@Test
+	void commandKeepsItsParametersWhenTheNextLineIsParsed() {
+		Command.Pay pay = (Command.Pay) Command.parse("PAY 1 FIRST SECOND");
+		Command.parse("PAY 2 THIRD FOURTH AND MANY MORE WORDS THAN BEFORE");
+		assertEquals("FIRST", pay.fromIBAN);
+		assertEquals("SECOND", pay.toIBAN);
+	}
+
+	@Test
+	void unknownAndEmptyRequestsAreInvalid() {
+		assertInvalid("TRANSFER 10 A B", "Your command TRANSFER is invalid");
+		assertInvalid("pay 10 A B", "Your command pay is invalid");
+		assertInvalid("", "is invalid");
+		assertInvalid("   ", "is invalid");
+	}
+
+	@Test
+	void wrongNumberOfParametersIsInvalid() {
+		assertInvalid("PAY 10 GB001000011000001", "number of specified parameters");
+		assertInvalid("PAY 10 A B C D E F G H I J", "number of specified parameters");
+		assertInvalid("NEWACCOUNT SAVINGS", "number of specified parameters");
+		assertInvalid("MOVE 10 Main", "MOVE <amount> <fromAccount> <toAccount>");
+		assertInvalid("PRINTSTATEMENT", "number of specified parameters");
+	}
+
+	@Test
+	void invalidAmountsAreInvalid() {
+		assertInvalid("PAY 1.234 A B", "Invalid amount input");
+		assertInvalid("PAY -5 A B", "Invalid amount input");
+		assertInvalid("MOVE ten Main Savings", "Invalid amount input");
+		assertInvalid("LOAN CURRENT John 1e3", "Invalid amount input");
+	}
+
+	@Test
+	void zeroAmountsAreInvalid() {
+		assertInvalid("PAY 0 A B", "Invalid amount input");
+		assertInvalid("PAY 0.00 A B", "Invalid amount input");
+		assertInvalid("MOVE 0 Main Savings", "Invalid amount input");
+		assertInvalid("LOAN CURRENT John .0", "Invalid amount input");
+	}
+
+	@Test
+	void confirmationNamesWhatIsAboutToHappen() {
+		assertEquals("You are attempting to send 10.50 from GB001000011000001 to GB001000021000002",
+				Command.parse("PAY 10.5 GB001000011000001 GB001000021000002").confirmationMessage());
+		assertEquals("You are attempting to send 0.01 from Main to Savings",
+				Command.parse("MOVE 0.01 Main Savings").confirmationMessage());
+		assertNull(Command.parse("SHOWMYACCOUNTS").confirmationMessage());
+		assertNull(Command.parse("PAY 10 A").confirmationMessage());
+	}
+
+	private static void assertInvalid(String request, String reason) {
+		Command.Invalid invalid = assertInstanceOf(Command.Invalid.class, Command.parse(request), request);
+		assertTrue(invalid.response.contains(reason), invalid.response);
+	}
+}
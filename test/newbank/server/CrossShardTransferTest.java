@@ -0,0 +1,206 @@
+package newbank.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/*
+ * A payment to a customer on another shard is settled on the payee's shard or compensated on the payer's, never both,
+ * and what the customer is told matches what happened to the balances. The bank runs with 3 shards and a timeout of
+ * 1 ms, so payments often time out while the payee's shard is about to settle them.
+ */
+class CrossShardTransferTest {
+
+	private static final String CANCELLED = "The payment could not be completed in time";
+
+	@BeforeAll
+	static void useShardedBank() throws IOException {
+		System.setProperty("newbank.data", Files.createTempDirectory("newbank-test").toString());
+		System.setProperty("newbank.snapshot.intervalMinutes", "0");
+		System.setProperty("newbank.shards", "3");
+		System.setProperty("newbank.transfer.timeoutMillis", "1");
+		NewBank.getBank();
+	}
+
+	@Test
+	void settleAndCompensateRaceAndExactlyOneWins() throws InterruptedException {
+		Account from = newCustomer("raceFrom", 1000_00);
+		Account to = newCustomer("raceTo", 0);
+		int transfers = 2000;
+		int settled = 0;
+		for (int i = 0; i < transfers; i++) {
+			CrossShardTransfer transfer = new CrossShardTransfer(from, to, 10);
+			assertEquals(NewBank.PaymentResult.PAID, transfer.reserve());
+			CountDownLatch start = new CountDownLatch(1);
+			boolean[] won = new boolean[2];
+			Thread settle = new Thread(() -> {
+				await(start);
+				won[0] = transfer.settle();
+			});
+			Thread compensate = new Thread(() -> {
+				await(start);
+				won[1] = transfer.compensate();
+			});
+			settle.start();
+			compensate.start();
+			start.countDown();
+			settle.join();
+			compensate.join();
+			assertNotEquals(won[0], won[1], "transfer " + i);
+			if (won[0]) {
+				settled++;
+			}
+		}
+
+		assertEquals(1000_00 - settled * 10L, from.getBalance());
+		assertEquals(settled * 10L, to.getBalance());
+		assertTrue(CrossShardTransfer.getPending().isEmpty());
+	}
+
+	@Test
+	void paymentWithoutTheFundsIsNotReserved() {
+		Account from = newCustomer("poorFrom", 5_00);
+		Account to = newCustomer("poorTo", 0);
+		CrossShardTransfer transfer = new CrossShardTransfer(from, to, 5_01);
+		assertEquals(NewBank.PaymentResult.INSUFFICIENT_FUNDS, transfer.reserve());
+		assertEquals(5_00, from.getBalance());
+		assertTrue(CrossShardTransfer.getPending().isEmpty());
+	}
+
+	@Test
+	void customersAreToldWhatHappenedToTheirMoney() throws InterruptedException {
+		NewBank bank = NewBank.getBank();
+		// consecutive customers get consecutive sort codes, so they are on different shards
+		int customers = 6;
+		long opening = 1000_00;
+		Account[] accounts = new Account[customers];
+		for (int c = 0; c < customers; c++) {
+			accounts[c] = newCustomer("shardPayer" + c, opening);
+		}
+		AtomicLongArray expected = new AtomicLongArray(customers);
+		for (int c = 0; c < customers; c++) {
+			expected.set(c, opening);
+		}
+		AtomicInteger paid = new AtomicInteger();
+		AtomicInteger cancelled = new AtomicInteger();
+		List<String> unexpected = new ArrayList<>();
+		AtomicLong started = new AtomicLong();
+		CountDownLatch start = new CountDownLatch(1);
+		List<Thread> payers = new ArrayList<>();
+		for (int c = 0; c < customers; c++) {
+			int payer = c;
+			Thread thread = new Thread(() -> {
+				await(start);
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				CustomerID id = new CustomerID("shardPayer" + payer);
+				for (int i = 0; i < 1000; i++) {
+					int payee = (payer + 1 + random.nextInt(customers - 1)) % customers;
+					long amount = random.nextLong(1, 100);
+					started.incrementAndGet();
+					String response = bank.processRequest(id, "PAY 0." + String.format("%02d", amount) + " "
+							+ accounts[payer].getIBAN() + " " + accounts[payee].getIBAN());
+					if (response.endsWith("SUCCESS\n")) {
+						expected.addAndGet(payer, -amount);
+						expected.addAndGet(payee, amount);
+						paid.incrementAndGet();
+					} else if (response.startsWith(CANCELLED)) {
+						cancelled.incrementAndGet();
+					} else {
+						synchronized (unexpected) {
+							unexpected.add(response);
+						}
+					}
+				}
+			});
+			thread.start();
+			payers.add(thread);
+		}
+		start.countDown();
+		for (Thread thread : payers) {
+			thread.join();
+		}
+
+		assertEquals(List.of(), unexpected);
+		assertEquals(started.get(), paid.get() + cancelled.get());
+		assertTrue(paid.get() > 0);
+		// a settlement that lost the race may still be queued, a request to each shard runs after it
+		for (int c = 0; c < customers; c++) {
+			bank.processRequest(new CustomerID("shardPayer" + c), "SHOWMYACCOUNTS");
+		}
+		long total = 0;
+		for (int c = 0; c < customers; c++) {
+			assertEquals(expected.get(c), accounts[c].getBalance(), "shardPayer" + c);
+			total += accounts[c].getBalance();
+		}
+		assertEquals(customers * opening, total);
+	}
+
+	@Test
+	void batchPaymentsToOtherShardsAreMadeInLegs() {
+		NewBank bank = NewBank.getBank();
+		Account from = newCustomer("batchShardFrom", 100_00);
+		// consecutive sort codes, payees 2 and 5 are on the payer's shard and the others are not
+		int customers = 6;
+		Account[] payees = new Account[customers];
+		for (int c = 0; c < customers; c++) {
+			payees[c] = newCustomer("batchShardTo" + c, 0);
+		}
+		int payments = 60;
+		Command.PayBatch batch = (Command.PayBatch) Command.parse("PAYBATCH " + payments);
+		for (int i = 0; i < payments; i++) {
+			batch.addLine("1 " + from.getIBAN() + " " + payees[i % customers].getIBAN());
+		}
+
+		String[] lines = bank.processRequest(new CustomerID("batchShardFrom"), batch).split("\n");
+		long[] expected = new long[customers];
+		long paid = 0;
+		for (int i = 0; i < payments; i++) {
+			int payee = i % customers;
+			if (lines[i].equals((i + 1) + " SUCCESS")) {
+				expected[payee] += 1_00;
+				paid += 1_00;
+			} else {
+				assertEquals((i + 1) + " FAIL: Not completed in time, not charged", lines[i]);
+				// only a payment to another shard can time out
+				assertTrue(payee != 2 && payee != 5, lines[i]);
+			}
+		}
+		// a settlement that lost the race may still be queued, a request to each shard runs after it
+		for (int c = 0; c < customers; c++) {
+			bank.processRequest(new CustomerID("batchShardTo" + c), "SHOWMYACCOUNTS");
+		}
+		assertEquals(100_00 - paid, from.getBalance());
+		for (int c = 0; c < customers; c++) {
+			assertEquals(expected[c], payees[c].getBalance(), "batchShardTo" + c);
+		}
+	}
+
+	private static Account newCustomer(String name, long balance) {
+		SecureDataStore.addNewCustomer(name, "Password123!", "1 Test Road", "07000000000", "test@test.com");
+		Customer customer = SecureDataStore.getCustomer(name);
+		Account account = new CurrentAccount("Main", balance, customer);
+		customer.addAccount(account);
+		return account;
+	}
+
+	private static void await(CountDownLatch start) {
+		try {
+			start.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
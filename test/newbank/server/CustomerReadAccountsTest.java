@@ -0,0 +1,152 @@
+package newbank.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/*
+ * Customer.readAccounts reads the accounts without locking them and runs the read again when a change started while
+ * it ran, so it never sees a change half made. A read that keeps meeting changes locks the accounts instead.
+ */
+class CustomerReadAccountsTest {
+
+	@BeforeAll
+	static void useEmptyDataDirectory() throws IOException {
+		System.setProperty("newbank.data", Files.createTempDirectory("newbank-test").toString());
+		System.setProperty("newbank.snapshot.intervalMinutes", "0");
+	}
+
+	@Test
+	void readRunsOnceWhenNothingChanges() {
+		Customer customer = newCustomer("readOnce");
+		AtomicInteger reads = new AtomicInteger();
+		assertEquals("read", customer.readAccounts(() -> {
+			reads.incrementAndGet();
+			return "read";
+		}));
+		assertEquals(1, reads.get());
+	}
+
+	@Test
+	void readIsRunAgainWhenAChangeStartedWhileItRan() {
+		Customer customer = newCustomer("readAgain");
+		AtomicInteger reads = new AtomicInteger();
+		int result = customer.readAccounts(() -> {
+			int read = reads.incrementAndGet();
+			if (read < 3) {
+				customer.changeStarted();
+				customer.changeFinished();
+			}
+			return read;
+		});
+		assertEquals(3, result);
+	}
+
+	@Test
+	void failureOfAReadMeetingAChangeIsRetriedAndOtherwiseThrown() {
+		Customer customer = newCustomer("readFails");
+		AtomicInteger reads = new AtomicInteger();
+		assertEquals("second", customer.readAccounts(() -> {
+			if (reads.incrementAndGet() == 1) {
+				customer.changeStarted();
+				customer.changeFinished();
+				throw new IndexOutOfBoundsException("statement grown meanwhile");
+			}
+			return "second";
+		}));
+
+		IllegalStateException thrown = new IllegalStateException("broken");
+		assertSame(thrown, assertThrows(IllegalStateException.class, () -> customer.readAccounts(() -> {
+			throw thrown;
+		})));
+	}
+
+	@Test
+	void readThatKeepsMeetingChangesWaitsForTheAccountLocks() throws InterruptedException {
+		Customer customer = newCustomer("readLocked");
+		Account main = customer.getAccountByName("Main");
+		// a change holds the lock of one account, so no optimistic read can run
+		Account[] locked = AccountLocks.lockAll(main);
+		AtomicInteger reads = new AtomicInteger();
+		AtomicLong seen = new AtomicLong(-1);
+		Thread reader = new Thread(() -> seen.set(customer.readAccounts(() -> {
+			reads.incrementAndGet();
+			return main.getBalance();
+		})));
+		reader.start();
+		try {
+			reader.join(200);
+			assertTrue(reader.isAlive());
+			assertEquals(0, reads.get());
+			main.withdraw(1_00);
+		} finally {
+			AccountLocks.unlockAll(locked);
+		}
+		reader.join();
+
+		assertEquals(1, reads.get());
+		assertEquals(99_00, seen.get());
+	}
+
+	@Test
+	void readNeverSeesAMoveHalfMade() throws InterruptedException {
+		NewBank bank = NewBank.getBank();
+		Customer customer = newCustomer("readMoves");
+		Account main = customer.getAccountByName("Main");
+		Account savings = customer.getAccountByName("Savings");
+		AtomicBoolean moving = new AtomicBoolean(true);
+		List<Thread> movers = new ArrayList<>();
+		for (int m = 0; m < 2; m++) {
+			Thread mover = new Thread(() -> {
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				while (moving.get()) {
+					if (random.nextBoolean()) {
+						bank.moveMoney(random.nextLong(1, 10_00), main, savings);
+					} else {
+						bank.moveMoney(random.nextLong(1, 10_00), savings, main);
+					}
+				}
+			});
+			mover.start();
+			movers.add(mover);
+		}
+
+		int wrong = 0;
+		try {
+			for (int i = 0; i < 200_000; i++) {
+				if (customer.readAccounts(() -> main.getBalance() + savings.getBalance()) != 200_00) {
+					wrong++;
+				}
+			}
+		} finally {
+			moving.set(false);
+			for (Thread mover : movers) {
+				mover.join();
+			}
+		}
+		assertEquals(0, wrong);
+		assertEquals(200_00, main.getBalance() + savings.getBalance());
+	}
+
+	// Adds a customer with a current account Main and a savings account Savings of 100 each
+	private static Customer newCustomer(String name) {
+		SecureDataStore.addNewCustomer(name, "Password123!", "1 Test Road", "07000000000", "test@test.com");
+		Customer customer = SecureDataStore.getCustomer(name);
+		customer.addAccount(new CurrentAccount("Main", 100_00, customer));
+		customer.addAccount(new SavingsAccount("Savings", 100_00, customer));
+		return customer;
+	}
+}
@@ -0,0 +1,57 @@
+package newbank.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Instant;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/*
+ * The daily pay limit in ROLLING mode, which applies it to any 24 hours. The mode is read once when DailyLimit is
+ * loaded, so it is set before the first test runs.
+ */
+class DailyLimitRollingTest {
+
+	private static final long HOUR = 60 * 60 * 1000L;
+	private static final long START = Instant.parse("2026-07-01T12:00:00Z").toEpochMilli();
+
+	@BeforeAll
+	static void useRollingWindow() {
+		System.setProperty("newbank.limit.window", "ROLLING");
+	}
+
+	@Test
+	void paymentCountsForTwentyFourHours() {
+		DailyLimit limit = new DailyLimit();
+		assertTrue(limit.tryReserve(30000_00, START));
+		assertTrue(limit.tryReserve(20000_00, START + HOUR));
+		assertFalse(limit.tryReserve(1, START + 2 * HOUR));
+		// midnight does not start the count again
+		assertFalse(limit.tryReserve(1, Instant.parse("2026-07-02T00:00:00Z").toEpochMilli()));
+		assertFalse(limit.tryReserve(1, START + 23 * HOUR + 45 * 60 * 1000L));
+		// 24 hours on the first payment no longer counts, the second still does
+		assertTrue(limit.tryReserve(30000_00, START + 24 * HOUR));
+		assertFalse(limit.tryReserve(1, START + 24 * HOUR));
+		assertTrue(limit.tryReserve(20000_00, START + 25 * HOUR));
+	}
+
+	@Test
+	void paymentsOlderThanADayAreForgotten() {
+		DailyLimit limit = new DailyLimit();
+		for (int day = 0; day < 10; day++) {
+			assertTrue(limit.tryReserve(DailyLimit.LIMIT, START + day * 24 * HOUR), "day " + day);
+			assertFalse(limit.tryReserve(1, START + day * 24 * HOUR + HOUR), "day " + day);
+		}
+	}
+
+	@Test
+	void concurrentPaymentsNeverOvershootTheLimit() throws InterruptedException {
+		DailyLimit limit = new DailyLimit();
+		long now = System.currentTimeMillis();
+		assertEquals(DailyLimit.LIMIT / 7_00, DailyLimitTest.reserveConcurrently(limit, now, 7_00, 16, 2000));
+		assertFalse(limit.tryReserve(7_00, now));
+	}
+}
@@ -0,0 +1,131 @@
+package newbank.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/*
+ * The daily pay limit in its default MIDNIGHT mode, which starts the count again at midnight UK time.
+ * DailyLimitRollingTest covers ROLLING mode.
+ */
+class DailyLimitTest {
+
+	@BeforeAll
+	static void useEmptyDataDirectory() throws IOException {
+		System.setProperty("newbank.data", Files.createTempDirectory("newbank-test").toString());
+		System.setProperty("newbank.snapshot.intervalMinutes", "0");
+	}
+
+	@Test
+	void countStartsAgainAtMidnightUkTime() {
+		DailyLimit limit = new DailyLimit();
+		// 23:30 on 1 July in UK summer time, midnight is at 23:00 UTC
+		long evening = Instant.parse("2026-07-01T22:30:00Z").toEpochMilli();
+		long beforeMidnight = Instant.parse("2026-07-01T22:59:59.999Z").toEpochMilli();
+		long midnight = Instant.parse("2026-07-01T23:00:00Z").toEpochMilli();
+
+		assertTrue(limit.tryReserve(DailyLimit.LIMIT - 10, evening));
+		assertFalse(limit.tryReserve(11, beforeMidnight));
+		assertTrue(limit.tryReserve(10, beforeMidnight));
+		assertFalse(limit.tryReserve(1, beforeMidnight));
+		assertTrue(limit.tryReserve(DailyLimit.LIMIT, midnight));
+		assertFalse(limit.tryReserve(1, midnight));
+	}
+
+	@Test
+	void midnightFollowsTheClockChange() {
+		DailyLimit limit = new DailyLimit();
+		// in winter UK time is UTC, 23:30 UTC on 1 December is still the same day
+		assertTrue(limit.tryReserve(DailyLimit.LIMIT, Instant.parse("2026-12-01T00:00:00Z").toEpochMilli()));
+		assertFalse(limit.tryReserve(1, Instant.parse("2026-12-01T23:30:00Z").toEpochMilli()));
+		assertTrue(limit.tryReserve(1, Instant.parse("2026-12-02T00:00:00Z").toEpochMilli()));
+	}
+
+	@Test
+	void paymentOverTheLimitIsRefusedOnItsOwn() {
+		DailyLimit limit = new DailyLimit();
+		long now = System.currentTimeMillis();
+		assertFalse(limit.tryReserve(DailyLimit.LIMIT + 1, now));
+		assertEquals(0, limit.getPaid());
+		assertTrue(limit.tryReserve(DailyLimit.LIMIT, now));
+		assertEquals(DailyLimit.LIMIT, limit.getPaid());
+	}
+
+	@Test
+	void concurrentPaymentsNeverOvershootTheLimit() throws InterruptedException {
+		DailyLimit limit = new DailyLimit();
+		long now = System.currentTimeMillis();
+		assertEquals(DailyLimit.LIMIT / 7_00, reserveConcurrently(limit, now, 7_00, 16, 2000));
+		assertEquals(DailyLimit.LIMIT / 7_00 * 7_00, limit.getPaid());
+	}
+
+	@Test
+	void onlyPaymentsMadeToOtherCustomersCount() {
+		NewBank bank = NewBank.getBank();
+		SecureDataStore.addNewCustomer("limitPayer", "Password123!", "1 Test Road", "07000000000", "test@test.com");
+		Customer payer = SecureDataStore.getCustomer("limitPayer");
+		Account main = new CurrentAccount("Main", 60000_00, payer);
+		Account savings = new SavingsAccount("Savings", 0, payer);
+		payer.addAccount(main);
+		payer.addAccount(savings);
+		SecureDataStore.addNewCustomer("limitPayee", "Password123!", "1 Test Road", "07000000000", "test@test.com");
+		Customer payee = SecureDataStore.getCustomer("limitPayee");
+		Account payeeMain = new CurrentAccount("Main", 0, payee);
+		payee.addAccount(payeeMain);
+		CustomerID payerID = new CustomerID("limitPayer");
+
+		assertTrue(bank.processRequest(payerID, "MOVE 25000 Main Savings").endsWith("SUCCESS\n"));
+		assertEquals(0, payer.getDailyLimit().getPaid());
+		assertTrue(bank.processRequest(payerID, "PAY 30000 " + main.getIBAN() + " " + payeeMain.getIBAN())
+				.endsWith("SUCCESS\n"));
+		// refused for its funds, it does not count towards the limit
+		assertTrue(bank.processRequest(payerID, "PAY 20000.01 " + main.getIBAN() + " " + payeeMain.getIBAN())
+				.startsWith("Insufficient funds"));
+		assertTrue(bank.processRequest(payerID, "PAY 20000.01 " + savings.getIBAN() + " " + payeeMain.getIBAN())
+				.startsWith("Transaction amount exceeds daily limit"));
+		assertTrue(bank.processRequest(payerID, "PAY 20000 " + savings.getIBAN() + " " + payeeMain.getIBAN())
+				.endsWith("SUCCESS\n"));
+		assertEquals(DailyLimit.LIMIT, payer.getDailyLimit().getPaid());
+		assertEquals(50000_00, payeeMain.getBalance());
+	}
+
+	// Reserves the amount from many threads at once and returns the number of reservations that succeeded
+	static int reserveConcurrently(DailyLimit limit, long nowMillis, long amount, int threads, int perThread)
+			throws InterruptedException {
+		CountDownLatch start = new CountDownLatch(1);
+		AtomicInteger reserved = new AtomicInteger();
+		List<Thread> payers = new ArrayList<>();
+		for (int t = 0; t < threads; t++) {
+			Thread payer = new Thread(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				for (int i = 0; i < perThread; i++) {
+					if (limit.tryReserve(amount, nowMillis)) {
+						reserved.incrementAndGet();
+					}
+				}
+			});
+			payer.start();
+			payers.add(payer);
+		}
+		start.countDown();
+		for (Thread payer : payers) {
+			payer.join();
+		}
+		return reserved.get();
+	}
+}
@@ -0,0 +1,272 @@
+package newbank.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/*
+ * Records written through the journal are read back in order by replay, and a record cut short or damaged at the end
+ * of the journal, as a crash leaves it, is cut off so that the records before it are kept and appending carries on
+ * after them. Replaying records an account already has, as after loading a snapshot, changes nothing. Once a write
+ * fails, every commit waiting for it or made after it fails as well.
+ */
+class LedgerJournalTest {
+
+	private Path directory;
+	private LedgerJournal journal;
+	// stands in for the bank's scheduler, which flushes the journal in BATCHED mode
+	private Thread flusher;
+	// the flusher is not interrupted, an interrupt during a write closes the journal's channel
+	private volatile boolean flusherStopped;
+
+	@BeforeEach
+	void createJournalDirectory() throws IOException {
+		directory = Files.createTempDirectory("newbank-journal");
+	}
+
+	@AfterEach
+	void closeJournal() throws IOException, InterruptedException {
+		if (flusher != null) {
+			stopFlusher();
+		}
+		if (journal != null) {
+			journal.close();
+		}
+	}
+
+	@Test
+	void replayReadsTheRecordsInTheOrderTheyWereWritten() throws IOException {
+		Account account = writeAccount(LedgerJournal.Durability.SYNC);
+
+		Recorder replayed = reopen();
+		assertEquals(List.of(LedgerJournal.ACCOUNT_OPENED, LedgerJournal.DEPOSIT, LedgerJournal.WITHDRAW), replayed.types);
+		assertEquals(List.of(1L, 2L, 3L), replayed.lsns);
+		ByteBuffer opened = replayed.bodies.get(0);
+		assertEquals("CURRENT", LedgerJournal.getString(opened));
+		assertEquals(account.getIBAN(), LedgerJournal.getString(opened));
+		assertEquals("Main", LedgerJournal.getString(opened));
+		ByteBuffer withdrawn = replayed.bodies.get(2);
+		assertEquals(account.getIBAN(), LedgerJournal.getString(withdrawn));
+		assertEquals(25_50, withdrawn.getLong());
+	}
+
+	@Test
+	void batchedCommitReturnsOnceTheRecordsAreOnDisk() throws IOException {
+		writeAccount(LedgerJournal.Durability.BATCHED);
+		long committed = Files.size(lastSegment());
+
+		// closing writes out anything still buffered, there must be nothing left
+		assertEquals(3, reopen().types.size());
+		assertEquals(committed, Files.size(lastSegment()));
+	}
+
+	@Test
+	void recordCutShortAtTheEndIsCutOff() throws IOException {
+		writeAccount(LedgerJournal.Durability.SYNC);
+		Path segment = lastSegment();
+		long intact = Files.size(segment);
+		try (FileChannel out = FileChannel.open(segment, StandardOpenOption.APPEND)) {
+			// the frame promises 20 bytes of body, only 5 made it to disk
+			out.write(ByteBuffer.allocate(13).putInt(20).putInt(0).put(new byte[5]).flip());
+		}
+
+		assertEquals(3, reopen().types.size());
+		assertEquals(intact, Files.size(segment));
+	}
+
+	@Test
+	void recordFailingItsChecksumAtTheEndIsCutOffAndAppendingCarriesOn() throws IOException {
+		Account account = writeAccount(LedgerJournal.Durability.SYNC);
+		Path segment = lastSegment();
+		long size = Files.size(segment);
+		try (FileChannel out = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			ByteBuffer last = ByteBuffer.allocate(1);
+			out.read(last, size - 1);
+			out.write(ByteBuffer.wrap(new byte[] { (byte) ~last.get(0) }), size - 1);
+		}
+
+		assertEquals(2, reopen().types.size());
+		assertTrue(Files.size(segment) < size);
+		LedgerJournal.install(journal);
+		account.withdraw(1_00);
+		LedgerJournal.commit();
+
+		Recorder replayed = reopen();
+		assertEquals(List.of(LedgerJournal.ACCOUNT_OPENED, LedgerJournal.DEPOSIT, LedgerJournal.WITHDRAW), replayed.types);
+		assertEquals(List.of(1L, 2L, 3L), replayed.lsns);
+	}
+
+	@Test
+	void replayOnlyAppliesTheRecordsAnAccountDoesNotHaveYet() throws IOException {
+		Account account = writeAccount(LedgerJournal.Durability.SYNC);
+		journal.close();
+		String statement = account.getStatement(1);
+
+		// the account as a snapshot copied it after the deposit, record 2, and before the withdrawal
+		account.deposit(25_50);
+		account.setJournalLsn(2);
+		journal = new LedgerJournal(directory, LedgerJournal.Durability.SYNC);
+		assertEquals(3, journal.replay(new JournalReplayer(), 0));
+		assertEquals(74_50, account.getBalance());
+		assertEquals(3, account.getJournalLsn());
+
+		// and again, now that it has every record
+		journal.close();
+		journal = new LedgerJournal(directory, LedgerJournal.Durability.SYNC);
+		journal.replay(new JournalReplayer(), 0);
+		assertEquals(74_50, account.getBalance());
+		assertEquals(statement, account.getStatement(1));
+	}
+
+	@Test
+	void commitFailsOnceAWriteFailed() throws IOException {
+		Account account = writeAccount(LedgerJournal.Durability.SYNC);
+		account.withdraw(1_00);
+		// the channel is closed by an interrupt during the write, which fails like a full disk would
+		Thread.currentThread().interrupt();
+		assertThrows(UncheckedIOException.class, LedgerJournal::commit);
+		assertTrue(Thread.interrupted());
+
+		account.withdraw(1_00);
+		assertThrows(UncheckedIOException.class, LedgerJournal::commit);
+	}
+
+	@Test
+	void batchedCommitWaitingForAFailedWriteFails() throws Exception {
+		Account account = writeAccount(LedgerJournal.Durability.BATCHED);
+		stopFlusher();
+		AtomicReference<Throwable> thrown = new AtomicReference<>();
+		Thread waiter = new Thread(() -> {
+			try {
+				account.withdraw(1_00);
+				LedgerJournal.commit();
+			} catch (Throwable e) {
+				thrown.set(e);
+			}
+		}, "test-journal-waiter");
+		waiter.start();
+		awaitWaiting(waiter);
+
+		Thread.currentThread().interrupt();
+		assertThrows(UncheckedIOException.class, journal::flushBatch);
+		assertTrue(Thread.interrupted());
+		waiter.join(5_000);
+		assertFalse(waiter.isAlive());
+		assertInstanceOf(UncheckedIOException.class, thrown.get());
+	}
+
+	@Test
+	void interruptedBatchedCommitWaitsForItsRecords() throws Exception {
+		Account account = writeAccount(LedgerJournal.Durability.BATCHED);
+		stopFlusher();
+		AtomicBoolean interruptKept = new AtomicBoolean();
+		Thread waiter = new Thread(() -> {
+			account.withdraw(1_00);
+			LedgerJournal.commit();
+			interruptKept.set(Thread.currentThread().isInterrupted());
+		}, "test-journal-waiter");
+		waiter.start();
+		awaitWaiting(waiter);
+
+		waiter.interrupt();
+		waiter.join(100);
+		assertTrue(waiter.isAlive());
+		journal.flushBatch();
+		waiter.join(5_000);
+		assertFalse(waiter.isAlive());
+		assertTrue(interruptKept.get());
+		assertEquals(4, reopen().types.size());
+	}
+
+	// Opens a new journal and records an account opened with 100 and withdrawn from, three records in all
+	private Account writeAccount(LedgerJournal.Durability durability) throws IOException {
+		journal = new LedgerJournal(directory, durability);
+		assertEquals(0, journal.replay(new Recorder(), 0));
+		LedgerJournal.install(journal);
+		if (durability == LedgerJournal.Durability.BATCHED) {
+			startFlusher(journal);
+		}
+		Customer customer = new Customer("journalTest", "1 Test Road", "07000000000", "test@test.com");
+		Account account = new CurrentAccount("Main", 100_00, customer);
+		account.withdraw(25_50);
+		LedgerJournal.commit();
+		return account;
+	}
+
+	// Closes the journal, as a stopped server would, and replays it from the start
+	private Recorder reopen() throws IOException {
+		journal.close();
+		journal = new LedgerJournal(directory, LedgerJournal.Durability.SYNC);
+		Recorder recorder = new Recorder();
+		journal.replay(recorder, 0);
+		return recorder;
+	}
+
+	private void startFlusher(LedgerJournal batched) {
+		flusherStopped = false;
+		flusher = new Thread(() -> {
+			try {
+				while (!flusherStopped) {
+					Thread.sleep(5);
+					batched.flushBatch();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}, "test-journal-flusher");
+		flusher.setDaemon(true);
+		flusher.start();
+	}
+
+	private void stopFlusher() throws InterruptedException {
+		flusherStopped = true;
+		flusher.join();
+		flusher = null;
+	}
+
+	private static void awaitWaiting(Thread waiter) throws InterruptedException {
+		while (waiter.getState() != Thread.State.WAITING) {
+			Thread.sleep(1);
+		}
+	}
+
+	private Path lastSegment() throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.filter(file -> file.getFileName().toString().startsWith("journal-")).sorted()
+					.reduce((first, second) -> second).orElseThrow();
+		}
+	}
+
+	// Keeps the records replayed instead of applying them to the bank
+	private static final class Recorder extends JournalReplayer {
+		final List<Long> lsns = new ArrayList<>();
+		final List<Byte> types = new ArrayList<>();
+		final List<ByteBuffer> bodies = new ArrayList<>();
+
+		@Override
+		void apply(long lsn, byte type, ByteBuffer body) {
+			lsns.add(lsn);
+			types.add(type);
+			bodies.add(body);
+		}
+	}
+}
@@ -0,0 +1,47 @@
+package newbank.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/*
+ * A loan is paid out of the lender's account named in the LOAN command, so that account must hold the amount, whatever
+ * the lender's other accounts hold.
+ */
+class LoanAgreementTest {
+
+	@BeforeAll
+	static void useEmptyDataDirectory() throws IOException {
+		System.setProperty("newbank.data", Files.createTempDirectory("newbank-test").toString());
+		System.setProperty("newbank.snapshot.intervalMinutes", "0");
+	}
+
+	@Test
+	void loanMustBeCoveredByTheLendersAccount() {
+		NewBank bank = NewBank.getBank();
+		SecureDataStore.addNewCustomer("loanLender", "Password123!", "1 Test Road", "07000000000", "test@test.com");
+		Customer lender = SecureDataStore.getCustomer("loanLender");
+		Account current = new CurrentAccount("Main", 10_00, lender);
+		Account savings = new SavingsAccount("Savings", 500_00, lender);
+		lender.addAccount(current);
+		lender.addAccount(savings);
+		SecureDataStore.addNewCustomer("loanBorrower", "Password123!", "1 Test Road", "07000000000", "test@test.com");
+		Customer borrower = SecureDataStore.getCustomer("loanBorrower");
+		Account borrowerMain = new CurrentAccount("Main", 0, borrower);
+		borrower.addAccount(borrowerMain);
+		CustomerID lenderID = new CustomerID("loanLender");
+
+		// the savings account could cover it, the current account the loan is paid from cannot
+		assertEquals("FAIL", bank.processRequest(lenderID, "LOAN CURRENT loanBorrower 50"));
+		assertEquals(10_00, current.getBalance());
+		assertEquals(0, borrowerMain.getBalance());
+
+		assertEquals("SUCCESS", bank.processRequest(lenderID, "LOAN SAVINGS loanBorrower 50"));
+		assertEquals(450_00, savings.getBalance());
+		assertEquals(50_00, borrowerMain.getBalance());
+	}
+}
@@ -0,0 +1,101 @@
+package newbank.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.math.RoundingMode;
+
+import org.junit.jupiter.api.Test;
+
+/*
+ * Amounts typed by customers are read into pence exactly or rejected, and percentages are rounded to a whole penny by
+ * the rule asked for.
+ */
+class MoneyTest {
+
+	@Test
+	void parsesPoundsAndUpToTwoDecimalsIntoPence() {
+		assertEquals(100_00, Money.parse("100"));
+		assertEquals(100_50, Money.parse("100.5"));
+		assertEquals(100_50, Money.parse("100.50"));
+		assertEquals(100_05, Money.parse("100.05"));
+		assertEquals(1, Money.parse("0.01"));
+		assertEquals(50, Money.parse(".5"));
+		assertEquals(5_00, Money.parse("5."));
+		assertEquals(7_00, Money.parse("007"));
+	}
+
+	@Test
+	void rejectsWhatIsNotAnAmount() {
+		for (String text : new String[] { "", ".", "-5", "+5", "1.234", "1.2.3", "1e3", "1,000", " 5", "5 ", "£5", "ten" }) {
+			assertThrows(NumberFormatException.class, () -> Money.parse(text), text);
+		}
+	}
+
+	@Test
+	void parsesOneWordOfALongerText() {
+		String request = "PAY 12.34 GB001000011000001";
+		assertEquals(12_34, Money.parse(request, 4, 9));
+		assertEquals(12_00, Money.parse(request, 4, 6));
+		NumberFormatException invalid = assertThrows(NumberFormatException.class, () -> Money.parse(request, 0, 9));
+		assertEquals("Invalid amount: PAY 12.34", invalid.getMessage());
+		assertThrows(NumberFormatException.class, () -> Money.parse(request, 4, 4));
+	}
+
+	@Test
+	void acceptsUpToTheLargestAmount() {
+		assertEquals(Money.MAX_AMOUNT, Money.parse("10000000000"));
+		assertEquals(Money.MAX_AMOUNT, Money.parse("10000000000.00"));
+		assertThrows(NumberFormatException.class, () -> Money.parse("10000000000.01"));
+		assertThrows(NumberFormatException.class, () -> Money.parse("10000000001"));
+		// far beyond a long, rejected before it can overflow
+		assertThrows(NumberFormatException.class, () -> Money.parse("99999999999999999999999"));
+	}
+
+	@Test
+	void formatsPenceWithTwoDecimals() {
+		assertEquals("0.00", Money.format(0));
+		assertEquals("0.05", Money.format(5));
+		assertEquals("0.50", Money.format(50));
+		assertEquals("1000.50", Money.format(100_050));
+		assertEquals("-0.01", Money.format(-1));
+		assertEquals("-12.34", Money.format(-12_34));
+		assertEquals("10000000000.00", Money.format(Money.MAX_AMOUNT));
+	}
+
+	@Test
+	void formatsWhatItParses() {
+		for (String text : new String[] { "0.00", "0.01", "0.10", "9.99", "1234567.89" }) {
+			assertEquals(text, Money.format(Money.parse(text)));
+		}
+	}
+
+	@Test
+	void roundsPercentagesWithTheGivenRule() {
+		// 2% of 0.25 is half a penny, of 0.75 one and a half pence
+		assertEquals(0, Money.percentOf(25, 200, RoundingMode.HALF_EVEN));
+		assertEquals(2, Money.percentOf(75, 200, RoundingMode.HALF_EVEN));
+		assertEquals(1, Money.percentOf(25, 200, RoundingMode.HALF_UP));
+		assertEquals(2, Money.percentOf(75, 200, RoundingMode.HALF_UP));
+		assertEquals(0, Money.percentOf(25, 200, RoundingMode.DOWN));
+		assertEquals(1, Money.percentOf(75, 200, RoundingMode.DOWN));
+		// just over and under half a penny
+		assertEquals(1, Money.percentOf(26, 200, RoundingMode.HALF_EVEN));
+		assertEquals(0, Money.percentOf(24, 200, RoundingMode.HALF_UP));
+		assertEquals(20_00, Money.percentOf(1000_00, 200, RoundingMode.HALF_EVEN));
+	}
+
+	@Test
+	void roundsNegativeAmountsAwayFromZeroOnHalves() {
+		assertEquals(-2, Money.percentOf(-75, 200, RoundingMode.HALF_UP));
+		assertEquals(-2, Money.percentOf(-75, 200, RoundingMode.HALF_EVEN));
+		assertEquals(0, Money.percentOf(-25, 200, RoundingMode.HALF_EVEN));
+		assertEquals(-1, Money.percentOf(-75, 200, RoundingMode.DOWN));
+	}
+
+	@Test
+	void rejectsUnsupportedRoundingAndOverflow() {
+		assertThrows(IllegalArgumentException.class, () -> Money.percentOf(100, 200, RoundingMode.CEILING));
+		assertThrows(ArithmeticException.class, () -> Money.percentOf(Long.MAX_VALUE / 2, 200, RoundingMode.DOWN));
+	}
+}
@@ -0,0 +1,92 @@
+package newbank.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/*
+ * Many payers moving money at random between a small set of shared accounts, in both directions, so the same pairs of
+ * accounts are locked in opposite orders at the same time. With only the accounts a transfer touches locked (see
+ * AccountLocks) no money may be created or lost and no payer may wait forever for another.
+ */
+class MoveMoneyContentionTest {
+
+	private static final int ACCOUNTS = 8;
+	private static final int PAYERS = 16;
+	private static final int MOVES_PER_PAYER = 5000;
+	private static final long OPENING_BALANCE = 1000_00;
+	private static final long TIMEOUT_SECONDS = 60;
+
+	@BeforeAll
+	static void useEmptyDataDirectory() throws IOException {
+		// the bank is started on first use, in a data directory of its own
+		System.setProperty("newbank.data", Files.createTempDirectory("newbank-test").toString());
+		System.setProperty("newbank.snapshot.intervalMinutes", "0");
+	}
+
+	@Test
+	void concurrentMovesConserveMoneyAndDoNotDeadlock() throws InterruptedException {
+		NewBank bank = NewBank.getBank();
+		SecureDataStore.addNewCustomer("contention", "Password123!", "1 Test Road", "07000000000", "test@test.com");
+		Customer customer = SecureDataStore.getCustomer("contention");
+		Account[] accounts = new Account[ACCOUNTS];
+		for (int i = 0; i < ACCOUNTS; i++) {
+			accounts[i] = new CurrentAccount("Shared" + i, OPENING_BALANCE, customer);
+			customer.addAccount(accounts[i]);
+		}
+
+		CountDownLatch start = new CountDownLatch(1);
+		AtomicInteger moved = new AtomicInteger();
+		List<Thread> payers = new ArrayList<>();
+		for (int p = 0; p < PAYERS; p++) {
+			Thread payer = new Thread(() -> {
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				for (int i = 0; i < MOVES_PER_PAYER; i++) {
+					Account from = accounts[random.nextInt(ACCOUNTS)];
+					Account to = accounts[random.nextInt(ACCOUNTS - 1)];
+					if (to == from) {
+						to = accounts[ACCOUNTS - 1];
+					}
+					if (bank.moveMoney(random.nextLong(1, 200_00), from.getIBAN(), to.getIBAN())) {
+						moved.incrementAndGet();
+					}
+				}
+			}, "payer-" + p);
+			// a deadlocked payer must not keep the test JVM alive
+			payer.setDaemon(true);
+			payer.start();
+			payers.add(payer);
+		}
+		start.countDown();
+
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+		for (Thread payer : payers) {
+			payer.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+			assertFalse(payer.isAlive(), payer.getName() + " did not finish within " + TIMEOUT_SECONDS + " s");
+		}
+
+		long total = 0;
+		for (Account account : accounts) {
+			total += account.getBalance();
+		}
+		assertEquals(ACCOUNTS * OPENING_BALANCE, total, "money was created or lost");
+		assertTrue(moved.get() > 0, "no move succeeded");
+	}
+}
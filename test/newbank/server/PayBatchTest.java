@@ -0,0 +1,163 @@
+package newbank.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/*
+ * PAYBATCH reads its payments from the lines after the command or from a file in the payment batch directory, and
+ * pays each valid line in order, reporting a result per line.
+ */
+class PayBatchTest {
+
+	private static Path batchDirectory;
+
+	@BeforeAll
+	static void useEmptyDirectories() throws IOException {
+		System.setProperty("newbank.data", Files.createTempDirectory("newbank-test").toString());
+		System.setProperty("newbank.snapshot.intervalMinutes", "0");
+		batchDirectory = Files.createTempDirectory("newbank-batches");
+		System.setProperty("newbank.batch.dir", batchDirectory.toString());
+	}
+
+	@Test
+	void readsTheNumberOfLinesGivenAfterTheCommand() {
+		Command.PayBatch batch = assertInstanceOf(Command.PayBatch.class, Command.parse("PAYBATCH 4"));
+		assertEquals(4, batch.linesExpected());
+		batch.addLine("10 GB001000011000001 GB001000021000002");
+		batch.addLine("PAY 2.50 GB001000011000001 GB001000031000003");
+		assertEquals(2, batch.linesExpected());
+		batch.addLine("ten GB001000011000001 GB001000021000002");
+		batch.addLine("0.00 GB001000011000001 GB001000021000002");
+		assertEquals(0, batch.linesExpected());
+
+		assertEquals(4, batch.size());
+		assertEquals(10_00, batch.amount(0));
+		assertEquals("GB001000011000001", batch.fromIBAN(0));
+		assertEquals("GB001000031000003", batch.toIBAN(1));
+		assertNull(batch.error(1));
+		assertEquals("FAIL: Invalid amount", batch.error(2));
+		assertEquals("FAIL: Invalid amount", batch.error(3));
+		assertEquals("You are attempting to make 2 payments totalling 12.50, 2 line(s) could not be read and will not be paid",
+				batch.confirmationMessage());
+	}
+
+	@Test
+	void batchSizeMustBeWithinTheLimit() {
+		assertInvalid("PAYBATCH 0", "between 1 and 10000 payments");
+		assertInvalid("PAYBATCH 10001", "between 1 and 10000 payments");
+		assertInvalid("PAYBATCH many", "Invalid number of payments");
+		assertInvalid("PAYBATCH", "number of specified parameters");
+	}
+
+	@Test
+	void readsAFileInTheBatchDirectory() throws IOException {
+		Files.write(batchDirectory.resolve("payroll.txt"), List.of("1 GB001000011000001 GB001000021000002", "",
+				"  ", "PAY 2 GB001000011000001 GB001000031000003"), StandardCharsets.UTF_8);
+		Command.PayBatch batch = assertInstanceOf(Command.PayBatch.class, Command.parse("PAYBATCH FILE payroll.txt"));
+		assertEquals(2, batch.size());
+		assertEquals(0, batch.linesExpected());
+		assertEquals(2_00, batch.amount(1));
+
+		Files.write(batchDirectory.resolve("empty.txt"), List.of("", " "), StandardCharsets.UTF_8);
+		assertInvalid("PAYBATCH FILE empty.txt", "holds no payments");
+		assertInvalid("PAYBATCH FILE missing.txt", "Cannot read payment file missing.txt");
+	}
+
+	@Test
+	void filesOutsideTheBatchDirectoryCannotBeNamed() throws IOException {
+		Path outside = Files.createTempFile("newbank-outside", ".txt");
+		Files.write(outside, List.of("1 GB001000011000001 GB001000021000002"), StandardCharsets.UTF_8);
+		Path subdirectory = Files.createDirectories(batchDirectory.resolve("sub"));
+		Files.write(subdirectory.resolve("nested.txt"), List.of("1 GB001000011000001 GB001000021000002"),
+				StandardCharsets.UTF_8);
+
+		String notInDirectory = "must be in the payment batch directory";
+		assertInvalid("PAYBATCH FILE " + outside.toAbsolutePath(), notInDirectory);
+		assertInvalid("PAYBATCH FILE ../" + outside.getFileName(), notInDirectory);
+		assertInvalid("PAYBATCH FILE sub/../../" + outside.getFileName(), notInDirectory);
+		assertInvalid("PAYBATCH FILE sub/nested.txt", notInDirectory);
+		assertInvalid("PAYBATCH FILE .", notInDirectory);
+	}
+
+	@Test
+	void paysTheValidLinesAndReportsEachLine() {
+		NewBank bank = NewBank.getBank();
+		Customer payer = newCustomer("batchPayer");
+		Account wages = new CurrentAccount("Wages", 500_00, payer);
+		Account reserve = new SavingsAccount("Reserve", 0, payer);
+		payer.addAccount(wages);
+		payer.addAccount(reserve);
+		Customer payee = newCustomer("batchPayee");
+		Account main = new CurrentAccount("Main", 0, payee);
+		payee.addAccount(main);
+
+		Command.PayBatch batch = (Command.PayBatch) Command.parse("PAYBATCH 6");
+		batch.addLine("10 " + wages.getIBAN() + " " + main.getIBAN());
+		batch.addLine("PAY 5.50 " + wages.getIBAN() + " " + main.getIBAN());
+		batch.addLine("1 " + wages.getIBAN() + " GB000000000000000");
+		batch.addLine("1 " + main.getIBAN() + " " + wages.getIBAN());
+		batch.addLine("1 " + wages.getIBAN() + " " + reserve.getIBAN());
+		batch.addLine("1000 " + wages.getIBAN() + " " + main.getIBAN());
+
+		assertEquals("1 SUCCESS\n" +
+				"2 SUCCESS\n" +
+				"3 FAIL: Invalid IBAN\n" +
+				"4 FAIL: Payment not initiated by account owner\n" +
+				"5 FAIL: Sender is recipient\n" +
+				"6 FAIL: Insufficient funds\n" +
+				"2 of 6 payments made, totalling 15.50\n" +
+				"FAIL\n", bank.processRequest(new CustomerID("batchPayer"), batch));
+		assertEquals(484_50, wages.getBalance());
+		assertEquals(15_50, main.getBalance());
+	}
+
+	@Test
+	void paymentsSpanningSeveralLockGroupsAreAllMade() {
+		NewBank bank = NewBank.getBank();
+		Customer payer = newCustomer("groupPayer");
+		Account wages = new CurrentAccount("Wages", 100_00, payer);
+		payer.addAccount(wages);
+		Customer payee = newCustomer("groupPayee");
+		List<Account> staff = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			Account account = new CurrentAccount("Staff" + i, 0, payee);
+			payee.addAccount(account);
+			staff.add(account);
+		}
+
+		int payments = 600;
+		Command.PayBatch batch = (Command.PayBatch) Command.parse("PAYBATCH " + payments);
+		for (int i = 0; i < payments; i++) {
+			batch.addLine("0.01 " + wages.getIBAN() + " " + staff.get(i % staff.size()).getIBAN());
+		}
+		String response = bank.processRequest(new CustomerID("groupPayer"), batch);
+
+		assertTrue(response.endsWith("600 of 600 payments made, totalling 6.00\nSUCCESS\n"), response);
+		assertEquals(94_00, wages.getBalance());
+		for (Account account : staff) {
+			assertEquals(60, account.getBalance());
+		}
+	}
+
+	private static Customer newCustomer(String name) {
+		SecureDataStore.addNewCustomer(name, "Password123!", "1 Test Road", "07000000000", "test@test.com");
+		return SecureDataStore.getCustomer(name);
+	}
+
+	private static void assertInvalid(String request, String reason) {
+		Command.Invalid invalid = assertInstanceOf(Command.Invalid.class, Command.parse(request), request);
+		assertTrue(invalid.response.contains(reason), invalid.response);
+	}
+}
@@ -0,0 +1,115 @@
+package newbank.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/*
+ * Requests sent to a shard are run one after another by its writer thread, through a ring that is reused many times
+ * over, and the result or exception of each reaches the session that sent it.
+ */
+class ShardEngineTest {
+
+	private ShardEngine engine;
+
+	@AfterEach
+	void stopEngine() {
+		if (engine != null) {
+			engine.shutdown();
+		}
+	}
+
+	@Test
+	void customersAreSplitIntoShardsBySortCode() {
+		engine = new ShardEngine(3, 8);
+		assertEquals(3, engine.size());
+		assertEquals(0, engine.shardOf(300));
+		assertEquals(1, engine.shardOf(301));
+		assertEquals(2, engine.shardOf(302));
+		assertThrows(IllegalArgumentException.class, () -> new ShardEngine(1, 6));
+	}
+
+	@Test
+	void taskRunsOnTheWriterOfItsShard() {
+		engine = new ShardEngine(2, 8);
+		assertFalse(ShardEngine.onWriterThread());
+		assertEquals("newbank-shard-1", engine.execute(101, () -> Thread.currentThread().getName()));
+		assertEquals("newbank-shard-0", engine.execute(100, () -> Thread.currentThread().getName()));
+		assertTrue(engine.execute(100, ShardEngine::onWriterThread));
+	}
+
+	@Test
+	void ringIsReusedAndEachShardRunsOneTaskAtATime() throws InterruptedException {
+		// a ring of 4 slots wraps round thousands of times, with more sessions than slots waiting for it
+		engine = new ShardEngine(2, 4);
+		int sessions = 8;
+		int requests = 5000;
+		// only ever changed by the writer of the shard, without any lock
+		long[] counts = new long[2];
+		CountDownLatch start = new CountDownLatch(1);
+		List<Thread> threads = new ArrayList<>();
+		List<Throwable> failures = new ArrayList<>();
+		for (int s = 0; s < sessions; s++) {
+			int sortCode = s;
+			Thread session = new Thread(() -> {
+				try {
+					start.await();
+					long last = -1;
+					for (int i = 0; i < requests; i++) {
+						long count = engine.execute(sortCode, () -> ++counts[sortCode % 2]);
+						// requests of one session are run in the order they were sent
+						assertTrue(count > last);
+						last = count;
+					}
+				} catch (Throwable e) {
+					synchronized (failures) {
+						failures.add(e);
+					}
+				}
+			});
+			session.start();
+			threads.add(session);
+		}
+		start.countDown();
+		for (Thread session : threads) {
+			session.join();
+		}
+
+		assertEquals(List.of(), failures);
+		long[] finalCounts = new long[2];
+		finalCounts[0] = engine.execute(0, () -> counts[0]);
+		finalCounts[1] = engine.execute(1, () -> counts[1]);
+		assertEquals(sessions / 2 * requests, finalCounts[0]);
+		assertEquals(sessions / 2 * requests, finalCounts[1]);
+	}
+
+	@Test
+	void exceptionReachesTheSessionAndTheWriterCarriesOn() {
+		engine = new ShardEngine(1, 4);
+		IllegalStateException thrown = new IllegalStateException("refused");
+		assertSame(thrown, assertThrows(IllegalStateException.class, () -> engine.execute(0, () -> {
+			throw thrown;
+		})));
+		assertThrows(AssertionError.class, () -> engine.execute(0, () -> {
+			throw new AssertionError("error");
+		}));
+		assertEquals("still running", engine.execute(0, () -> "still running"));
+	}
+
+	@Test
+	void writerRunsATaskForAnotherShardItself() {
+		engine = new ShardEngine(2, 4);
+		// a writer waiting for another writer could wait forever, it runs the task straight away instead
+		String ranOn = engine.execute(0, () -> engine.execute(1, () -> Thread.currentThread().getName()));
+		assertEquals("newbank-shard-0", ranOn);
+	}
+}
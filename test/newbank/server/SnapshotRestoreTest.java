@@ -0,0 +1,105 @@
+package newbank.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/*
+ * A bank restarted from its newest snapshot and the journal written after it has the same accounts, balances and
+ * statements as before it stopped, also when payments were made while the snapshot was being taken and the server was
+ * stopped without shutting down. The bank is a singleton, so each start runs in a JVM of its own (see Restart).
+ */
+class SnapshotRestoreTest {
+
+	private static final Pattern READY = Pattern.compile("snapshot at LSN (\\d+) .*, (\\d+) journal records replayed");
+
+	@Test
+	void restartLoadsTheSnapshotAndReplaysTheJournalTail(@TempDir Path data) throws Exception {
+		String before = run(data, "write");
+		String after = run(data, "read");
+
+		assertEquals(state(before), state(after));
+		Matcher ready = READY.matcher(after);
+		assertTrue(ready.find(), after);
+		assertTrue(Long.parseLong(ready.group(1)) > 0, "the snapshot was not loaded");
+		assertTrue(Long.parseLong(ready.group(2)) > 0, "the journal written after the snapshot was not replayed");
+	}
+
+	// Starts the bank in a new JVM and returns what it printed
+	private static String run(Path data, String phase) throws IOException, InterruptedException, URISyntaxException {
+		String classPath = Path.of(NewBank.class.getProtectionDomain().getCodeSource().getLocation().toURI())
+				+ File.pathSeparator
+				+ Path.of(Restart.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+		Process process = new ProcessBuilder(Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+				"-cp", classPath, "-Dnewbank.data=" + data, "-Dnewbank.snapshot.intervalMinutes=0",
+				Restart.class.getName(), phase).redirectErrorStream(true).start();
+		String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+		assertTrue(process.waitFor(60, TimeUnit.SECONDS), phase + " did not finish");
+		assertEquals(0, process.exitValue(), output);
+		return output;
+	}
+
+	// The state Restart printed
+	private static String state(String output) {
+		int start = output.indexOf(Restart.STATE);
+		assertTrue(start >= 0, output);
+		return output.substring(start);
+	}
+
+	/*
+	 * One start of the bank. "write" makes payments before, during and after a snapshot and halts without closing the
+	 * journal, "read" only starts the bank. Both print every account with its balance and statement.
+	 */
+	static final class Restart {
+		static final String STATE = "--- accounts ---";
+
+		public static void main(String[] args) throws Exception {
+			NewBank bank = NewBank.getBank();
+			if (args[0].equals("write")) {
+				CustomerID john = new CustomerID("John");
+				CustomerID christina = new CustomerID("Christina");
+				for (int i = 0; i < 20; i++) {
+					bank.processRequest(john, "MOVE 1 Checking Savings");
+				}
+				Thread mover = new Thread(() -> {
+					for (int i = 0; i < 200; i++) {
+						bank.processRequest(john, i % 2 == 0 ? "MOVE 2 Savings Checking" : "MOVE 1 Checking Savings");
+					}
+				});
+				mover.start();
+				BankSnapshot.take(LedgerJournal.getJournal(), BankConfig.dataDirectory());
+				mover.join();
+				bank.processRequest(christina, "NEWACCOUNT CURRENT Holiday");
+				bank.processRequest(christina, "MOVE 25 Savings Holiday");
+			}
+			List<Account> accounts = new ArrayList<>(Account.getAllAccounts());
+			accounts.sort(Comparator.comparing(Account::getIBAN));
+			StringBuilder state = new StringBuilder(STATE).append('\n');
+			for (Account account : accounts) {
+				state.append(account);
+				for (int page = 1; page <= account.getStatementPages(); page++) {
+					state.append(account.getStatement(page));
+				}
+				state.append('\n');
+			}
+			System.out.print(state);
+			System.out.flush();
+			// a crash: nothing is written out on the way down, only what was committed is on disk
+			Runtime.getRuntime().halt(0);
+		}
+	}
+}